@@ -0,0 +1,275 @@
+/*! ******************************************************************************
+ *
+ * CPython for the Hop orchestration platform
+ *
+ * http://www.project-hop.org
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.vutiendung.hop.pipeline.transforms.cpython;
+
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.DecimalVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.TimeStampMilliVector;
+import org.apache.arrow.vector.TimeStampNanoVector;
+import org.apache.arrow.vector.VarBinaryVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowStreamWriter;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.TimeUnit;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.FieldType;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.apache.hop.core.exception.HopException;
+import org.apache.hop.core.row.IRowMeta;
+import org.apache.hop.core.row.IValueMeta;
+
+/**
+ * Writes a frame as an Arrow IPC stream. Each Hop value type is mapped straight to an Arrow vector,
+ * so pandas gets typed columns, real nulls and datetime64 columns without parsing any text.
+ * <p/>
+ * Dates and timestamps are written as timezone-naive wall clock values in the JVM default time
+ * zone, which is what the CSV frames contain as well.
+ * <p/>
+ * Big numbers are written as decimal128 with the length and precision of the field when both are
+ * known and fit, and as their exact text otherwise. Either way pandas gets Decimal objects, no
+ * digits are lost to a float. A value with more digits or decimals than its decimal128 field fails
+ * the frame instead of being rounded.
+ */
+public class ArrowFrameWriter implements IFrameWriter {
+
+  /**
+   * Number of rows buffered in the vectors before a record batch is written to the stream
+   */
+  protected static final int ROWS_PER_BATCH = 64 * 1024;
+
+  private final BufferAllocator allocator;
+  private final VectorSchemaRoot root;
+  private final ArrowStreamWriter writer;
+  private final IVectorSetter[] setters;
+  private final TimeZone timeZone = TimeZone.getDefault();
+
+  /**
+   * Big number columns written as text, converted to Decimal when pandas reads the frame
+   */
+  private final List<String> decimalTextColumns = new ArrayList<>();
+
+  private int batchRows;
+
+  public ArrowFrameWriter(OutputStream out, IRowMeta rowMeta) throws HopException {
+    List<Field> fields = new ArrayList<>();
+    for (IValueMeta valueMeta : rowMeta.getValueMetaList()) {
+      ArrowType type = toArrowType(valueMeta);
+      fields.add(new Field(valueMeta.getName(), FieldType.nullable(type), null));
+      if (valueMeta.getType() == IValueMeta.TYPE_BIGNUMBER && type instanceof ArrowType.Utf8) {
+        decimalTextColumns.add(valueMeta.getName());
+      }
+    }
+
+    allocator = new RootAllocator();
+    try {
+      root = VectorSchemaRoot.create(new Schema(fields), allocator);
+      setters = new IVectorSetter[rowMeta.size()];
+      for (int i = 0; i < setters.length; i++) {
+        setters[i] = createSetter(rowMeta.getValueMeta(i), root.getVector(i));
+      }
+      root.allocateNew();
+
+      writer = new ArrowStreamWriter(root, null, out);
+      writer.start();
+    } catch (Exception e) {
+      allocator.close();
+      throw new HopException("Unable to start the Arrow stream: " + e.getMessage(), e);
+    }
+  }
+
+  @Override public void writeRow(Object[] row) throws HopException {
+    for (int i = 0; i < setters.length; i++) {
+      Object value = row[i];
+      if (value == null) {
+        ((FieldVector) root.getVector(i)).setNull(batchRows);
+      } else {
+        setters[i].set(batchRows, value);
+      }
+    }
+
+    batchRows++;
+    if (batchRows == ROWS_PER_BATCH) {
+      writeBatch();
+    }
+  }
+
+  @Override public void close() throws HopException {
+    try {
+      if (batchRows > 0) {
+        writeBatch();
+      }
+      writer.end();
+      writer.close();
+    } catch (Exception e) {
+      throw new HopException("Unable to finish the Arrow stream: " + e.getMessage(), e);
+    } finally {
+      root.close();
+      allocator.close();
+    }
+  }
+
+  @Override public String getPandasReadCommand(String frameName, String source) {
+    String lineSeparator = System.lineSeparator();
+    StringBuilder command = new StringBuilder(frameName + " = pa.ipc.open_stream(" + source + ").read_pandas()" + lineSeparator);
+    if (!decimalTextColumns.isEmpty()) {
+      command.append("from decimal import Decimal").append(lineSeparator);
+      for (String name : decimalTextColumns) {
+        String column = frameName + "['" + name.replace("\\", "\\\\").replace("'", "\\'") + "']";
+        command.append(column).append(" = ").append(column)
+            .append(".map(lambda v: v if v is None else Decimal(v))").append(lineSeparator);
+      }
+    }
+    return command.toString();
+  }
+
+  private void writeBatch() throws HopException {
+    try {
+      root.setRowCount(batchRows);
+      writer.writeBatch();
+      root.allocateNew();
+      batchRows = 0;
+    } catch (Exception e) {
+      throw new HopException("Unable to write an Arrow record batch: " + e.getMessage(), e);
+    }
+  }
+
+  private static ArrowType toArrowType(IValueMeta valueMeta) {
+    switch (valueMeta.getType()) {
+      case IValueMeta.TYPE_INTEGER:
+        return new ArrowType.Int(64, true);
+      case IValueMeta.TYPE_NUMBER:
+        return new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE);
+      case IValueMeta.TYPE_BIGNUMBER:
+        if (isDecimal128(valueMeta)) {
+          return new ArrowType.Decimal(valueMeta.getLength(), valueMeta.getPrecision(), 128);
+        }
+        return ArrowType.Utf8.INSTANCE;
+      case IValueMeta.TYPE_BOOLEAN:
+        return ArrowType.Bool.INSTANCE;
+      case IValueMeta.TYPE_DATE:
+        return new ArrowType.Timestamp(TimeUnit.MILLISECOND, null);
+      case IValueMeta.TYPE_TIMESTAMP:
+        return new ArrowType.Timestamp(TimeUnit.NANOSECOND, null);
+      case IValueMeta.TYPE_BINARY:
+        return ArrowType.Binary.INSTANCE;
+      default:
+        return ArrowType.Utf8.INSTANCE;
+    }
+  }
+
+  private IVectorSetter createSetter(final IValueMeta valueMeta, FieldVector vector) {
+    switch (valueMeta.getType()) {
+      case IValueMeta.TYPE_INTEGER: {
+        final BigIntVector v = (BigIntVector) vector;
+        return (index, value) -> v.setSafe(index, valueMeta.getInteger(value));
+      }
+      case IValueMeta.TYPE_NUMBER: {
+        final Float8Vector v = (Float8Vector) vector;
+        return (index, value) -> v.setSafe(index, valueMeta.getNumber(value));
+      }
+      case IValueMeta.TYPE_BIGNUMBER: {
+        if (!isDecimal128(valueMeta)) {
+          final VarCharVector v = (VarCharVector) vector;
+          return (index, value) -> v.setSafe(index, valueMeta.getBigNumber(value).toString().getBytes(StandardCharsets.US_ASCII));
+        }
+        final DecimalVector v = (DecimalVector) vector;
+        final int scale = valueMeta.getPrecision();
+        return (index, value) -> {
+          BigDecimal decimal;
+          try {
+            decimal = valueMeta.getBigNumber(value).setScale(scale, RoundingMode.UNNECESSARY);
+          } catch (ArithmeticException e) {
+            throw new HopException("The value " + valueMeta.getBigNumber(value) + " of field [" + valueMeta.getName()
+                + "] has more decimals than its precision " + scale);
+          }
+          if (decimal.precision() > v.getPrecision()) {
+            throw new HopException("The value " + decimal + " of field [" + valueMeta.getName()
+                + "] has more digits than its length " + v.getPrecision());
+          }
+          v.setSafe(index, decimal);
+        };
+      }
+      case IValueMeta.TYPE_BOOLEAN: {
+        final BitVector v = (BitVector) vector;
+        return (index, value) -> v.setSafe(index, valueMeta.getBoolean(value) ? 1 : 0);
+      }
+      case IValueMeta.TYPE_DATE: {
+        final TimeStampMilliVector v = (TimeStampMilliVector) vector;
+        return (index, value) -> v.setSafe(index, toWallClockMillis(valueMeta.getDate(value)));
+      }
+      case IValueMeta.TYPE_TIMESTAMP: {
+        final TimeStampNanoVector v = (TimeStampNanoVector) vector;
+        return (index, value) -> {
+          Date date = valueMeta.getDate(value);
+          long nanos = date instanceof Timestamp ? ((Timestamp) date).getNanos() % 1000000 : 0;
+          v.setSafe(index, toWallClockMillis(date) * 1000000L + nanos);
+        };
+      }
+      case IValueMeta.TYPE_BINARY: {
+        final VarBinaryVector v = (VarBinaryVector) vector;
+        return (index, value) -> v.setSafe(index, valueMeta.getBinary(value));
+      }
+      default: {
+        final VarCharVector v = (VarCharVector) vector;
+        return (index, value) -> v.setSafe(index, valueMeta.getString(value).getBytes(StandardCharsets.UTF_8));
+      }
+    }
+  }
+
+  /**
+   * @return true if the length and precision of a big number field are known and fit a decimal128
+   */
+  private static boolean isDecimal128(IValueMeta valueMeta) {
+    return valueMeta.getLength() > 0 && valueMeta.getLength() <= 38
+        && valueMeta.getPrecision() >= 0 && valueMeta.getPrecision() <= valueMeta.getLength();
+  }
+
+  private long toWallClockMillis(Date date) {
+    long millis = date.getTime();
+    return millis + timeZone.getOffset(millis);
+  }
+
+  /**
+   * Copies one non-null Hop value into the vector of its column
+   */
+  private interface IVectorSetter {
+    void set(int index, Object value) throws HopException;
+  }
+}
@@ -0,0 +1,347 @@
+/*! ******************************************************************************
+ *
+ * CPython for the Hop orchestration platform
+ *
+ * http://www.project-hop.org
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.vutiendung.hop.pipeline.transforms.cpython;
+
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BaseIntVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.DateDayVector;
+import org.apache.arrow.vector.DateMilliVector;
+import org.apache.arrow.vector.Decimal256Vector;
+import org.apache.arrow.vector.DecimalVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.FloatingPointVector;
+import org.apache.arrow.vector.LargeVarCharVector;
+import org.apache.arrow.vector.TimeStampVector;
+import org.apache.arrow.vector.VarBinaryVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.dictionary.Dictionary;
+import org.apache.arrow.vector.dictionary.DictionaryProvider;
+import org.apache.arrow.vector.ipc.ArrowStreamReader;
+import org.apache.arrow.vector.types.TimeUnit;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.DictionaryEncoding;
+import org.apache.hop.core.exception.HopException;
+import org.apache.hop.core.logging.ILogChannel;
+import org.apache.hop.core.row.IRowMeta;
+import org.apache.hop.core.row.IValueMeta;
+import org.apache.hop.core.row.value.ValueMetaString;
+
+/**
+ * Reads an output frame that the python suffix wrote as an Arrow IPC stream. Column vectors are
+ * decoded straight into typed Hop values, so numeric, boolean and date columns never go through
+ * string parsing.
+ * <p/>
+ * Timezone-naive timestamps are interpreted as wall clock values in the JVM default time zone, the
+ * same way {@link ArrowFrameWriter} writes them. Dictionary encoded columns, like pandas categorical
+ * columns, are decoded to their values.
+ */
+public class ArrowResultReader implements IResultReader {
+
+  private final IRowMeta outputFields;
+  private final String lineSeparator;
+  private final ILogChannel log;
+  private final TimeZone timeZone = TimeZone.getDefault();
+  private final ValueMetaString stringMeta = new ValueMetaString("python");
+  private final SimpleDateFormat dateFormater = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+
+  public ArrowResultReader(IRowMeta outputFields, String lineSeparator, ILogChannel log) {
+    this.outputFields = outputFields;
+    this.lineSeparator = lineSeparator;
+    this.log = log;
+  }
+
+  @Override public void read(InputStream in, IRowConsumer consumer) throws HopException {
+    try (BufferAllocator allocator = new RootAllocator();
+        ArrowStreamReader reader = new ArrowStreamReader(in, allocator)) {
+      VectorSchemaRoot root = reader.getVectorSchemaRoot();
+
+      // the schema of a stream is fixed, so the columns are bound to the output fields once
+      int numberOfField = outputFields.size();
+      IColumnReader[] columns = new IColumnReader[numberOfField];
+      for (int i = 0; i < numberOfField; i++) {
+        IValueMeta field = outputFields.getValueMeta(i);
+        FieldVector vector = root.getVector(field.getName());
+        if (vector == null) {
+          log.logDebug("Cannot find field " + field.getName() + " in the python output " + root.getSchema() + ", returning null");
+        } else {
+          columns[i] = bind(field, vector, reader);
+        }
+      }
+
+      while (reader.loadNextBatch()) {
+        int rowCount = root.getRowCount();
+        for (int row = 0; row < rowCount; row++) {
+          Object[] outputRow = new Object[numberOfField];
+          for (int i = 0; i < numberOfField; i++) {
+            if (columns[i] != null) {
+              outputRow[i] = columns[i].get(row);
+            }
+          }
+          consumer.putRow(outputRow);
+        }
+      }
+    } catch (HopException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new HopException("Unable to read the Arrow result of the python script: " + e.getMessage(), e);
+    }
+  }
+
+  @Override public String getPandasWriteCommand(String frameName, String target) {
+    return frameName + ".columns = [str(c) for c in " + frameName + ".columns]" + lineSeparator
+        + "_hop_table = pa.Table.from_pandas(" + frameName + ", preserve_index=False)" + lineSeparator
+        + "with pa.ipc.new_stream(" + target + ", _hop_table.schema) as _hop_writer:" + lineSeparator
+        + "\t_hop_writer.write_table(_hop_table)" + lineSeparator;
+  }
+
+  private IColumnReader bind(final IValueMeta field, final FieldVector vector, DictionaryProvider dictionaries)
+      throws HopException {
+    DictionaryEncoding encoding = vector.getField().getDictionary();
+    if (encoding != null) {
+      // the vector holds the codes, the stream loads the values into the same dictionary vector
+      Dictionary dictionary = dictionaries.lookup(encoding.getId());
+      if (dictionary == null || !(vector instanceof BaseIntVector)) {
+        throw new HopException("Cannot find the dictionary of field " + field.getName() + " in the python output");
+      }
+      final BaseIntVector codes = (BaseIntVector) vector;
+      final FieldVector values = dictionary.getVector();
+      final IValueGetter getter = createGetter(values);
+      return index -> {
+        if (vector.isNull(index)) {
+          return null;
+        }
+        int code = (int) codes.getValueAsLong(index);
+        return values.isNull(code) ? null : convert(getter.get(code), field);
+      };
+    }
+
+    final IValueGetter getter = createGetter(vector);
+    return index -> vector.isNull(index) ? null : convert(getter.get(index), field);
+  }
+
+  /**
+   * Creates an accessor that returns the natural java value of a vector element: Long, Double,
+   * Boolean, Timestamp, Date, BigDecimal, String or byte[]
+   */
+  private IValueGetter createGetter(FieldVector vector) {
+    if (vector instanceof BaseIntVector) {
+      final BaseIntVector v = (BaseIntVector) vector;
+      return index -> v.getValueAsLong(index);
+    }
+    if (vector instanceof FloatingPointVector) {
+      final FloatingPointVector v = (FloatingPointVector) vector;
+      return index -> v.getValueAsDouble(index);
+    }
+    if (vector instanceof BitVector) {
+      final BitVector v = (BitVector) vector;
+      return index -> v.get(index) != 0;
+    }
+    if (vector instanceof TimeStampVector) {
+      final TimeStampVector v = (TimeStampVector) vector;
+      ArrowType.Timestamp type = (ArrowType.Timestamp) vector.getField().getType();
+      final TimeUnit unit = type.getUnit();
+      final boolean naive = type.getTimezone() == null;
+      return index -> toTimestamp(v.get(index), unit, naive);
+    }
+    if (vector instanceof DateDayVector) {
+      final DateDayVector v = (DateDayVector) vector;
+      return index -> new Date(fromWallClockMillis(v.get(index) * 86400000L));
+    }
+    if (vector instanceof DateMilliVector) {
+      final DateMilliVector v = (DateMilliVector) vector;
+      return index -> new Date(fromWallClockMillis(v.get(index)));
+    }
+    if (vector instanceof VarCharVector) {
+      final VarCharVector v = (VarCharVector) vector;
+      return index -> new String(v.get(index), StandardCharsets.UTF_8);
+    }
+    if (vector instanceof LargeVarCharVector) {
+      final LargeVarCharVector v = (LargeVarCharVector) vector;
+      return index -> new String(v.get(index), StandardCharsets.UTF_8);
+    }
+    if (vector instanceof VarBinaryVector) {
+      final VarBinaryVector v = (VarBinaryVector) vector;
+      return index -> v.get(index);
+    }
+    if (vector instanceof DecimalVector) {
+      final DecimalVector v = (DecimalVector) vector;
+      return index -> v.getObject(index);
+    }
+    if (vector instanceof Decimal256Vector) {
+      final Decimal256Vector v = (Decimal256Vector) vector;
+      return index -> v.getObject(index);
+    }
+    return index -> vector.getObject(index).toString();
+  }
+
+  private Timestamp toTimestamp(long value, TimeUnit unit, boolean naive) {
+    long seconds;
+    long nanos;
+    switch (unit) {
+      case SECOND:
+        seconds = value;
+        nanos = 0;
+        break;
+      case MILLISECOND:
+        seconds = Math.floorDiv(value, 1000L);
+        nanos = Math.floorMod(value, 1000L) * 1000000L;
+        break;
+      case MICROSECOND:
+        seconds = Math.floorDiv(value, 1000000L);
+        nanos = Math.floorMod(value, 1000000L) * 1000L;
+        break;
+      default:
+        seconds = Math.floorDiv(value, 1000000000L);
+        nanos = Math.floorMod(value, 1000000000L);
+        break;
+    }
+
+    long millis = seconds * 1000L;
+    if (naive) {
+      millis = fromWallClockMillis(millis);
+    }
+    Timestamp timestamp = new Timestamp(millis);
+    timestamp.setNanos((int) nanos);
+    return timestamp;
+  }
+
+  private long fromWallClockMillis(long wallClockMillis) {
+    long guess = wallClockMillis - timeZone.getOffset(wallClockMillis);
+    return wallClockMillis - timeZone.getOffset(guess);
+  }
+
+  /**
+   * Convert a natural java value to the type of the output field. Matching types are passed through
+   * untouched, anything else goes through the Hop conversion from its string form.
+   */
+  private Object convert(Object value, IValueMeta field) throws HopException {
+    if (value instanceof Double && ((Double) value).isNaN() && field.getType() != IValueMeta.TYPE_NUMBER) {
+      return null;
+    }
+
+    switch (field.getType()) {
+      case IValueMeta.TYPE_INTEGER:
+        if (value instanceof Long) {
+          return value;
+        }
+        if (value instanceof Number) {
+          return ((Number) value).longValue();
+        }
+        if (value instanceof Boolean) {
+          return (Boolean) value ? 1L : 0L;
+        }
+        break;
+      case IValueMeta.TYPE_NUMBER:
+        if (value instanceof Double) {
+          return value;
+        }
+        if (value instanceof Number) {
+          return ((Number) value).doubleValue();
+        }
+        break;
+      case IValueMeta.TYPE_BIGNUMBER:
+        if (value instanceof BigDecimal) {
+          return value;
+        }
+        if (value instanceof Long) {
+          return BigDecimal.valueOf((Long) value);
+        }
+        if (value instanceof Number) {
+          return BigDecimal.valueOf(((Number) value).doubleValue());
+        }
+        break;
+      case IValueMeta.TYPE_BOOLEAN:
+        if (value instanceof Boolean) {
+          return value;
+        }
+        if (value instanceof Number) {
+          return ((Number) value).doubleValue() != 0;
+        }
+        break;
+      case IValueMeta.TYPE_DATE:
+        if (value instanceof Timestamp) {
+          return new Date(((Timestamp) value).getTime());
+        }
+        if (value instanceof Date) {
+          return value;
+        }
+        break;
+      case IValueMeta.TYPE_TIMESTAMP:
+        if (value instanceof Timestamp) {
+          return value;
+        }
+        if (value instanceof Date) {
+          return new Timestamp(((Date) value).getTime());
+        }
+        break;
+      case IValueMeta.TYPE_BINARY:
+        if (value instanceof byte[]) {
+          return value;
+        }
+        if (value instanceof String) {
+          return ((String) value).getBytes(StandardCharsets.UTF_8);
+        }
+        break;
+      default:
+        break;
+    }
+
+    String stringValue;
+    if (value instanceof Date) {
+      stringValue = dateFormater.format((Date) value);
+    } else if (value instanceof byte[]) {
+      stringValue = new String((byte[]) value, StandardCharsets.UTF_8);
+    } else {
+      stringValue = value.toString();
+    }
+    if (field.getType() == IValueMeta.TYPE_STRING) {
+      return stringValue;
+    }
+    return field.convertData(stringMeta, stringValue);
+  }
+
+  /**
+   * Reads one output field from its bound vector
+   */
+  private interface IColumnReader {
+    Object get(int index) throws HopException;
+  }
+
+  /**
+   * Reads the natural java value of a non-null vector element
+   */
+  private interface IValueGetter {
+    Object get(int index);
+  }
+}
@@ -0,0 +1,221 @@
+/*! ******************************************************************************
+ *
+ * CPython for the Hop orchestration platform
+ *
+ * http://www.project-hop.org
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.vutiendung.hop.pipeline.transforms.cpython;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hop.core.exception.HopException;
+import org.apache.hop.pipeline.transform.ITransform;
+
+/**
+ * Executes the batches of a transform on background threads while the transform collects the
+ * next ones. A batch runs in one of a fixed number of slots, for example one python worker per
+ * slot. It is given to the first idle slot, so a slow batch does not hold back the others.
+ * <p/>
+ * Results are handed to the result handler in the order the batches were submitted, one at a
+ * time, whatever order the slots finish in. At most <code>depth</code> batches wait, run or wait
+ * for their turn to be handled at a time; {@link #submit} blocks when the limit is reached.
+ * <p/>
+ * The first failure is kept and thrown by the next call to {@link #submit} or
+ * {@link #awaitCompletion()}. Batches that were still waiting are skipped.
+ *
+ * @param <R> the result of a batch
+ */
+public class BatchPipeline<R> {
+
+  /**
+   * A batch that is ready to be executed
+   */
+  public interface IBatch<R> {
+
+    /**
+     * Execute the batch
+     *
+     * @param slot the slot the batch runs in, no other batch uses it at the same time
+     * @return the result, or null if the batch handled it itself
+     * @throws HopException if the batch fails
+     */
+    R execute(int slot) throws HopException;
+  }
+
+  /**
+   * Receives the results of the batches in submission order
+   */
+  public interface IResultHandler<R> {
+    void handle(R result) throws HopException;
+  }
+
+  private static final long POLL_MILLIS = 100;
+
+  private final ITransform transform;
+  private final IResultHandler<R> resultHandler;
+  private final int depth;
+  private final Semaphore permits;
+  private final BlockingQueue<Integer> idleSlots = new LinkedBlockingQueue<>();
+  private final ExecutorService executor;
+  private volatile HopException failure;
+
+  /**
+   * Results that are done but wait for an earlier batch
+   */
+  private final Map<Long, R> completed = new TreeMap<>();
+  private long nextSequence;
+  private long nextToHandle;
+
+  /**
+   * @param name prefix of the names of the threads that execute the batches
+   * @param slots number of batches that run at the same time
+   * @param depth maximum number of batches in flight, at least the number of slots
+   * @param transform the transform the batches belong to, waiting stops when it is stopped
+   * @param resultHandler receives the results that are not null
+   */
+  public BatchPipeline(String name, int slots, int depth, ITransform transform, IResultHandler<R> resultHandler) {
+    this.transform = transform;
+    this.resultHandler = resultHandler;
+    this.depth = Math.max(depth, slots);
+    this.permits = new Semaphore(this.depth);
+    for (int i = 0; i < slots; i++) {
+      idleSlots.add(i);
+    }
+
+    AtomicInteger threadNumber = new AtomicInteger();
+    this.executor = Executors.newFixedThreadPool(slots, runnable -> {
+      Thread thread = new Thread(runnable, slots == 1 ? name : name + "-" + threadNumber.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Queue a batch, waiting while the maximum number of batches is in flight
+   *
+   * @param batch the batch
+   * @throws HopException if an earlier batch failed
+   */
+  public void submit(IBatch<R> batch) throws HopException {
+    checkFailure();
+    if (!acquire(1)) {
+      return;
+    }
+
+    final long sequence = nextSequence++;
+    executor.execute(() -> {
+      R result = null;
+      try {
+        if (failure == null && !transform.isStopped()) {
+          int slot = idleSlots.take();
+          try {
+            result = batch.execute(slot);
+          } finally {
+            idleSlots.add(slot);
+          }
+        }
+      } catch (HopException e) {
+        failure = e;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (RuntimeException e) {
+        failure = new HopException(e.getMessage(), e);
+      }
+      complete(sequence, result);
+    });
+  }
+
+  /**
+   * Wait until all submitted batches are executed and their results handled
+   *
+   * @throws HopException if a batch failed
+   */
+  public void awaitCompletion() throws HopException {
+    if (acquire(depth)) {
+      permits.release(depth);
+    }
+    checkFailure();
+  }
+
+  /**
+   * Stop the background threads, interrupting the batches that are running
+   */
+  public void shutdown() {
+    executor.shutdownNow();
+    try {
+      executor.awaitTermination(30, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Hand the results that are next in line to the result handler
+   */
+  private void complete(long sequence, R result) {
+    synchronized (completed) {
+      completed.put(sequence, result);
+      while (completed.containsKey(nextToHandle)) {
+        R next = completed.remove(nextToHandle++);
+        try {
+          if (next != null && failure == null) {
+            resultHandler.handle(next);
+          }
+        } catch (HopException e) {
+          failure = e;
+        } catch (RuntimeException e) {
+          failure = new HopException(e.getMessage(), e);
+        } finally {
+          permits.release();
+        }
+      }
+    }
+  }
+
+  private void checkFailure() throws HopException {
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  /**
+   * @return false if the transform was stopped while waiting
+   */
+  private boolean acquire(int count) throws HopException {
+    try {
+      while (!permits.tryAcquire(count, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+        if (transform.isStopped()) {
+          return false;
+        }
+      }
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new HopException("Interrupted while waiting for the python batches", e);
+    }
+  }
+}
@@ -25,19 +25,20 @@ package org.vutiendung.hop.pipeline.transforms.cpython;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import org.apache.hop.core.IRowSet;
 import org.apache.hop.core.Const;
 import org.apache.hop.core.exception.HopException;
 import org.apache.hop.core.exception.HopRowException;
-import org.apache.hop.core.exception.HopValueException;
 import org.apache.hop.core.row.IRowMeta;
 import org.apache.hop.core.row.IValueMeta;
 import org.apache.hop.core.row.IValueMetaConverter;
+import org.apache.hop.core.row.RowDataUtil;
 import org.apache.hop.core.row.RowMeta;
 import org.apache.hop.core.row.ValueMetaAndData;
-import org.apache.hop.core.row.value.ValueMetaConverter;
-import org.apache.hop.core.row.value.ValueMetaString;
+import org.apache.hop.core.row.value.ValueMetaInteger;
 import org.apache.hop.i18n.BaseMessages;
 import org.apache.hop.pipeline.Pipeline;
 import org.apache.hop.pipeline.PipelineMeta;
@@ -46,18 +47,19 @@ import org.apache.hop.pipeline.transform.ITransform;
 import org.apache.hop.pipeline.transform.TransformMeta;
 import org.apache.hop.pipeline.transform.stream.IStream;
 import java.io.*;
-import java.lang.reflect.Array;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Scanner;
 
 import java.util.regex.Matcher;
+import java.util.function.LongUnaryOperator;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
 
 import org.apache.hop.core.util.StreamLogger;
+import org.apache.hop.core.util.Utils;
 
 /**
  * Step that executes a python script using CPython. The step can accept 0 or more incoming row
@@ -83,29 +85,221 @@ public class CPythonScriptExecutor extends BaseTransform<CPythonScriptExecutorMe
 
   protected boolean m_noInputRowSets = false;
 
-  private Scanner outputFileReader;
-
   private String outputFilePath = "";
 
   private boolean firstRow = true;
-  private String tempDir = "";
   private String lineSeparator = "";
   String delimiter = ",";
-  String defaultDateFormat = "yyyy-MM-dd HH:mm:ss.SSSSSS";
-  String defaultTimestampFormat = "yyyy-MM-dd HH:mm:ss.SSSSSS";
-  SimpleDateFormat dateFormater = new SimpleDateFormat(defaultDateFormat);
-  String defautlPythonDateFormat = "%Y-%m-%d %H:%M:%S.%f";
-  String defautlPythonDatetimeFormat = "%Y-%m-%d %H:%M:%S.%f";
-  SimpleDateFormat timestampFormater = new SimpleDateFormat(defaultTimestampFormat);
 
   List<IRowSet> rowSets;
   List<String> inputFiles;
-  List<String> inputFileSchema = new ArrayList<>();
-  List<FileOutputStream> outputFileWriters;
+
+  /**
+   * The scratch files of the run, and the frame and result files of the file transport
+   */
+  private SpillManager spill;
+  private List<Path> inputPaths = new ArrayList<>();
+  private Path outputPath;
+  List<String> pandasReadCommands = new ArrayList<>();
+  List<OutputStream> outputFileWriters;
+  List<IFrameWriter> frameWriters = new ArrayList<>();
   int numberOfInputStream = 0;
   int numberOfRowWrittenToOutput = 0;
   List<String> outputDateFileHeaders = new ArrayList<>();
-  List<String> pythonConvertDatetimeCommands = new ArrayList<>();
+
+  /**
+   * Maximum number of bytes of a frame kept in memory while python is still starting
+   */
+  protected static final int MAX_PENDING_FRAME_BYTES = 64 * 1024 * 1024;
+
+  /**
+   * The python process used by the pipe transport or the configured server, null when every script
+   * runs in a new python process. Only set by the background preparation of python, under
+   * environmentLock.
+   */
+  private volatile PythonWorker worker;
+
+  /**
+   * Guards handing the prepared worker over to the transform against dispose
+   */
+  private final Object environmentLock = new Object();
+  private boolean disposed;
+
+  /**
+   * Prepares python in the background while the rows are read: installs the libraries, starts the
+   * worker and imports pandas. The result is the worker, if any.
+   */
+  private FutureTask<PythonWorker> environment;
+
+  /**
+   * The python executable of the environment the scripts run in
+   */
+  private volatile String interpreter;
+
+  /**
+   * Number of rows of the first frame per execution of the script, 0 to execute it once with all
+   * rows
+   */
+  private int batchSize;
+
+  /**
+   * Indexes of the key fields in the first frame in group mode, where a batch ends when they
+   * change. Null in the other modes
+   */
+  private int[] groupKeyIndexes;
+  private Object[] lastGroupRow;
+
+  /**
+   * Encodes the rows sent to the worker in row by row mode, null until the mode is prepared
+   */
+  private RowCodec rowCodec;
+
+  /**
+   * Rows of the first frame in the current batch, -1 when no batch is open
+   */
+  private long batchRows = -1;
+
+  /**
+   * Milliseconds after the first row of a batch when it is executed even if it is not full, 0 to
+   * only execute full batches. The timer thread waits for it, so the open batch is only changed
+   * while holding the batch lock
+   */
+  private long batchTimeout;
+  private long batchStarted;
+  private final Object batchLock = new Object();
+  private Thread batchTimer;
+  private boolean batchTimerDone;
+
+  /**
+   * Number of times the script was executed
+   */
+  private long executedBatches;
+
+  /**
+   * The script and the file it is written to, created once and used for every batch
+   */
+  private String script;
+  private String scriptPath;
+
+  /**
+   * The libraries to install with their variables resolved, the same value names the environment
+   * and goes in the result cache key
+   */
+  private String libraries;
+
+  /**
+   * Executes the batches in the background while the next batch is collected, null when every
+   * batch is executed before the next one is collected
+   */
+  private BatchPipeline<List<Object[]>> batchPipeline;
+
+  /**
+   * Number of python processes executing batches at the same time, and the processes started
+   * besides the first one, by slot of the batch pipeline
+   */
+  private int numberOfWorkers = 1;
+  private PythonWorker[] extraWorkers;
+
+  /**
+   * Splits the first frame on the partition fields when all rows are processed by several workers,
+   * null when the frame is not partitioned
+   */
+  private PartitionedFrameWriter partitionWriter;
+  private List<String> partitionFields = new ArrayList<>();
+
+  /**
+   * Fields the reservoir sample of the first frame is stratified on
+   */
+  private List<String> stratifyFields = new ArrayList<>();
+
+  /**
+   * The fields read from the result of the script. With the input or the frame row index included
+   * in the output they are the fields computed by the script and the index of the first frame, the
+   * other fields come from the input rows kept on the java side
+   */
+  private IRowMeta resultRowMeta;
+
+  /**
+   * Index of the frame row index in the result rows and in the output rows, -1 when it is not
+   * read or not output
+   */
+  private int resultIndexField = -1;
+  private int outputIndexField = -1;
+
+  /**
+   * Position in the first frame of the first row of the batch that is collected, and of the next
+   * row in row by row mode
+   */
+  private long batchFirstRow;
+
+  /**
+   * The position in the stream of every row of the sample of the first frame, null when the first
+   * frame is not sampled
+   */
+  private long[] samplePositions;
+  private long nextRowIndex;
+
+  /**
+   * Per field computed by the script and per field of the first frame its index in the output
+   * row. The first is null when neither the input nor the frame row index is included in the
+   * output, the second when the input is not included
+   */
+  private int[] resultOutputIndexes;
+  private int[] inputOutputIndexes;
+
+  /**
+   * The input rows of the batch that is collected, and of every partition, when the input is
+   * included in the output
+   */
+  private RowStore batchStore;
+  private List<RowStore> partitionStores = new ArrayList<>();
+
+  /**
+   * The rows of the frames other than the first one, sent complete with every batch or partition
+   */
+  private SideFrames sideFrames;
+
+  /**
+   * Replays the results of earlier executions with the same script and frames, null when results
+   * are not cached. The digests of the frames of the batch that is collected are computed as the
+   * frames are written.
+   */
+  private ResultCache resultCache;
+  private MessageDigest[] frameDigests;
+  private String cacheScriptKey;
+
+  /**
+   * The script without its init section, the init section and the key of the state it leaves in
+   * the python workers. The init section is null when the script has none or does not run on a
+   * python worker.
+   */
+  private String scriptBody;
+  private String initSection;
+  private String initKey;
+
+  /**
+   * Per frame whether the python workers keep it loaded between executions, and the resident
+   * frames once they are written. They are the same for every batch, so they are written once.
+   */
+  private boolean[] residentFrameFlags;
+  private List<ResidentFrame> residentFrames;
+
+  /**
+   * The encoded content of a frame, sent to python when the script is executed
+   */
+  protected interface IFrameContent {
+    void writeTo(OutputStream out) throws IOException;
+  }
+
+  /**
+   * Executes the script and hands its result rows to a consumer
+   */
+  private interface IExecution {
+    /**
+     * @throws HopException if the script fails or its result can not be read completely
+     */
+    void execute(IResultReader.IRowConsumer consumer) throws HopException;
+  }
 
   public CPythonScriptExecutor( TransformMeta transformMeta, CPythonScriptExecutorMeta meta,
       CPythonScriptExecutorData data, int copyNr, PipelineMeta pipelineMeta, Pipeline pipeline ) throws HopException {
@@ -114,36 +308,281 @@ public class CPythonScriptExecutor extends BaseTransform<CPythonScriptExecutorMe
     this.meta = meta;
     this.data = data;
 
-    tempDir = System.getProperty("java.io.tmpdir");
     lineSeparator = System.getProperty("line.separator");
 
-    outputFilePath = correctFilePath(Paths.get(tempDir, java.util.UUID.randomUUID() + "_output.csv").toString());
-    
     inputFiles = new ArrayList<String>();
     outputFileWriters = new ArrayList<>();
+  }
+
+  @Override public boolean init() {
+    if(!super.init()) {
+      return false;
+    }
+
+    batchSize = getBatchSize();
+    libraries = resolve(Const.NVL(meta.getLibrary(), ""));
+    batchTimeout = Const.toLong(resolve(Const.NVL(meta.getBatchTimeout(), "")), 0L);
+    if(batchTimeout > 0 && !CPythonScriptExecutorMeta.ROWS_TO_PROCESS_BATCH.equals(meta.getRowsToProcess())) {
+      logBasic("The batch timeout only applies when the rows are processed in batches, it is ignored");
+      batchTimeout = 0;
+    }
+    int batchesInFlight = Const.toInt(resolve(Const.NVL(meta.getBatchesInFlight(), "")), 1);
+    int configuredWorkers = Const.toInt(resolve(Const.NVL(meta.getNumberOfWorkers(), "")), 1);
+    for(String field : resolve(Const.NVL(meta.getPartitionFields(), "")).split(",")) {
+      if(!Utils.isEmpty(field.trim())) {
+        partitionFields.add(field.trim());
+      }
+    }
+    for(String field : resolve(Const.NVL(meta.getStratifyFields(), "")).split(",")) {
+      if(!Utils.isEmpty(field.trim())) {
+        stratifyFields.add(field.trim());
+      }
+    }
+    if(meta.getDoingReservoirSampling()) {
+      if(batchSize > 0) {
+        logBasic("Reservoir sampling only applies when all rows are processed at once, it is ignored");
+      }
+      else {
+        int reservoirSize = Const.toInt(resolve(Const.NVL(meta.getReservoirSamplingSize(), "")), -1);
+        data.m_reservoirSamplersSize = reservoirSize > 0
+            ? reservoirSize : CPythonScriptExecutorData.DEFAULT_RESERVOIR_SAMPLING_STORE_ALL_ROWS_SIZE;
+        if(configuredWorkers > 1) {
+          logBasic("The script runs once over the samples, so only one python worker is used");
+          configuredWorkers = 1;
+        }
+      }
+    }
+    if(isRowByRowMode()) {
+      //every row is a round trip to one long-lived worker, there is nothing to pipeline
+      if(configuredWorkers > 1) {
+        logBasic("Rows are processed one at a time, so only one python worker is used");
+      }
+      configuredWorkers = 1;
+      batchesInFlight = 0;
+    }
+    boolean partitioned = batchSize == 0 && configuredWorkers > 1 && !partitionFields.isEmpty();
+    if(isGroupMode() && partitionFields.isEmpty()) {
+      logError("The script is executed for every group of rows, please configure the key fields");
+      return false;
+    }
+    if(batchSize > 0 && !isGroupMode() && !partitionFields.isEmpty()) {
+      logBasic("The rows are processed in batches, the key fields are ignored");
+    }
+    if((batchSize > 0 || partitioned) && configuredWorkers > 1) {
+      numberOfWorkers = configuredWorkers;
+      extraWorkers = new PythonWorker[numberOfWorkers];
+    }
+    else if(configuredWorkers > 1) {
+      logBasic("The script runs once over all rows without partition fields, so only one python worker is used");
+    }
+    //with a batch timeout the timer thread only hands batches to the pipeline, so the script and
+    //putRow never run on the timer thread while it holds the batch lock
+    if(partitioned || (batchSize > 0 && (batchesInFlight > 0 || numberOfWorkers > 1 || batchTimeout > 0))) {
+      batchPipeline = new BatchPipeline<>("cpython-batches-" + getTransformName(), numberOfWorkers,
+          batchesInFlight, this, this::putResultRows);
+    }
+    residentFrameFlags = new boolean[meta.m_frameNames.size()];
+    for(int i = 0; i < residentFrameFlags.length; i ++) {
+      if(!meta.isResidentFrame(i)) {
+        continue;
+      }
+      if(i == 0) {
+        logBasic("Frame [" + meta.m_frameNames.get(0) + "] is the first frame, it is sent with every execution and can not be resident");
+      }
+      else if(!isPipeTransport()) {
+        logBasic("Resident frames require the pipe transport, frame [" + meta.m_frameNames.get(i) + "] is sent with every execution");
+      }
+      else {
+        residentFrameFlags[i] = true;
+      }
+    }
+    String resultCacheDir = resolve(Const.NVL(meta.getResultCacheDir(), "")).trim();
+    if(!Utils.isEmpty(resultCacheDir)) {
+      if(isRowByRowMode() || partitioned) {
+        logBasic("Results are only cached when the script runs over whole frames or batches, the result cache is not used");
+      }
+      else {
+        long resultCacheSize = Const.toLong(resolve(Const.NVL(meta.getResultCacheSize(), "")), 1024L);
+        try {
+          resultCache = new ResultCache(resultCacheDir, resultCacheSize * 1024 * 1024);
+        } catch (HopException e) {
+          logError(e.getMessage());
+          return false;
+        }
+      }
+    }
+
+    long scratchQuota = Const.toLong(resolve(Const.NVL(meta.getScratchQuota(), "")), 0L) * 1024 * 1024;
+    try {
+      spill = new SpillManager(SpillManager.chooseDirectory(resolve(Const.NVL(meta.getScratchDir(), "")).trim(),
+          scratchQuota), scratchQuota, getLogChannel());
+    } catch (HopException e) {
+      logError(e.getMessage());
+      return false;
+    }
+    logDetailed("Scratch files are written to " + spill.getDirectory());
 
-    for(int i = 0; i < meta.m_frameNames.size(); i ++) {
-      String frameName = meta.m_frameNames.get(i);
-      String filename = correctFilePath(tempDir  + java.util.UUID.randomUUID() + "_" + frameName +"_input.csv");
-      inputFiles.add(filename);
+    environment = new FutureTask<>(this::prepareEnvironment);
+    Thread bootstrap = new Thread(environment, "cpython-bootstrap-" + getTransformName());
+    bootstrap.setDaemon(true);
+    bootstrap.start();
+
+    if(CPythonScriptExecutorMeta.SPILL_COMPRESSION_GZIP.equals(meta.getSpillCompression()) && !isSpillCompressed()) {
+      logBasic("Only CSV files of the file transport are compressed, the frames are not compressed");
+    }
+    if(!isPipeTransport()) {
+      //every batch reuses the same files, pandas reads and writes gzip when the name ends with .gz
+      String extension = getFrameFileExtension() + (isSpillCompressed() ? ".gz" : "");
+      outputPath = spill.newFile("_output" + extension);
+      outputFilePath = correctFilePath(outputPath.toString());
+      for(int i = 0; i < meta.m_frameNames.size(); i ++) {
+        String frameName = meta.m_frameNames.get(i);
+        inputPaths.add(spill.newFile("_" + frameName + "_input" + extension));
+        inputFiles.add(correctFilePath(inputPaths.get(i).toString()));
+      }
+    }
+    return true;
+  }
 
+  /**
+   * Install the libraries, start the worker and import pandas in it. Runs in the background.
+   *
+   * @return the worker or null when every script runs in a new python process
+   */
+  private PythonWorker prepareEnvironment() throws HopException {
+    //Install library lib, only the first time a set of libraries is used
+    interpreter = PythonEnvironmentManager.getInstance().getInterpreter(getExecutorPath(), getPathEntries(),
+        libraries, resolve(Const.NVL(meta.getEnvironmentCacheDir(), "")),
+        resolve(Const.NVL(meta.getWheelhouseDir(), "")), getLogChannel());
+
+    if(!isPipeTransport() && Utils.isEmpty(getServerID())) {
+      return null;
+    }
+    PythonWorker pythonWorker = startWorker();
+    synchronized(environmentLock) {
+      if(disposed) {
+        //the transform stopped while python was starting, nobody releases it otherwise
+        PythonWorkerRegistry.getInstance().release(pythonWorker);
+        return null;
+      }
+      worker = pythonWorker;
+    }
+    return pythonWorker;
+  }
+
+  /**
+   * Get a worker, import the libraries in it and run the init section of the script, before any
+   * frame is sent to it
+   */
+  private PythonWorker startWorker() throws HopException {
+    PythonWorker pythonWorker = PythonWorkerRegistry.getInstance().acquire(getServerID(), interpreter, getPathEntries(), getLogChannel());
+
+    //import the libraries now so it does not delay the script
+    try (InputStream in = pythonWorker.execute(getImportScript())) {
+      logDebug("Python worker is ready");
+    } catch (HopException | IOException e) {
+      logBasic("Unable to import the python libraries up front: " + e.getMessage());
+    }
+
+    try {
+      getScriptBody();
+      runInitSection(pythonWorker);
+    } catch (HopException | IOException e) {
+      PythonWorkerRegistry.getInstance().release(pythonWorker);
+      throw new HopException("The init section of the script failed: " + e.getMessage(), e);
+    }
+    return pythonWorker;
+  }
+
+  /**
+   * Get the worker of a slot of the batch pipeline. The first slot uses the worker that is
+   * prepared in the background, the others start theirs when they get their first batch.
+   */
+  private PythonWorker getSlotWorker(int slot) throws HopException {
+    PythonWorker slotWorker = awaitEnvironment();
+    if(slot == 0) {
+      return slotWorker;
+    }
+    if(extraWorkers[slot] == null) {
+      extraWorkers[slot] = startWorker();
+    }
+    return extraWorkers[slot];
+  }
+
+  /**
+   * Wait for the background preparation of python to finish
+   *
+   * @return the worker or null when every script runs in a new python process
+   */
+  private PythonWorker awaitEnvironment() throws HopException {
+    try {
+      return environment.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new HopException("Interrupted while waiting for python to start", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if(cause instanceof HopException) {
+        throw (HopException) cause;
+      }
+      throw new HopException(cause.getMessage(), cause);
+    }
+  }
+
+  /**
+   * Open the streams the frames of the next execution of the script are written to
+   */
+  private List<OutputStream> openFrameStreams() throws HopException {
+    List<OutputStream> frameStreams = new ArrayList<>();
+
+    if(isPipeTransport()) {
+      //Frames are streamed to the worker while the rows arrive, and kept in memory until it is started
+      for(int i = 0; i < meta.m_frameNames.size(); i ++) {
+        final int frameIndex = i;
+        frameStreams.add(new DeferredOutputStream(new DeferredOutputStream.ITargetProvider() {
+          @Override public boolean isReady() {
+            return environment.isDone();
+          }
+
+          @Override public OutputStream open() throws IOException {
+            try {
+              return awaitEnvironment().openFrame(frameIndex);
+            } catch (HopException e) {
+              throw new IOException(e.getMessage(), e);
+            }
+          }
+        }, MAX_PENDING_FRAME_BYTES));
+      }
+      return frameStreams;
+    }
+
+    for(int i = 0; i < inputPaths.size(); i ++) {
       //Generate FileOutputStream to write data to output file
       try {
-        FileOutputStream fileWriter = new FileOutputStream(filename);
-        outputFileWriters.add(fileWriter);
+        OutputStream frameStream = spill.create(inputPaths.get(i));
+        if(isSpillCompressed()) {
+          //the rows are compressed on another thread while they arrive
+          frameStream = new CompressingOutputStream(frameStream, "cpython-gzip-" + getTransformName() + "-" + i);
+        }
+        frameStreams.add(frameStream);
       }
       catch (Exception ex) {
         throw new HopException( "There is an error when creating file writer object: " + ex.getMessage() ); //$NON-NLS-1$
       }
     }//end foreach frame name
-
-    //Install library lib
-    installPythonLibrary();
+    return frameStreams;
   }
 
   @Override public boolean processRow() throws HopException {
     
     Object[] currentRow = getRow();
+    //the batch timer may execute the open batch while waiting for rows
+    synchronized(batchLock) {
+      return processRow(currentRow);
+    }
+  }
+
+  private boolean processRow(Object[] currentRow) throws HopException {
     if(firstRow) {
       if(currentRow == null) {
         logBasic("There is no incoming row to this transformation!");
@@ -178,94 +617,834 @@ public class CPythonScriptExecutor extends BaseTransform<CPythonScriptExecutorMe
       List<IStream> infoIStreams = meta.getStepIOMeta().getInfoStreams();
       for(int i=0; i< infoIStreams.size(); i ++) {
         String transformationName = infoIStreams.get(i).getSubject().toString();
-        IRowMeta currentIRowMeta = getPipelineMeta().getTransformFields( variables, transformationName );
-        String header = constructRowHeaderCsv(currentIRowMeta);
-        FileOutputStream currentFileWriter = outputFileWriters.get(i);
-        
-        try {
-          currentFileWriter.write(header.getBytes());
-          currentFileWriter.flush();
-        } catch (Exception e) {
-          throw new HopException(e.getMessage());
+        data.m_infoMetas.add(getPipelineMeta().getTransformFields( variables, transformationName ));
+        data.m_frameBuffers.add(new ArrayList<>());
+      }
+      sideFrames = new SideFrames(data.m_frameBuffers, this::readSideFrame);
+
+      firstRow = false;
+      prepareOutputRowMeta();
+
+      if(data.m_reservoirSamplersSize > 0) {
+        long seed = Const.toLong(resolve(Const.NVL(meta.getRandomSeed(), "")), 1L);
+        for(int i = 0; i < data.m_infoMetas.size(); i ++) {
+          if(i == 0 && !stratifyFields.isEmpty()) {
+            long memoryLimit = Const.toLong(resolve(Const.NVL(meta.getReservoirMemoryLimit(), "")), 0L) * 1024 * 1024;
+            data.m_reservoirs.add(new StratifiedRowSampler(data.m_infoMetas.get(0), stratifyFields,
+                data.m_reservoirSamplersSize, memoryLimit, seed));
+            logBasic("Sampling " + data.m_reservoirSamplersSize + " rows of frame [" + meta.m_frameNames.get(0)
+                + "] for every value of " + stratifyFields);
+            continue;
+          }
+          data.m_reservoirs.add(new RowReservoir(data.m_infoMetas.get(i), data.m_reservoirSamplersSize, seed + i));
+        }
+        if(stratifyFields.isEmpty()) {
+          logBasic("Sampling " + data.m_reservoirSamplersSize + " rows of every frame");
         }
+      }
 
-        //Generate pandas header
-        String pandasHeader = generatePandasHeader(currentIRowMeta);
-        inputFileSchema.add(pandasHeader);
-        pythonConvertDatetimeCommands.add(generatePandasConvertDatetime(currentIRowMeta, meta.m_frameNames.get(i)));
+      if(numberOfWorkers > 1 && batchSize == 0) {
+        logBasic("Partitioning frame [" + meta.m_frameNames.get(0) + "] on " + partitionFields + " for " + numberOfWorkers + " python workers");
+        final IRowMeta partitionRowMeta = data.m_infoMetas.get(0);
+        partitionWriter = new PartitionedFrameWriter(partitionRowMeta, partitionFields, numberOfWorkers, spill,
+            getFrameFileExtension(), out -> indexFrame(createFrameWriter(out, partitionRowMeta), partitionStores));
       }
 
-      firstRow = false;
+      if(isGroupMode()) {
+        IRowMeta groupRowMeta = data.m_infoMetas.get(0);
+        groupKeyIndexes = new int[partitionFields.size()];
+        for(int i = 0; i < groupKeyIndexes.length; i ++) {
+          groupKeyIndexes[i] = groupRowMeta.indexOfValue(partitionFields.get(i));
+          if(groupKeyIndexes[i] < 0) {
+            throw new HopException("The key field [" + partitionFields.get(i) + "] does not exist in frame [" + meta.m_frameNames.get(0) + "]");
+          }
+        }
+        logBasic("Executing the script for every group of " + partitionFields + " in frame [" + meta.m_frameNames.get(0) + "]");
+      }
+
+      if(batchSize > 0 || partitionWriter != null) {
+        if(batchSize > 0 && !isGroupMode() && !isRowByRowMode()) {
+          logBasic("Executing the script every " + batchSize + " rows of frame [" + meta.m_frameNames.get(0) + "]");
+        }
+        //the first batch opens with this row when it is in the first frame, the other frames are
+        //read completely when it opens
+        dispatchRow(currentRow);
+        sideFrames.read();
+        if(isRowByRowMode()) {
+          startRowMode();
+        }
+        if(batchTimeout > 0) {
+          logBasic("Executing a batch at the latest " + batchTimeout + " ms after its first row");
+          batchTimer = new Thread(this::runBatchTimer, "cpython-batch-timer-" + getTransformName());
+          batchTimer.setDaemon(true);
+          batchTimer.start();
+        }
+        return true;
+      }
     }
 
     //there is no more row
     //stop
-    if(currentRow == null && !firstRow) {
-      //close file first
-      for(int i = 0; i < inputFiles.size(); i ++) {
-        try {
-          outputFileWriters.get(i).close();
-        } catch (Exception e) {
-          throw new HopException(e.getMessage());
+    if(currentRow == null) {
+      if(partitionWriter != null) {
+        finishPartitions();
+      }
+      else if(isRowByRowMode()) {
+        //every row was executed when it arrived
+      }
+      //the script runs at least once, even when only the other frames have rows
+      else if(batchRows < 0 && executedBatches == 0) {
+        startBatch();
+        if(!data.m_reservoirs.isEmpty()) {
+          writeSamples();
         }
       }
-
-      //execute stript
-      try {
-        rebuildScript();
-      } catch (IOException e) {
-        throw new HopException(e.getMessage());
+      if(batchRows >= 0) {
+        finishBatch();
+      }
+      batchTimerDone = true;
+      batchLock.notifyAll();
+      if(batchPipeline != null) {
+        batchPipeline.awaitCompletion();
       }
-
-      //read output and put to next stream
-      processFile(outputFilePath);
-
-      //clean up temp file
-      cleanupTempFile();
 
       //
       setOutputDone();
       return false;
     }
 
+    dispatchRow(currentRow);
+    return true;
+    
+  }
+
+  /**
+   * Write a row to the frames of the stream it came from. In batch mode the script runs once the
+   * first frame holds a full batch.
+   */
+  private void dispatchRow(Object[] currentRow) throws HopException {
     IRowSet currentRowSet = getInputRowSets().get(getCurrentInputRowSetNr());
 
     //write current row to all file of dataframe
     String currentInputStepName = currentRowSet.getOriginTransformName();
+    boolean primaryRow = false;
     for(int i = 0; i< meta.m_frameNames.size(); i ++) {
 
-      FileOutputStream currentWriter = outputFileWriters.get(i);
       String inputStepname = meta.getStepIOMeta().getInfoStreams().get(i).getSubject().toString();
 
       if(currentInputStepName.equals(inputStepname)) {
+        if(!data.m_reservoirs.isEmpty()) {
+          //the frames are written once the samples are complete
+          data.m_reservoirs.get(i).offer(currentRow);
+          continue;
+        }
+        if(i == 0 && partitionWriter != null) {
+          partitionWriter.writeRow(currentRow);
+          continue;
+        }
+        if(i == 0 && isRowByRowMode()) {
+          if(rowCodec == null) {
+            //the other frames are read first, they are part of the setup of row by row mode
+            data.m_frameBuffers.get(0).add(currentRow);
+          }
+          else {
+            executeRow(currentRow);
+          }
+          continue;
+        }
+        if((batchSize > 0 || partitionWriter != null) && i > 0) {
+          //the other frames are sent complete with every batch or partition
+          data.m_frameBuffers.get(i).add(currentRow);
+          if(batchRows < 0) {
+            continue;
+          }
+        }
+        if(i == 0 && groupKeyIndexes != null) {
+          //the input is sorted, so a new key means the group is complete
+          if(lastGroupRow != null && batchRows >= 0
+              && data.m_infoMetas.get(0).compare(lastGroupRow, currentRow, groupKeyIndexes) != 0) {
+            finishBatch();
+          }
+          lastGroupRow = currentRow;
+        }
+        if(batchRows < 0) {
+          startBatch();
+        }
+        frameWriters.get(i).writeRow(currentRow);
+        primaryRow |= i == 0;
+      }
+    }
 
-        String csvRow = constructRowToCSV(currentRow, currentRowSet.getRowMeta());
-        try {
-            currentWriter.write(csvRow.getBytes());
-          } catch (Exception ex) {
-            throw new HopException(ex.getMessage());
+    if(primaryRow && batchSize > 0 && ++batchRows >= batchSize) {
+      finishBatch();
+    }
+  }
+
+  /**
+   * Execute the open batch once it is older than the batch timeout, so results keep flowing when
+   * rows arrive slowly or the input never ends. Runs on its own thread until the last row is read.
+   * There always is a batch pipeline with a batch timeout, the timer only hands the batch to it.
+   */
+  private void runBatchTimer() {
+    try {
+      synchronized(batchLock) {
+        while(!batchTimerDone && !isStopped()) {
+          long waitMillis = batchTimeout;
+          if(batchRows > 0) {
+            waitMillis = batchTimeout - (System.nanoTime() - batchStarted) / 1000000L;
+            if(waitMillis <= 0) {
+              logDetailed("Batch timeout reached after " + batchRows + " rows");
+              finishBatch();
+              continue;
+            }
           }
+          batchLock.wait(waitMillis);
+        }
       }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (HopException | RuntimeException e) {
+      logError("There is an error when executing a batch after the timeout: " + e.getMessage(), e);
+      setErrors(1);
+      stopAll();
     }
-    return true;
-    
   }
 
-  private void rebuildScript() throws HopException, IOException {
+  /**
+   * Send the other frames to the worker, run the setup code and compile the script once, so every
+   * row only costs one round trip
+   */
+  private void startRowMode() throws HopException {
+    PythonWorker rowWorker = awaitEnvironment();
+
+    StringBuilder setup = new StringBuilder(getImportScript())
+        .append("from datetime import date, datetime").append(lineSeparator);
+    residentFrames = new ArrayList<>();
+    for(int i = 1; i < meta.m_frameNames.size(); i ++) {
+      OutputStream frameStream = isResidentFrame(i) ? new ByteArrayOutputStream() : rowWorker.openFrame(i);
+      IFrameWriter frameWriter = createFrameWriter(frameStream, data.m_infoMetas.get(i));
+      sideFrames.writeTo(i, frameWriter);
+      frameWriter.close();
+      data.m_frameBuffers.get(i).clear();
+      setup.append(getPandasReadCommand(frameWriter, i));
+      if(isResidentFrame(i)) {
+        residentFrames.add(createResidentFrame(frameWriter, i, (ByteArrayOutputStream) frameStream));
+      }
+    }
+    sendResidentFrames(rowWorker);
+
+    rowCodec = new RowCodec(data.m_infoMetas.get(0), resultRowMeta);
+    String userScript;
+    try {
+      userScript = getScriptBody();
+    } catch (IOException e) {
+      throw new HopException(e.getMessage(), e);
+    }
+    rowWorker.prepareRows(rowCodec.encodeProgram(setup.toString(), userScript, meta.m_frameNames.get(0),
+        meta.varListToString()));
+    logBasic("Executing the script for every row of frame [" + meta.m_frameNames.get(0) + "]");
+
+    List<Object[]> pendingRows = data.m_frameBuffers.get(0);
+    for(Object[] row : pendingRows) {
+      executeRow(row);
+    }
+    pendingRows.clear();
+  }
+
+  /**
+   * Execute the script for one row and put its result rows to the next transforms
+   */
+  private void executeRow(Object[] row) throws HopException {
+    long rowIndex = nextRowIndex++;
+    int length = rowCodec.encode(row);
+    try (InputStream in = worker.processRow(rowCodec.getBuffer(), length)) {
+      for(Object[] resultRow : rowCodec.decode(in)) {
+        putRow(data.m_outputRowMeta, resultOutputIndexes == null ? resultRow : toOutputRow(resultRow, row, rowIndex));
+      }
+    } catch (IOException e) {
+      throw new HopException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Write the sampled rows to the frames of the batch
+   */
+  private void writeSamples() throws HopException {
+    logDetailed(BaseMessages.getString(PKG, "CPythonScriptExecutor.Message.RetrievingReservoirs"));
+    for(int i = 0; i < data.m_reservoirs.size(); i ++) {
+      IRowSampler reservoir = data.m_reservoirs.get(i);
+      logDetailed(BaseMessages.getString(PKG, "CPythonScriptExecutor.Message.PushingSampleFromReservoirIntoPandasDataFrame",
+          String.valueOf(i + 1), meta.m_frameNames.get(i)));
+      logBasic("Sampled " + reservoir.size() + " of " + reservoir.getRowsSeen() + " rows of frame ["
+          + meta.m_frameNames.get(i) + "], " + reservoir.getSizeInBytes() / 1024 + " KB");
+      if(reservoir instanceof StratifiedRowSampler) {
+        StratifiedRowSampler stratified = (StratifiedRowSampler) reservoir;
+        logBasic("The sample has " + stratified.getStrataCount() + " values of " + stratifyFields
+            + " with at most " + stratified.getStratumCapacity() + " rows each");
+      }
+      reservoir.writeTo(frameWriters.get(i));
+      if(i == 0) {
+        samplePositions = reservoir.getPositions();
+      }
+      reservoir.clear();
+    }
+    batchRows = data.m_reservoirs.get(0).getRowsSeen();
+  }
+
+  /**
+   * Read the remaining rows of a frame other than the first one. They are kept in memory and sent
+   * with every batch, so each execution of the script sees them complete.
+   */
+  private void readSideFrame(int frameIndex, List<Object[]> rows) throws HopException {
+    List<IStream> infoIStreams = meta.getStepIOMeta().getInfoStreams();
+    String transformationName = infoIStreams.get(frameIndex).getSubject().toString();
+    if(transformationName.equals(infoIStreams.get(0).getSubject().toString())) {
+      return;
+    }
+    IRowSet rowSet = findInputRowSet(transformationName);
+    if(rowSet == null) {
+      return;
+    }
+
+    Object[] row;
+    while((row = getRowFrom(rowSet)) != null) {
+      rows.add(row);
+    }
+    logDetailed("Read " + rows.size() + " rows of frame [" + meta.m_frameNames.get(frameIndex) + "]");
+  }
+
+  /**
+   * Open the frames of a new batch and write the rows of the other frames to them
+   */
+  private void startBatch() throws HopException {
+    if(batchPipeline != null) {
+      //python may still be busy with the previous batches, so the frames are collected in memory
+      outputFileWriters = new ArrayList<>();
+      for(int i = 0; i < meta.m_frameNames.size(); i ++) {
+        outputFileWriters.add(new ByteArrayOutputStream());
+      }
+    }
+    else {
+      outputFileWriters = openFrameStreams();
+    }
+
+    frameWriters.clear();
+    frameDigests = resultCache == null ? null : new MessageDigest[outputFileWriters.size()];
+    for(int i = 0; i < outputFileWriters.size(); i ++) {
+      if(isResidentFrame(i)) {
+        //resident frames are sent to every worker that does not keep them already
+        outputFileWriters.set(i, new ByteArrayOutputStream());
+      }
+      OutputStream frameStream = outputFileWriters.get(i);
+      if(frameDigests != null) {
+        frameDigests[i] = ResultCache.newDigest();
+        frameStream = new DigestOutputStream(frameStream, frameDigests[i]);
+      }
+      IFrameWriter frameWriter = createFrameWriter(frameStream, data.m_infoMetas.get(i));
+      if(i == 0 && resultIndexField >= 0) {
+        List<RowStore> stores = new ArrayList<>();
+        frameWriter = indexFrame(frameWriter, stores);
+        batchStore = stores.get(0);
+      }
+      frameWriters.add(frameWriter);
+      if(batchSize > 0 && i > 0 && (residentFrames == null || !isResidentFrame(i))) {
+        sideFrames.writeTo(i, frameWriter);
+      }
+
+      //Generate pandas code to load the frame
+      if(pandasReadCommands.size() == i) {
+        pandasReadCommands.add(getPandasReadCommand(frameWriter, i));
+      }
+    }
+    batchRows = 0;
+    batchStarted = System.nanoTime();
+    //wake the batch timer up, it waits for the first row of the batch
+    batchLock.notifyAll();
+  }
+
+  /**
+   * Close the frames of the current batch and execute the script, or hand the batch to the
+   * background thread when batches are pipelined
+   */
+  private void finishBatch() throws HopException {
+    //close file first
+    for(int i = 0; i < frameWriters.size(); i ++) {
+      frameWriters.get(i).close();
+    }
+    if(residentFrames == null) {
+      residentFrames = new ArrayList<>();
+      for(int i = 0; i < frameWriters.size(); i ++) {
+        if(isResidentFrame(i)) {
+          residentFrames.add(createResidentFrame(frameWriters.get(i), i, (ByteArrayOutputStream) outputFileWriters.get(i)));
+        }
+      }
+    }
+
+    final long batchNumber = ++executedBatches;
+    final long rows = batchRows;
+    final RowStore store = batchStore;
+    final long firstRow = batchFirstRow;
+    final String cacheKey = getCacheKey();
+    batchFirstRow += rows;
+    batchRows = -1;
+    batchStore = null;
+
+    //the row index of a sample maps to the position of the sampled row in the stream
+    final long[] sampled = samplePositions;
+    final LongUnaryOperator positions = sampled == null ? index -> firstRow + index
+        : index -> index >= 0 && index < sampled.length ? sampled[(int) index] : -1;
+    if(batchPipeline == null) {
+      executeScript(batchNumber, rows, store, positions, cacheKey);
+      return;
+    }
+
+    final List<IFrameContent> frames = new ArrayList<>();
+    for(OutputStream frame : outputFileWriters) {
+      frames.add(((ByteArrayOutputStream) frame)::writeTo);
+    }
+    if(numberOfWorkers > 1) {
+      batchPipeline.submit(slot -> executeOnSlot(slot, frames, "batch " + batchNumber + " with " + rows + " rows", store,
+          positions, cacheKey));
+      return;
+    }
+    batchPipeline.submit(slot -> {
+      //the frames are only sent when the result is not cached
+      collectResult(store, positions, cacheKey, null, this::putResultRow, consumer -> {
+        List<OutputStream> frameStreams = openFrameStreams();
+        for(int i = 0; i < frameStreams.size(); i ++) {
+          if(isResidentFrame(i)) {
+            continue;
+          }
+          try (OutputStream out = frameStreams.get(i)) {
+            frames.get(i).writeTo(out);
+          } catch (IOException e) {
+            throw new HopException("There is an error when sending frame [" + meta.m_frameNames.get(i) + "]: " + e.getMessage(), e);
+          }
+        }
+        executeScript(batchNumber, rows, consumer);
+      });
+      return null;
+    });
+  }
+
+  /**
+   * Execute the script once per partition of the first frame, each partition on the first idle
+   * worker. The other frames are sent complete with every partition.
+   */
+  private void finishPartitions() throws HopException {
+    try {
+      partitionWriter.close();
+      pandasReadCommands.add(partitionWriter.getPandasReadCommand(meta.m_frameNames.get(0), getFrameSource(0)));
+
+      //the other frames are the same for every partition, so they are encoded once
+      List<IFrameContent> encodedSideFrames = new ArrayList<>();
+      residentFrames = new ArrayList<>();
+      for(int i = 1; i < meta.m_frameNames.size(); i ++) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        IFrameWriter frameWriter = createFrameWriter(out, data.m_infoMetas.get(i));
+        sideFrames.writeTo(i, frameWriter);
+        frameWriter.close();
+        data.m_frameBuffers.get(i).clear();
+        encodedSideFrames.add(out::writeTo);
+        pandasReadCommands.add(getPandasReadCommand(frameWriter, i));
+        if(isResidentFrame(i)) {
+          residentFrames.add(createResidentFrame(frameWriter, i, out));
+        }
+      }
+
+      long totalRows = 0;
+      for(int p = 0; p < partitionWriter.getPartitionCount(); p ++) {
+        totalRows += partitionWriter.getRowCount(p);
+      }
+
+      for(int p = 0; p < partitionWriter.getPartitionCount(); p ++) {
+        long rows = partitionWriter.getRowCount(p);
+        //the script runs at least once, even when only the other frames have rows
+        if(rows == 0 && (p > 0 || totalRows > 0)) {
+          continue;
+        }
+
+        final Path file = partitionWriter.getFile(p);
+        final List<IFrameContent> frames = new ArrayList<>();
+        frames.add(out -> Files.copy(file, out));
+        frames.addAll(encodedSideFrames);
+        final String description = "partition " + (p + 1) + " with " + rows + " rows";
+        //the frame row index of a partition is the position of the row in the partition, the
+        //output gets its position in the first frame
+        final RowStore store = partitionStores.isEmpty() ? null : partitionStores.get(p);
+        final PartitionedFrameWriter writer = partitionWriter;
+        final int partition = p;
+        batchPipeline.submit(slot -> executeOnSlot(slot, frames, description, store,
+            index -> writer.getPosition(partition, index), null));
+      }
+      batchPipeline.awaitCompletion();
+    } finally {
+      partitionWriter.delete();
+    }
+  }
+
+  /**
+   * Send the frames of a batch or partition to the worker of a slot and execute the script there
+   *
+   * @param description what is executed, for the log
+   * @param store the input rows of the first frame, null when the input is not included
+   * @param positions maps the frame row index of a result row to the position of its row in the
+   *        first frame, -1 when there is no such row
+   * @param cacheKey the key of the result in the result cache, null when it is not cached
+   * @return the result rows, put to the next transforms once the earlier batches are done
+   */
+  private List<Object[]> executeOnSlot(int slot, List<IFrameContent> frames, String description, RowStore store,
+      LongUnaryOperator positions, String cacheKey) throws HopException {
+    PythonWorker slotWorker = getSlotWorker(slot);
+    List<Object[]> resultRows = new ArrayList<>();
+    //the frames are only sent when the result is not cached
+    collectResult(store, positions, cacheKey, null, resultRows::add, consumer -> {
+      sendResidentFrames(slotWorker);
+      for(int i = 0; i < frames.size(); i ++) {
+        if(isResidentFrame(i)) {
+          continue;
+        }
+        try (OutputStream out = slotWorker.openFrame(i)) {
+          frames.get(i).writeTo(out);
+        } catch (IOException e) {
+          throw new HopException("There is an error when sending frame [" + meta.m_frameNames.get(i) + "]: " + e.getMessage(), e);
+        }
+      }
+
+      logDetailed("Executing the script for " + description + " on worker " + (slot + 1));
+      executeOnWorker(slotWorker, getScript(), consumer);
+    });
+    return resultRows;
+  }
+
+  private void putResultRows(List<Object[]> rows) throws HopException {
+    for(Object[] row : rows) {
+      putRow(data.m_outputRowMeta, row);
+    }
+  }
+
+  /**
+   * @return the script, generated once and shared by all batches
+   */
+  private synchronized String getScript() throws HopException {
+    if(script == null) {
+      try {
+        script = rebuildScript();
+      } catch (IOException e) {
+        throw new HopException(e.getMessage());
+      }
+    }
+    return script;
+  }
+
+  private boolean isResidentFrame(int frameIndex) {
+    return residentFrameFlags != null && residentFrameFlags[frameIndex];
+  }
+
+  /**
+   * @return the pandas code reading a frame, which only reads a resident frame when the worker
+   *         does not keep it already
+   */
+  private String getPandasReadCommand(IFrameWriter frameWriter, int frameIndex) {
+    String frameName = meta.m_frameNames.get(frameIndex);
+    String readCommand = frameWriter.getPandasReadCommand(frameName, getFrameSource(frameIndex));
+    if(!isResidentFrame(frameIndex)) {
+      return readCommand;
+    }
+    return ResidentFrame.getPandasReadCommand(frameIndex, frameName, readCommand, lineSeparator);
+  }
+
+  private ResidentFrame createResidentFrame(IFrameWriter frameWriter, int frameIndex, ByteArrayOutputStream content)
+      throws HopException {
+    String frameName = meta.m_frameNames.get(frameIndex);
+    return new ResidentFrame(frameIndex, frameName, frameWriter.getPandasReadCommand(frameName, getFrameSource(frameIndex)),
+        content);
+  }
+
+  /**
+   * Send the resident frames a worker does not keep already
+   */
+  private void sendResidentFrames(PythonWorker pythonWorker) throws HopException {
+    if(residentFrames == null) {
+      return;
+    }
+    for(ResidentFrame residentFrame : residentFrames) {
+      if(residentFrame.sendTo(pythonWorker)) {
+        logDetailed("Sending resident frame [" + residentFrame.getName() + "], " + residentFrame.size() / 1024 + " KB");
+      }
+      else {
+        logDetailed("Frame [" + residentFrame.getName() + "] is resident in the python worker already");
+      }
+    }
+  }
+
+  /**
+   * The key of the result of the batch whose frames were just written in the result cache. Besides
+   * the bytes of the frames it covers the script, the libraries, the python command and the fields.
+   * The temporary files of the frames and the result have new names for every run, so they are
+   * left out of the script.
+   *
+   * @return the key, null when results are not cached
+   */
+  private String getCacheKey() throws HopException {
+    if(frameDigests == null) {
+      return null;
+    }
+    if(cacheScriptKey == null) {
+      String cacheScript = getScript();
+      if(!isPipeTransport()) {
+        cacheScript = cacheScript.replace(outputFilePath, "_hop_result");
+        for(int i = 0; i < inputFiles.size(); i ++) {
+          cacheScript = cacheScript.replace(inputFiles.get(i), "_hop_frames[" + i + "]");
+        }
+      }
+      cacheScriptKey = new ResultCache.KeyBuilder()
+          .add(cacheScript)
+          .add(Const.NVL(initKey, ""))
+          .add(libraries)
+          .add(getExecutorPath())
+          .add(meta.m_outputFields)
+          .add(resultRowMeta)
+          .build();
+    }
+    ResultCache.KeyBuilder key = new ResultCache.KeyBuilder().add(cacheScriptKey);
+    for(MessageDigest frameDigest : frameDigests) {
+      key.add(frameDigest.digest());
+    }
+    //resident frames are written with the first batch only
+    for(ResidentFrame residentFrame : residentFrames) {
+      key.add(residentFrame.getKey());
+    }
+    frameDigests = null;
+    return key.build();
+  }
+
+  /**
+   * Execute the script on the frames that were written and put the result to the next transforms
+   *
+   * @param store the input rows of the first frame, null when the input is not included
+   * @param positions maps the row index of the batch to the position of the row in the first frame
+   * @param cacheKey the key of the result in the result cache, null when it is not cached
+   */
+  private void executeScript(long batchNumber, long rows, RowStore store, LongUnaryOperator positions,
+      String cacheKey) throws HopException {
+    //with the pipe transport the rows were streamed to the worker while they arrived
+    collectResult(store, positions, cacheKey, isPipeTransport() ? worker : null, this::putResultRow,
+        consumer -> executeScript(batchNumber, rows, consumer));
+  }
+
+  /**
+   * Hand the result rows of one execution of the script to a consumer as output rows. When the
+   * frame row index is output they are first put back in the order of the rows of the first frame,
+   * whatever order the script left them in.
+   *
+   * The result is replayed from the result cache when it holds it, python is not involved then.
+   *
+   * @param store the input rows of the first frame, deleted once the result is read
+   * @param positions maps the frame row index of a result row to the position of its row in the
+   *        first frame, -1 when there is no such row
+   * @param cacheKey the key of the result in the result cache, null when it is not cached
+   * @param sentTo the worker the frames were sent to already, they are discarded there when the
+   *        result is replayed. Null when the execution sends the frames itself
+   * @param target receives the output rows
+   * @param execution executes the script and reads its result
+   */
+  private void collectResult(RowStore store, LongUnaryOperator positions, String cacheKey, PythonWorker sentTo,
+      IResultReader.IRowConsumer target, IExecution execution) throws HopException {
+    IResultReader.IRowConsumer output = row -> target.putRow(toOutputRow(row, store, positions));
+    ResultAligner aligner = null;
+    ResultCache.Entry cacheEntry = null;
+    try {
+      IResultReader.IRowConsumer consumer = output;
+      if(outputIndexField >= 0 && resultIndexField >= 0) {
+        aligner = new ResultAligner(resultRowMeta, resultIndexField, MAX_PENDING_FRAME_BYTES, spill);
+        consumer = aligner;
+      }
+
+      if(cacheKey != null && resultCache.replay(cacheKey, resultRowMeta, consumer)) {
+        logDetailed("Replayed the cached result " + cacheKey + " (" + resultCache.getHits() + " hits, "
+            + resultCache.getMisses() + " misses)");
+        cleanupTempFile();
+        if(sentTo != null) {
+          sentTo.discardFrames();
+        }
+      }
+      else {
+        if(cacheKey != null) {
+          logDetailed("The result " + cacheKey + " is not cached (" + resultCache.getHits() + " hits, "
+              + resultCache.getMisses() + " misses)");
+          cacheEntry = resultCache.create(cacheKey, resultRowMeta, consumer);
+          consumer = cacheEntry;
+        }
+        execution.execute(consumer);
+        if(cacheEntry != null && !cacheEntry.commit()) {
+          logBasic("The result " + cacheKey + " could not be written to the result cache");
+        }
+      }
+
+      if(aligner != null) {
+        aligner.writeTo(output);
+      }
+    } finally {
+      if(cacheEntry != null) {
+        cacheEntry.discard();
+      }
+      if(aligner != null) {
+        aligner.delete();
+      }
+      if(store != null) {
+        store.delete();
+      }
+    }
+  }
+
+
+  private void executeScript(long batchNumber, long rows, IResultReader.IRowConsumer consumer) throws HopException {
+    //python must be ready before the script runs
+    awaitEnvironment();
+    String pythonScript = getScript();
+
+    if(batchSize > 0) {
+      logDetailed("Executing the script for batch " + batchNumber + " with " + rows + " rows");
+    }
+
+    //execute stript
+    if(isPipeTransport()) {
+      //the result is streamed back and put to next stream
+      sendResidentFrames(worker);
+      executeOnWorker(worker, pythonScript, consumer);
+    }
+    else {
+      try {
+        if(worker != null) {
+          executeOnWorker(worker, pythonScript, null);
+        }
+        else {
+          if(scriptPath == null) {
+            scriptPath = createScriptFile(pythonScript);
+          }
+          executeScriptFile(scriptPath);
+        }
+        spill.account(outputPath);
+
+        //read output and put to next stream
+        processFile(outputFilePath, consumer);
+      } catch (IOException e) {
+        throw new HopException(e.getMessage(), e);
+      } finally {
+        //clean up temp file, also when the script failed
+        cleanupTempFile();
+      }
+    }
+  }
+
+  /**
+   * @return the number of rows of the first frame per execution of the script, 0 to execute it
+   *         once with all rows. Groups have no size limit
+   */
+  private int getBatchSize() {
+    if(isGroupMode()) {
+      return Integer.MAX_VALUE;
+    }
+    String rowsToProcess = meta.getRowsToProcess();
+    if(CPythonScriptExecutorMeta.ROWS_TO_PROCESS_ROW_BY_ROW.equals(rowsToProcess)) {
+      return 1;
+    }
+    if(CPythonScriptExecutorMeta.ROWS_TO_PROCESS_BATCH.equals(rowsToProcess)) {
+      int size = Const.toInt(resolve(Const.NVL(meta.getRowsToProcessSize(), "")), data.m_batchSize);
+      return size > 0 ? size : data.m_batchSize;
+    }
+    return 0;
+  }
+
+  @Override public void dispose() {
+    if(resultCache != null) {
+      logBasic("Result cache: " + resultCache.getHits() + " hits, " + resultCache.getMisses() + " misses");
+    }
+    if(batchStore != null) {
+      batchStore.delete();
+      batchStore = null;
+    }
+    for(RowStore store : partitionStores) {
+      if(store != null) {
+        store.delete();
+      }
+    }
+    if(batchTimer != null) {
+      batchTimer.interrupt();
+      batchTimer = null;
+    }
+    if(batchPipeline != null) {
+      batchPipeline.shutdown();
+      batchPipeline = null;
+    }
+    if(partitionWriter != null) {
+      partitionWriter.delete();
+      partitionWriter = null;
+    }
+    //a batch that was not finished leaves its compressor threads waiting for rows
+    for(OutputStream frame : outputFileWriters) {
+      if(frame instanceof CompressingOutputStream) {
+        try {
+          frame.close();
+        } catch (IOException e) {
+          // the file is deleted with the scratch directory
+        }
+      }
+    }
+    PythonWorker preparedWorker;
+    synchronized(environmentLock) {
+      disposed = true;
+      preparedWorker = worker;
+      worker = null;
+    }
+    if(environment != null) {
+      //do not wait for pip or the creation of the environment when the pipeline stops
+      if(!environment.isDone()) {
+        environment.cancel(true);
+      }
+      environment = null;
+    }
+    if(preparedWorker != null) {
+      PythonWorkerRegistry.getInstance().release(preparedWorker);
+    }
+    if(extraWorkers != null) {
+      for(int i = 0; i < extraWorkers.length; i ++) {
+        if(extraWorkers[i] != null) {
+          PythonWorkerRegistry.getInstance().release(extraWorkers[i]);
+        }
+      }
+      extraWorkers = null;
+    }
+    if(spill != null) {
+      spill.delete();
+      spill = null;
+    }
+    super.dispose();
+  }
+
+  private String getImportScript() {
+    String script = "import pandas as pd" + lineSeparator
+                  + "from pandas.api.types import is_datetime64_any_dtype" + lineSeparator;
+    if(isArrowFormat()) {
+      script = script + "import pyarrow as pa" + lineSeparator;
+    }
+    return script;
+  }
+
+  private String rebuildScript() throws HopException, IOException {
     String prefScript = "import pandas as pd" + lineSeparator
                       + "from datetime import date, datetime" + lineSeparator
-                      + "from pandas.api.types import is_datetime64_any_dtype" + lineSeparator
-                      + lineSeparator;
-    //generate code to read input
-    for(int i = 0; i < inputFiles.size(); i ++) {
-      String frameName = meta.getFrameNames().get(i);
-      String inputFileName = inputFiles.get(i);
-      String dtypeString = inputFileSchema.get(i);
+                      + "from pandas.api.types import is_datetime64_any_dtype" + lineSeparator;
+    if(isArrowFormat()) {
+      prefScript = prefScript + "import pyarrow as pa" + lineSeparator;
+    }
+    prefScript = prefScript + lineSeparator;
 
+    //generate code to read input
+    for(int i = 0; i < pandasReadCommands.size(); i ++) {
       prefScript = prefScript
-                    + frameName + " = pd.read_csv(\"" + inputFileName + "\"" + dtypeString + ")"
-                    + lineSeparator
-                    + pythonConvertDatetimeCommands.get(i)
+                    + pandasReadCommands.get(i)
                     + lineSeparator;
     }
 
@@ -297,194 +1476,332 @@ public class CPythonScriptExecutor extends BaseTransform<CPythonScriptExecutorMe
 
                                       + "print(\"Reseting index\")" + lineSeparator
                                       + outputDataFrame + ".reset_index(inplace=True)" + lineSeparator + lineSeparator
-//Conver timestamp to string
-                                      + "for series_name in " + outputDataFrame + ":" + lineSeparator
-                                      + "\tif is_datetime64_any_dtype(" + outputDataFrame + "[series_name].dtype):" + lineSeparator
-                                      + "\t\t" + outputDataFrame + "[series_name] = " + outputDataFrame + "[series_name].dt.strftime(\"" + defautlPythonDatetimeFormat + "\")" + lineSeparator + lineSeparator
+//Only the computed fields go back when the input fields are included
+                                      + getResultColumnsCommand(outputDataFrame)
 //Export dataframe to file
-                                      + outputDataFrame + ".to_csv(\"" + outputFilePath + "\", index=False, date_format=\"" + defautlPythonDateFormat + "\")" + lineSeparator
+                                      + createResultReader().getPandasWriteCommand(outputDataFrame, getResultTarget())
 //End script
                                       + lineSeparator;
                                      
 
-    String userScript = getUserScript();
-
-    String finalScript = prefScript + userScript + lineSeparator + sufScript;
-    String scriptPath = createScriptFile(finalScript);
+    String userScript = getScriptBody();
 
-    executeScriptFile(scriptPath);
+    return prefScript + userScript + lineSeparator + sufScript;
   }
 
-  private String constructRowToCSV(Object[] inputRow, IRowMeta currentRowMeta) throws HopValueException {
-    String result = "";
-    int numberOfInputField = currentRowMeta.size();
-
-    for(int fieldIndex =0; fieldIndex < numberOfInputField; fieldIndex++) {
-      IValueMeta curentValueMeta= currentRowMeta.getValueMeta(fieldIndex);
-      String filedValue = objectToString(inputRow[fieldIndex], curentValueMeta);
-
-      if ( fieldIndex <= numberOfInputField -2) {
-        result = result + filedValue + delimiter;
-      }
-      else {
-        result = result + filedValue + lineSeparator;
-      }
-    }//End foreach field
-
-    return result;
+  /**
+   * Python code that keeps only the fields read from the result and the index of the first frame as
+   * a 64 bit integer column, empty when neither the input nor the frame row index is included in
+   * the output
+   */
+  private String getResultColumnsCommand(String outputDataFrame) {
+    if(resultIndexField < 0) {
+      return "";
+    }
+    StringBuilder columns = new StringBuilder();
+    for(String name : resultRowMeta.getFieldNames()) {
+      columns.append("'").append(name.replace("\\", "\\\\").replace("'", "\\'")).append("', ");
+    }
+    return "if not '" + RowStore.INDEX_COLUMN + "' in " + outputDataFrame + ".columns:" + lineSeparator
+        + "\tprint('The index of frame [" + meta.m_frameNames.get(0) + "] is not in [" + outputDataFrame
+        + "], the result can not be joined with the input rows')" + lineSeparator
+        + "\texit(1)" + lineSeparator
+        + outputDataFrame + "['" + RowStore.INDEX_COLUMN + "'] = " + outputDataFrame + "['" + RowStore.INDEX_COLUMN
+        + "'].astype('int64')" + lineSeparator
+        + outputDataFrame + " = " + outputDataFrame + "[[c for c in [" + columns + "] if c in " + outputDataFrame
+        + ".columns]]" + lineSeparator + lineSeparator;
   }
 
-  private String constructRowHeaderCsv(IRowMeta currentRowMeta) {
-    String result = "";
-    int numberOfInputField = currentRowMeta.size();
-
-    for (int fieldIndex = 0; fieldIndex < numberOfInputField; fieldIndex++) {
-      IValueMeta fieldMeta = currentRowMeta.getValueMetaList().get(fieldIndex);
-      String columnName = fieldMeta.getName();
-
-      if (fieldIndex <= numberOfInputField - 2) {
-        result = result + columnName + delimiter;
-      } else {
-        result = result + columnName + lineSeparator;
+  /**
+   * @param consumer receives the result rows, null when the result is written to a file
+   */
+  private void executeOnWorker(PythonWorker pythonWorker, String script, IResultReader.IRowConsumer consumer)
+      throws HopException {
+    try (InputStream in = pythonWorker.execute(script)) {
+      if(consumer != null) {
+        logDebug("Start reading output data of python script");
+        processResult(in, consumer);
       }
-    } // End foreach field
-
-    return result;
+    } catch (IOException e) {
+      throw new HopException(e.getMessage());
+    }
   }
 
   private String createScriptFile(String script) throws HopException {
-    String scriptPath = correctFilePath(tempDir + java.util.UUID.randomUUID() + "_script.py");
+    String scriptPath = spill.newFile("_script.py").toString();
     writeStringToFile(script, scriptPath);
     return scriptPath;
   }
 
   private void executeScriptFile(String scriptPath) throws HopException {
     try {
-      executeSystemCommand(new String[]{getExecutorPath(), scriptPath});
+      executeSystemCommand(new String[]{interpreter, scriptPath});
 
     } catch (Exception e) {
       throw new HopException(e.getMessage());
-    } finally {
-      File scriptFile = new File(scriptPath);
-      if (scriptFile.exists()) {
-        //scriptFile.delete();
-      }
     }
   }
 
-  private String getExecutorPath() {
-    if(Const.getSystemOs().startsWith("Windows")) {
-      return "python";
+  private IFrameWriter createFrameWriter(OutputStream out, IRowMeta rowMeta) throws HopException {
+    if(isArrowFormat()) {
+      return new ArrowFrameWriter(out, rowMeta);
     }
-    else {
-      return "python3";
+    return new CsvFrameWriter(out, rowMeta, delimiter, lineSeparator);
+  }
+
+  private IResultReader createResultReader() {
+    if(isArrowFormat()) {
+      return new ArrowResultReader(resultRowMeta, lineSeparator, getLogChannel());
     }
+    return new CsvResultReader(resultRowMeta, delimiter, lineSeparator, isSpillCompressed(), getLogChannel());
   }
 
-  private void processFile(String filePath) {
-    logDebug("Start reading output data of python script");
+  private boolean isRowByRowMode() {
+    return CPythonScriptExecutorMeta.ROWS_TO_PROCESS_ROW_BY_ROW.equals(meta.getRowsToProcess());
+  }
 
-    try {
-      outputFileReader = new Scanner(new File(outputFilePath));
-      int rowNumb = 0;
-      IRowMeta outputFields = meta.m_outputFields;
+  private boolean isGroupMode() {
+    return CPythonScriptExecutorMeta.ROWS_TO_PROCESS_GROUP.equals(meta.getRowsToProcess());
+  }
 
-      int numberOfField = outputFields.getValueMetaList().size();
-      String[] outputFieldHeaders = null;
+  private boolean isArrowFormat() {
+    return CPythonScriptExecutorMeta.FRAME_FORMAT_ARROW.equals(meta.getFrameFormat());
+  }
 
-      while (outputFileReader.hasNextLine()) {
-        String line = outputFileReader.nextLine();
+  /**
+   * @return true if the CSV frame and result files of the file transport are compressed with gzip
+   */
+  private boolean isSpillCompressed() {
+    return !isPipeTransport() && !isArrowFormat()
+        && CPythonScriptExecutorMeta.SPILL_COMPRESSION_GZIP.equals(meta.getSpillCompression());
+  }
 
-        if (rowNumb == 0) {
-          //parse header
-          outputFieldHeaders = line.split(delimiter);
-        }
-        else {
-        
-          String[] r = line.split(delimiter);
-          Object[] outputRow = new Object[numberOfField];
+  /**
+   * @return true if the frames are streamed to python workers, always the case with more than one
+   *         worker, in row by row mode and with a batch timeout
+   */
+  private boolean isPipeTransport() {
+    return numberOfWorkers > 1 || isRowByRowMode() || batchTimeout > 0
+        || CPythonScriptExecutorMeta.TRANSPORT_PIPE.equals(meta.getTransport());
+  }
 
-          for(int i =0; i< numberOfField; i ++) {
-            IValueMeta  field = outputFields.getValueMetaList().get(i);
-            outputRow[i] = getValueOfField(field, outputFieldHeaders, r);
-          }
+  /**
+   * Python expression the frame with the given index is read from
+   */
+  private String getFrameSource(int frameIndex) {
+    if(isPipeTransport()) {
+      return "_hop_frames[" + frameIndex + "]";
+    }
+    return "\"" + inputFiles.get(frameIndex) + "\"";
+  }
 
-          putRow(outputFields, outputRow);
-        }
+  /**
+   * Python expression the output frame is written to
+   */
+  private String getResultTarget() {
+    if(isPipeTransport()) {
+      return "_hop_result";
+    }
+    return "\"" + outputFilePath + "\"";
+  }
 
-        rowNumb += 1;
-      }
-      outputFileReader.close();
+  private String getFrameFileExtension() {
+    return isArrowFormat() ? ".arrow" : ".csv";
+  }
 
-    } catch (Exception e) {
-      logError(e.getMessage());
+  private String getExecutorPath() {
+    String pythonCommand = resolve(Const.NVL(meta.getPythonCommand(), ""));
+    if(!Utils.isEmpty(pythonCommand.trim()) && !"default".equalsIgnoreCase(pythonCommand.trim())) {
+      return pythonCommand.trim();
     }
-  }
 
-  private String correctFilePath(String input) {
     if(Const.getSystemOs().startsWith("Windows")) {
-      return input.replace("\\", "\\\\");
+      return "python";
     }
     else {
-      return input;
+      return "python3";
     }
   }
 
-  private Object getValueOfField(IValueMeta fieldMeta, String[] fileHeader, String[] row ) throws HopException {
-    try {
-      int numberOfFieldFromFile = fileHeader.length;
+  private String getPathEntries() {
+    return resolve(Const.NVL(meta.getPyPathEntries(), ""));
+  }
 
-      for(int i =0; i< numberOfFieldFromFile; i++) {
+  private String getServerID() {
+    return resolve(Const.NVL(meta.getPytServerID(), "")).trim();
+  }
 
-        if(i >= row.length) {
-          return null;
-        }
+  private void processFile(String filePath, IResultReader.IRowConsumer consumer) throws HopException {
+    logDebug("Start reading output data of python script");
 
-        if (fieldMeta.getName().equals(fileHeader[i])){
-          ValueMetaString fromFieldMeta = new ValueMetaString(row[i]);
-          ValueMetaConverter converter = new ValueMetaConverter();
-          String fieldValue = row[i];
+    //the readers buffer the file themselves
+    try (InputStream in = isSpillCompressed()
+        ? new GZIPInputStream(new FileInputStream(filePath), 64 * 1024) : new FileInputStream(filePath)) {
+      processResult(in, consumer);
+    } catch (IOException e) {
+      throw new HopException("Unable to read the result of the python script: " + e.getMessage(), e);
+    }
+  }
 
-          if(fieldMeta.getType() == 9) { // Timestamp
-            converter.setDatePattern(timestampFormater);
-          }
+  private void putResultRow(Object[] row) throws HopException {
+    putRow(data.m_outputRowMeta, row);
+  }
 
-          if(fieldMeta.getType() == 3) { // Date
-            if(stringMatch(row[i], "\\d{4}-\\d{2}-\\d{2}")) {
-              fieldValue += " 00:00:00.000000";
-              SimpleDateFormat formater = new SimpleDateFormat("yyyy-MM-dd");
-              converter.setDatePattern(formater);
-            }
-            else {
-              converter.setDatePattern(dateFormater);
-            } 
-          }
+  /**
+   * Work out the fields of the output rows. With the input included in the output these are the
+   * output fields followed by the fields of the first frame that are not output fields. Output
+   * fields named like a field of the first frame are passed through from the input row, python
+   * only returns the other ones. The frame row index comes last when it is included.
+   */
+  private void prepareOutputRowMeta() throws HopException {
+    data.m_outputRowMeta = meta.m_outputFields;
+    data.m_scriptOnlyOutputRowMeta = meta.m_outputFields;
+    resultRowMeta = meta.m_outputFields;
+    if(!meta.getIncludeInputAsOutput() && !meta.getIncludeFrameRowIndexAsOutputField()) {
+      return;
+    }
 
-          return converter.convertFromSourceToTargetDataType(fromFieldMeta.getType(), fieldMeta.getType(), (Object)fieldValue);
+    IRowMeta inputRowMeta = data.m_infoMetas.get(0);
+    data.m_outputRowMeta = meta.m_outputFields.clone();
+    if(meta.getIncludeInputAsOutput()) {
+      data.m_incomingFieldsIncludedInOutputRowMeta = inputRowMeta;
+      data.m_scriptOnlyOutputRowMeta = new RowMeta();
+      for(int i = 0; i < meta.m_outputFields.size(); i ++) {
+        IValueMeta valueMeta = meta.m_outputFields.getValueMeta(i);
+        int inputIndex = inputRowMeta.indexOfValue(valueMeta.getName());
+        if(inputIndex < 0) {
+          data.m_scriptOnlyOutputRowMeta.addValueMeta(valueMeta);
+        }
+        else {
+          //the value is the one of the input row, so is its type
+          data.m_outputRowMeta.setValueMeta(i, inputRowMeta.getValueMeta(inputIndex).clone());
+        }
+      }
+      for(IValueMeta valueMeta : inputRowMeta.getValueMetaList()) {
+        if(data.m_outputRowMeta.indexOfValue(valueMeta.getName()) < 0) {
+          data.m_outputRowMeta.addValueMeta(valueMeta.clone());
         }
       }
+      data.initNonScriptOutputIndexLookup();
 
-      logDebug("Cannot find field " + fieldMeta.getName() + " from array [" + java.util.Arrays.toString(fileHeader) + "], returning blank string");
-      return null;
+      inputOutputIndexes = new int[inputRowMeta.size()];
+      for(int i = 0; i < inputOutputIndexes.length; i ++) {
+        inputOutputIndexes[i] = data.m_nonScriptOutputMetaIndexLookup.get(inputRowMeta.getValueMeta(i).getName());
+      }
+      logBasic("Including the fields of frame [" + meta.m_frameNames.get(0) + "] in the output, python returns "
+          + Arrays.toString(data.m_scriptOnlyOutputRowMeta.getFieldNames()));
+    }
+    if(meta.getIncludeFrameRowIndexAsOutputField()) {
+      data.m_outputRowMeta.addValueMeta(new ValueMetaInteger(RowStore.INDEX_COLUMN));
+      outputIndexField = data.m_outputRowMeta.size() - 1;
+      logBasic("Including the row index of frame [" + meta.m_frameNames.get(0) + "] in the output as field ["
+          + RowStore.INDEX_COLUMN + "]");
+    }
 
-    } catch (Exception ex) {
-      throw new HopException(ex.getMessage());
+    resultRowMeta = data.m_scriptOnlyOutputRowMeta.clone();
+    if(!isRowByRowMode()) {
+      //in row by row mode every result row belongs to the row that was sent
+      resultRowMeta.addValueMeta(new ValueMetaInteger(RowStore.INDEX_COLUMN));
+      resultIndexField = resultRowMeta.size() - 1;
+    }
+    resultOutputIndexes = new int[data.m_scriptOnlyOutputRowMeta.size()];
+    for(int i = 0; i < resultOutputIndexes.length; i ++) {
+      resultOutputIndexes[i] = data.m_outputRowMeta.indexOfValue(data.m_scriptOnlyOutputRowMeta.getValueMeta(i).getName());
+    }
+  }
+
+  /**
+   * Name the index of the first frame written by a frame writer, so the result rows can be traced
+   * back to the rows of the frame. The rows are kept in a new row store when the input is included
+   * in the output.
+   *
+   * @param stores receives the new store, null when the rows are not kept
+   */
+  private IFrameWriter indexFrame(IFrameWriter frameWriter, List<RowStore> stores) {
+    RowStore store = null;
+    if(inputOutputIndexes != null) {
+      store = new RowStore(data.m_infoMetas.get(0), MAX_PENDING_FRAME_BYTES, spill);
+    }
+    stores.add(store);
+    return new IndexedFrameWriter(frameWriter, store, lineSeparator);
+  }
+
+  /**
+   * Build the output row of a result row, joined with the input row it was computed from. The
+   * input row is found by the index of the first frame in the result.
+   *
+   * @param store the input rows, null when the input is not included
+   * @param positions maps the frame row index to the position of the row in the first frame
+   */
+  private Object[] toOutputRow(Object[] resultRow, RowStore store, LongUnaryOperator positions) throws HopException {
+    if(resultIndexField < 0) {
+      return resultRow;
+    }
+    Object index = resultRow[resultIndexField];
+    if(index == null) {
+      throw new HopException("The output frame does not have the index of frame [" + meta.m_frameNames.get(0)
+          + "], so the result can't be joined with the input rows. Keep the index of the frame in the output frame");
+    }
+    long rowIndex = (Long) index;
+    long position = positions.applyAsLong(rowIndex);
+    if(position < 0) {
+      throw new HopException("There is no row " + rowIndex + " in frame [" + meta.m_frameNames.get(0)
+          + "], keep the index of the frame in the output frame");
+    }
+    return toOutputRow(resultRow, store == null ? null : store.get(rowIndex), position);
+  }
+
+  /**
+   * @param inputRow the input row the result row was computed from, null when the input is not
+   *        included
+   * @param rowIndex the position of the input row in the first frame
+   */
+  private Object[] toOutputRow(Object[] resultRow, Object[] inputRow, long rowIndex) {
+    Object[] outputRow = RowDataUtil.allocateRowData(data.m_outputRowMeta.size());
+    for(int i = 0; i < resultOutputIndexes.length; i ++) {
+      outputRow[resultOutputIndexes[i]] = resultRow[i];
+    }
+    if(inputOutputIndexes != null) {
+      for(int i = 0; i < inputOutputIndexes.length; i ++) {
+        outputRow[inputOutputIndexes[i]] = inputRow[i];
+      }
+    }
+    if(outputIndexField >= 0) {
+      outputRow[outputIndexField] = rowIndex;
+    }
+    return outputRow;
+  }
+
+  /**
+   * @throws HopException if the result can not be read completely, so the transform fails instead
+   *         of passing on part of the result
+   */
+  private void processResult(InputStream in, IResultReader.IRowConsumer consumer) throws HopException {
+    try {
+      createResultReader().read(in, consumer);
+    } catch (RuntimeException e) {
+      throw new HopException("Unable to read the result of the python script: " + e.getMessage(), e);
     }
   }
 
-  private void cleanupTempFile() throws HopException {
+  private String correctFilePath(String input) {
+    if(Const.getSystemOs().startsWith("Windows")) {
+      return input.replace("\\", "\\\\");
+    }
+    else {
+      return input;
+    }
+  }
+
+  private void cleanupTempFile() {
     //delete input file
-    for(int i = 0; i < inputFiles.size(); i ++) {
-        File file = new File(inputFiles.get(i));
-        if(file.exists()) {
-          file.delete();
-        }
+    for(Path inputPath : inputPaths) {
+      spill.delete(inputPath);
     }
 
-    //delete output file
-    File outputFile = new File(outputFilePath);
-    if (outputFile.exists()) {
-      //outputFile.delete();
+    //delete output file, the script file is reused and removed with the scratch directory
+    if(outputPath != null) {
+      spill.delete(outputPath);
     }
   }
 
@@ -497,6 +1814,62 @@ public class CPythonScriptExecutor extends BaseTransform<CPythonScriptExecutorMe
     }
   }
 
+  /**
+   * @return the script without its init section, which is split off when the script runs on a
+   *         python worker. Without a worker the marker line is a comment and the whole script runs.
+   */
+  private synchronized String getScriptBody() throws HopException, IOException {
+    if(scriptBody != null) {
+      return scriptBody;
+    }
+    String userScript = getUserScript();
+    scriptBody = userScript;
+    if(!isPipeTransport() && Utils.isEmpty(getServerID())) {
+      return scriptBody;
+    }
+
+    Matcher marker = Pattern.compile("^[ \\t]*" + Pattern.quote(CPythonScriptExecutorMeta.END_OF_INIT_MARKER)
+        + "[ \\t]*$", Pattern.MULTILINE).matcher(userScript);
+    if(!marker.find()) {
+      return scriptBody;
+    }
+    String init = userScript.substring(0, marker.start());
+    scriptBody = userScript.substring(marker.end());
+    if(init.trim().isEmpty()) {
+      return scriptBody;
+    }
+
+    //the state depends on the code and on the files it names, such as the file of a model
+    ResultCache.KeyBuilder key = new ResultCache.KeyBuilder().add(init).add(getExecutorPath());
+    Matcher literal = Pattern.compile("(['\"])([^'\"\\r\\n]+)\\1").matcher(init);
+    while(literal.find()) {
+      File file = new File(literal.group(2));
+      if(file.isFile()) {
+        key.add(file.getAbsolutePath()).add(file.length() + ":" + file.lastModified());
+      }
+    }
+    initSection = init;
+    initKey = key.build();
+    return scriptBody;
+  }
+
+  /**
+   * Run the init section of the script on the worker unless it holds the state of the same init
+   * section already. Every worker runs it when it is acquired, so it keeps the state for the whole
+   * run.
+   */
+  private void runInitSection(PythonWorker pythonWorker) throws HopException {
+    if(initSection == null) {
+      return;
+    }
+    if(pythonWorker.init(initKey, initSection)) {
+      logDetailed("Ran the init section of the script");
+    }
+    else {
+      logDetailed("Reusing the state of the init section of the script");
+    }
+  }
+
   private String readFileToString(String filePath) throws HopException, IOException {
     byte[] bytes = Files.readAllBytes(Paths.get(filePath));
     return new String (bytes);
@@ -515,6 +1888,7 @@ public class CPythonScriptExecutor extends BaseTransform<CPythonScriptExecutorMe
 
   private void executeSystemCommand(String[] param) throws HopException {
     ProcessBuilder processBuilder = new ProcessBuilder(param);
+    PythonWorker.prependPathEntries(processBuilder, getPathEntries());
 
     try {
 
@@ -544,104 +1918,4 @@ public class CPythonScriptExecutor extends BaseTransform<CPythonScriptExecutorMe
         throw new HopException(e.getMessage());
     }
   }
-
-  private void installPythonLibrary() throws HopException {
-    logBasic("Installing python library");
-
-    String libraryPath = Paths.get(tempDir, java.util.UUID.randomUUID() + "_library.txt").toString();
-
-    if(meta.getLibrary() != null) {
-      writeStringToFile(meta.getLibrary(), libraryPath);
-
-      executeSystemCommand(new String[] {"pip", "install", "-r" , libraryPath});
-    }
-    else {
-      logBasic("There is no config library, we will ignore this step.");
-    }
-    
-  }
-
-  private String objectToString(Object input, IValueMeta fieldMeta) throws HopValueException {
-    if(input == null) {
-      return "";
-    }
-
-    if(fieldMeta.getType() == 3) { //Date
-      return dateFormater.format(input);
-    }
-
-    return fieldMeta.getString(input);
-  }
-
-  private String generatePandasHeader(IRowMeta rowMeta) {
-    List<String> fieldHeader = new ArrayList<>();
-    int countOfNonDatetimeField = 0;
-
-    int numberOfInputField = rowMeta.size();
-
-    if(numberOfInputField == 0 ) {
-      return "";
-    }
-
-    for (int fieldIndex = 0; fieldIndex < numberOfInputField; fieldIndex++) {
-      IValueMeta fieldMeta = rowMeta.getValueMetaList().get(fieldIndex);
-      String columnName = fieldMeta.getName();
-      String fieldType = fieldMeta.getTypeDesc();
-
-      if(!fieldType.equals("Date") && !fieldType.equals("Timestamp")) { 
-        countOfNonDatetimeField ++;
-        fieldHeader.add("'" + columnName + "': '" + hopeTypeToPandasType(fieldType) + "'");
-      }
-    } // End foreach field
-
-    if(countOfNonDatetimeField > 0) {
-      return ", dtype={" + String.join(",", fieldHeader) + "}";
-    }
-    return "";
-  }
-
-  private String generatePandasConvertDatetime(IRowMeta rowMeta, String dataFrameName) {
-    String result = "";
-
-    int numberOfInputField = rowMeta.size();
-
-    if(numberOfInputField == 0 ) {
-      return "";
-    }
-
-    for (int fieldIndex = 0; fieldIndex < numberOfInputField; fieldIndex++) {
-      IValueMeta fieldMeta = rowMeta.getValueMetaList().get(fieldIndex);
-      String columnName = fieldMeta.getName();
-      
-      if(fieldMeta.getType() == 3) {  //Date
-         result = result + dataFrameName + "['"+ columnName +"'] = pd.to_datetime(" + dataFrameName +"['" + columnName +"'], format=\"" + defautlPythonDatetimeFormat + "\")" + lineSeparator;
-      }
-
-    } // End foreach field
-    return result + lineSeparator;
-  }
-
-  private String hopeTypeToPandasType(String hopType) {
-    switch (hopType) {
-      case "Boolean": return "bool";
-      case "Date": return "datetime64";
-      case "Integer": return "int64";
-      case "BigNumber": return "int64";
-      case "Timestamp": return "datetime64";
-      case "String": return "str";
-      case "Number": return "float64";
-      default:
-        return "object";
-    }
-  }
-
-  private boolean stringMatch(String input, String regex) {
-    final Pattern pattern = Pattern.compile(regex, Pattern.MULTILINE);
-    final Matcher matcher = pattern.matcher(input);
-    
-    while (matcher.find()) {
-        return true;
-    }
-    return false;
-  }
-}
\ No newline at end of file
+}
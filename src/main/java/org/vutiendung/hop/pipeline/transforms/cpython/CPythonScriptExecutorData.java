@@ -127,6 +127,11 @@ public class CPythonScriptExecutorData extends BaseTransformData implements ITra
    */
   protected int m_reservoirSamplersSize;
 
+  /**
+   * The reservoir sampler per input frame, empty when the frames are not sampled
+   */
+  protected List<IRowSampler> m_reservoirs = new ArrayList<IRowSampler>();
+
   /**
    * True if input stream values should be copied to the output stream
    */
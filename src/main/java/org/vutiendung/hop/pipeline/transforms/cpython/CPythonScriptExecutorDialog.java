@@ -98,9 +98,28 @@ public class CPythonScriptExecutorDialog extends BaseTransformDialog implements
    * Configure tab
    */
   private Group wgRowHandling, wgOptions;
+  //row handling group
+  private Label wlRowsToProcess, wlRowsToProcessSize, wlBatchTimeout, wlBatchesInFlight, wlNumberOfWorkers, wlPartitionFields;
+  private ComboVar wcvRowsToProcess;
+  private TextVar wtvRowsToProcessSize, wtvBatchTimeout, wtvBatchesInFlight, wtvNumberOfWorkers, wtvPartitionFields;
+  private Label wlReservoirSampling, wlReservoirSamplingSize, wlSeed, wlStratifyFields, wlReservoirMemoryLimit;
+  private Button wbReservoirSampling;
+  private TextVar wtvReservoirSamplingSize, wtvSeed, wtvStratifyFields, wtvReservoirMemoryLimit;
   //options group
   private Label  wlPythonCommand, wlPyPathEntries, wlPyServerID;
   private TextVar wtvPythonCommand, wtvPyPathEntries, wtvPyServerID;
+  private Label wlEnvironmentCacheDir, wlWheelhouseDir;
+  private TextVar wtvEnvironmentCacheDir, wtvWheelhouseDir;
+  private Label wlResultCacheDir, wlResultCacheSize;
+  private TextVar wtvResultCacheDir, wtvResultCacheSize;
+  private Label wlScratchDir, wlScratchQuota;
+  private TextVar wtvScratchDir, wtvScratchQuota;
+  private Label wlFrameFormat;
+  private ComboVar wcvFrameFormat;
+  private Label wlTransport;
+  private ComboVar wcvTransport;
+  private Label wlSpillCompression;
+  private ComboVar wcvSpillCompression;
   //table
   private TableView wtvInputFrames;
 
@@ -135,6 +154,7 @@ public class CPythonScriptExecutorDialog extends BaseTransformDialog implements
   private TableView wtvOutputFields;
   private Button wbGetFields;
   private Button wbIncludeRowIndex;
+  private Button wbIncludeInputAsOutput;
 
   private FormData fd;
   private Control lastControl;
@@ -392,7 +412,78 @@ public class CPythonScriptExecutorDialog extends BaseTransformDialog implements
     wflConfig.marginHeight = 3;
     wcConfig.setLayout( wflConfig );
 
-    //addOptionsGroup();
+    lastControl = null;
+    addRowHandlingGroup();
+    addOptionsGroup();
+
+    // Frame format
+    wlFrameFormat = new Label( wcConfig, SWT.RIGHT );
+    wlFrameFormat.setText( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.FrameFormat.Label" ) );
+    wlFrameFormat.setToolTipText( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.FrameFormat.TipText" ) );
+    props.setLook( wlFrameFormat );
+    fd = new FormData();
+    fd.left = new FormAttachment( 0, 0 );
+    fd.right = new FormAttachment( FIRST_LABEL_RIGHT_PERCENTAGE, 0 );
+    fd.top = new FormAttachment( wgOptions, MARGIN );
+    wlFrameFormat.setLayoutData( fd );
+
+    wcvFrameFormat = new ComboVar( variables, wcConfig, SWT.BORDER | SWT.READ_ONLY );
+    wcvFrameFormat.setItems( new String[] { CPythonScriptExecutorMeta.FRAME_FORMAT_CSV,
+        CPythonScriptExecutorMeta.FRAME_FORMAT_ARROW } );
+    wcvFrameFormat.addModifyListener( simpleModifyListener );
+    props.setLook( wcvFrameFormat );
+    fd = new FormData();
+    fd.left = new FormAttachment( wlFrameFormat, MARGIN );
+    fd.right = new FormAttachment( FIRST_PROMPT_RIGHT_PERCENTAGE, 0 );
+    fd.top = new FormAttachment( wgOptions, MARGIN );
+    wcvFrameFormat.setLayoutData( fd );
+    lastControl = wcvFrameFormat;
+
+    // Transport
+    wlTransport = new Label( wcConfig, SWT.RIGHT );
+    wlTransport.setText( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.Transport.Label" ) );
+    wlTransport.setToolTipText( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.Transport.TipText" ) );
+    props.setLook( wlTransport );
+    fd = new FormData();
+    fd.left = new FormAttachment( 0, 0 );
+    fd.right = new FormAttachment( FIRST_LABEL_RIGHT_PERCENTAGE, 0 );
+    fd.top = new FormAttachment( lastControl, MARGIN );
+    wlTransport.setLayoutData( fd );
+
+    wcvTransport = new ComboVar( variables, wcConfig, SWT.BORDER | SWT.READ_ONLY );
+    wcvTransport.setItems( new String[] { CPythonScriptExecutorMeta.TRANSPORT_FILE,
+        CPythonScriptExecutorMeta.TRANSPORT_PIPE } );
+    wcvTransport.addModifyListener( simpleModifyListener );
+    props.setLook( wcvTransport );
+    fd = new FormData();
+    fd.left = new FormAttachment( wlTransport, MARGIN );
+    fd.right = new FormAttachment( FIRST_PROMPT_RIGHT_PERCENTAGE, 0 );
+    fd.top = new FormAttachment( lastControl, MARGIN );
+    wcvTransport.setLayoutData( fd );
+    lastControl = wcvTransport;
+
+    // Spill compression
+    wlSpillCompression = new Label( wcConfig, SWT.RIGHT );
+    wlSpillCompression.setText( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.SpillCompression.Label" ) );
+    wlSpillCompression.setToolTipText( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.SpillCompression.TipText" ) );
+    props.setLook( wlSpillCompression );
+    fd = new FormData();
+    fd.left = new FormAttachment( 0, 0 );
+    fd.right = new FormAttachment( FIRST_LABEL_RIGHT_PERCENTAGE, 0 );
+    fd.top = new FormAttachment( lastControl, MARGIN );
+    wlSpillCompression.setLayoutData( fd );
+
+    wcvSpillCompression = new ComboVar( variables, wcConfig, SWT.BORDER | SWT.READ_ONLY );
+    wcvSpillCompression.setItems( new String[] { CPythonScriptExecutorMeta.SPILL_COMPRESSION_NONE,
+        CPythonScriptExecutorMeta.SPILL_COMPRESSION_GZIP } );
+    wcvSpillCompression.addModifyListener( simpleModifyListener );
+    props.setLook( wcvSpillCompression );
+    fd = new FormData();
+    fd.left = new FormAttachment( wlSpillCompression, MARGIN );
+    fd.right = new FormAttachment( FIRST_PROMPT_RIGHT_PERCENTAGE, 0 );
+    fd.top = new FormAttachment( lastControl, MARGIN );
+    wcvSpillCompression.setLayoutData( fd );
+    lastControl = wcvSpillCompression;
 
     // Input Frames Label
     Label inputFramesLab = new Label( wcConfig, SWT.RIGHT );
@@ -400,7 +491,7 @@ public class CPythonScriptExecutorDialog extends BaseTransformDialog implements
     props.setLook( inputFramesLab );
     fd = new FormData();
     fd.left = new FormAttachment( 0, 0 );
-    fd.top = new FormAttachment( wgOptions, MARGIN );
+    fd.top = new FormAttachment( lastControl, MARGIN );
     inputFramesLab.setLayoutData( fd );
     lastControl = inputFramesLab;
 
@@ -411,7 +502,10 @@ public class CPythonScriptExecutorDialog extends BaseTransformDialog implements
             new ColumnInfo( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.FrameNames.StepName" ),
                 ColumnInfo.COLUMN_TYPE_CCOMBO, false ),
             new ColumnInfo( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.FrameNames.FrameName" ),
-                ColumnInfo.COLUMN_TYPE_TEXT, false ) };
+                ColumnInfo.COLUMN_TYPE_TEXT, false ),
+            new ColumnInfo( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.FrameNames.Resident" ),
+                ColumnInfo.COLUMN_TYPE_CCOMBO, new String[] { "Y", "N" }, true ) };
+    colinf[2].setToolTip( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.FrameNames.Resident.TipText" ) );
 
     String[] previousSteps = pipelineMeta.getPrevTransformNames( transformName );
     if ( previousSteps != null ) {
@@ -512,6 +606,7 @@ public class CPythonScriptExecutorDialog extends BaseTransformDialog implements
     wlScript = new Label( wcScript, SWT.LEFT );
     props.setLook( wlScript );
     wlScript.setText( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.ManualScript.Label" ) );
+    wlScript.setToolTipText( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.ManualScript.TipText" ) );
     fd = new FormData();
     fd.left = new FormAttachment( 0, 0 );
     fd.top = new FormAttachment( lastControl, MARGIN );
@@ -605,6 +700,34 @@ public class CPythonScriptExecutorDialog extends BaseTransformDialog implements
     fieldsLayout.marginHeight = 3;
     wcFields.setLayout( fieldsLayout );
 
+    wbIncludeInputAsOutput = new Button( wcFields, SWT.CHECK );
+    wbIncludeInputAsOutput.setText( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.IncludeInputAsOutput.Label" ) );
+    wbIncludeInputAsOutput.setToolTipText( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.IncludeInputAsOutput.TipText" ) );
+    props.setLook( wbIncludeInputAsOutput );
+    fd = new FormData();
+    fd.left = new FormAttachment( 0, 0 );
+    fd.top = new FormAttachment( 0, MARGIN );
+    wbIncludeInputAsOutput.setLayoutData( fd );
+    wbIncludeInputAsOutput.addSelectionListener( new SelectionAdapter() {
+      @Override public void widgetSelected( SelectionEvent e ) {
+        inputMeta.setChanged();
+      }
+    } );
+
+    wbIncludeRowIndex = new Button( wcFields, SWT.CHECK );
+    wbIncludeRowIndex.setText( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.IncludeFrameRowIndex.Button" ) );
+    wbIncludeRowIndex.setToolTipText( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.IncludeFrameRowIndex.TipText" ) );
+    props.setLook( wbIncludeRowIndex );
+    fd = new FormData();
+    fd.left = new FormAttachment( 0, 0 );
+    fd.top = new FormAttachment( wbIncludeInputAsOutput, MARGIN );
+    wbIncludeRowIndex.setLayoutData( fd );
+    wbIncludeRowIndex.addSelectionListener( new SelectionAdapter() {
+      @Override public void widgetSelected( SelectionEvent e ) {
+        inputMeta.setChanged();
+      }
+    } );
+
     wlOutputFields = new Label( wcFields, SWT.LEFT );
     wlOutputFields
         .setText( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.OutFields.Label" ) ); //$NON-NLS-1$
@@ -612,7 +735,7 @@ public class CPythonScriptExecutorDialog extends BaseTransformDialog implements
     fd = new FormData();
     fd.left = new FormAttachment( 0, 0 );
     fd.right = new FormAttachment( MIDDLE, -MARGIN );
-    fd.top = new FormAttachment( 0, MARGIN );
+    fd.top = new FormAttachment( wbIncludeRowIndex, MARGIN );
     wlOutputFields.setLayoutData( fd );
     lastControl = wlOutputFields;
 
@@ -646,6 +769,167 @@ public class CPythonScriptExecutorDialog extends BaseTransformDialog implements
     wctiFields.setControl( wcFields );
   }
 
+  private void addRowHandlingGroup() {
+    wgRowHandling = new Group( wcConfig, SWT.SHADOW_NONE );
+    props.setLook( wgRowHandling );
+    wgRowHandling.setText( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.ConfigTab.RowHandlingGroup" ) );
+    FormLayout rowHandlingLayout = new FormLayout();
+    rowHandlingLayout.marginWidth = 10;
+    rowHandlingLayout.marginHeight = 10;
+    wgRowHandling.setLayout( rowHandlingLayout );
+    FormData fd = new FormData();
+    fd.left = new FormAttachment( 0, 0 );
+    fd.right = new FormAttachment( 100, 0 );
+    fd.top = new FormAttachment( 0, 0 );
+    wgRowHandling.setLayoutData( fd );
+
+    wlRowsToProcess = new Label( wgRowHandling, SWT.RIGHT );
+    wlRowsToProcess.setText( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.NumberOfRowsToProcess.Label" ) );
+    wlRowsToProcess.setToolTipText( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.NumberOfRowsToProcess.Dropdown.TipText" ) );
+    props.setLook( wlRowsToProcess );
+    wlRowsToProcess.setLayoutData( getFirstLabelFormData() );
+
+    wcvRowsToProcess = new ComboVar( variables, wgRowHandling, SWT.BORDER | SWT.READ_ONLY );
+    wcvRowsToProcess.setItems( new String[] { CPythonScriptExecutorMeta.DEFAULT_ROWS_TO_PROCESS,
+        CPythonScriptExecutorMeta.ROWS_TO_PROCESS_ROW_BY_ROW, CPythonScriptExecutorMeta.ROWS_TO_PROCESS_BATCH,
+        CPythonScriptExecutorMeta.ROWS_TO_PROCESS_GROUP } );
+    wcvRowsToProcess.addModifyListener( simpleModifyListener );
+    wcvRowsToProcess.addModifyListener( e -> checkRowHandlingWidgets() );
+    props.setLook( wcvRowsToProcess );
+    wcvRowsToProcess.setLayoutData( getFirstPromptFormData( wlRowsToProcess ) );
+    lastControl = wcvRowsToProcess;
+
+    wlRowsToProcessSize = new Label( wgRowHandling, SWT.RIGHT );
+    wlRowsToProcessSize.setText( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.NumberOfRowsToProcess.Size.Label" ) );
+    wlRowsToProcessSize.setToolTipText( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.NumberOfRowsToProcess.Size.TipText" ) );
+    props.setLook( wlRowsToProcessSize );
+    wlRowsToProcessSize.setLayoutData( getFirstLabelFormData() );
+
+    wtvRowsToProcessSize = new TextVar( variables, wgRowHandling, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wtvRowsToProcessSize.addModifyListener( simpleModifyListener );
+    props.setLook( wtvRowsToProcessSize );
+    wtvRowsToProcessSize.setLayoutData( getFirstPromptFormData( wlRowsToProcessSize ) );
+    lastControl = wtvRowsToProcessSize;
+
+    wlBatchTimeout = new Label( wgRowHandling, SWT.RIGHT );
+    wlBatchTimeout.setText( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.BatchTimeout.Label" ) );
+    wlBatchTimeout.setToolTipText( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.BatchTimeout.TipText" ) );
+    props.setLook( wlBatchTimeout );
+    wlBatchTimeout.setLayoutData( getFirstLabelFormData() );
+
+    wtvBatchTimeout = new TextVar( variables, wgRowHandling, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wtvBatchTimeout.addModifyListener( simpleModifyListener );
+    props.setLook( wtvBatchTimeout );
+    wtvBatchTimeout.setLayoutData( getFirstPromptFormData( wlBatchTimeout ) );
+    lastControl = wtvBatchTimeout;
+
+    wlBatchesInFlight = new Label( wgRowHandling, SWT.RIGHT );
+    wlBatchesInFlight.setText( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.BatchesInFlight.Label" ) );
+    wlBatchesInFlight.setToolTipText( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.BatchesInFlight.TipText" ) );
+    props.setLook( wlBatchesInFlight );
+    wlBatchesInFlight.setLayoutData( getFirstLabelFormData() );
+
+    wtvBatchesInFlight = new TextVar( variables, wgRowHandling, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wtvBatchesInFlight.addModifyListener( simpleModifyListener );
+    props.setLook( wtvBatchesInFlight );
+    wtvBatchesInFlight.setLayoutData( getFirstPromptFormData( wlBatchesInFlight ) );
+    lastControl = wtvBatchesInFlight;
+
+    wlNumberOfWorkers = new Label( wgRowHandling, SWT.RIGHT );
+    wlNumberOfWorkers.setText( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.NumberOfWorkers.Label" ) );
+    wlNumberOfWorkers.setToolTipText( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.NumberOfWorkers.TipText" ) );
+    props.setLook( wlNumberOfWorkers );
+    wlNumberOfWorkers.setLayoutData( getFirstLabelFormData() );
+
+    wtvNumberOfWorkers = new TextVar( variables, wgRowHandling, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wtvNumberOfWorkers.addModifyListener( simpleModifyListener );
+    props.setLook( wtvNumberOfWorkers );
+    wtvNumberOfWorkers.setLayoutData( getFirstPromptFormData( wlNumberOfWorkers ) );
+    lastControl = wtvNumberOfWorkers;
+
+    wlPartitionFields = new Label( wgRowHandling, SWT.RIGHT );
+    wlPartitionFields.setText( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.PartitionFields.Label" ) );
+    wlPartitionFields.setToolTipText( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.PartitionFields.TipText" ) );
+    props.setLook( wlPartitionFields );
+    wlPartitionFields.setLayoutData( getFirstLabelFormData() );
+
+    wtvPartitionFields = new TextVar( variables, wgRowHandling, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wtvPartitionFields.addModifyListener( simpleModifyListener );
+    props.setLook( wtvPartitionFields );
+    fd = getFirstPromptFormData( wlPartitionFields );
+    fd.right = new FormAttachment( 95, 0 );
+    wtvPartitionFields.setLayoutData( fd );
+    lastControl = wtvPartitionFields;
+
+    wlReservoirSampling = new Label( wgRowHandling, SWT.RIGHT );
+    wlReservoirSampling.setText( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.ReservoirSampling.Label" ) );
+    props.setLook( wlReservoirSampling );
+    wlReservoirSampling.setLayoutData( getFirstLabelFormData() );
+
+    wbReservoirSampling = new Button( wgRowHandling, SWT.CHECK );
+    props.setLook( wbReservoirSampling );
+    fd = getFirstPromptFormData( wlReservoirSampling );
+    fd.right = null;
+    wbReservoirSampling.setLayoutData( fd );
+    wbReservoirSampling.setToolTipText( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.ReservoirSampling.TipText" ) );
+    lastControl = wbReservoirSampling;
+
+    wbReservoirSampling.addSelectionListener( new SelectionAdapter() {
+      @Override public void widgetSelected( SelectionEvent e ) {
+        inputMeta.setChanged();
+        checkRowHandlingWidgets();
+      }
+    } );
+
+    wlReservoirSamplingSize = new Label( wgRowHandling, SWT.RIGHT );
+    wlReservoirSamplingSize.setText( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.ReservoirSampling.Size.Label" ) );
+    wlReservoirSamplingSize.setToolTipText( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.ReservoirSampling.Size.TipText" ) );
+    props.setLook( wlReservoirSamplingSize );
+    wlReservoirSamplingSize.setLayoutData( getFirstLabelFormData() );
+
+    wtvReservoirSamplingSize = new TextVar( variables, wgRowHandling, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wtvReservoirSamplingSize.addModifyListener( simpleModifyListener );
+    props.setLook( wtvReservoirSamplingSize );
+    wtvReservoirSamplingSize.setLayoutData( getFirstPromptFormData( wlReservoirSamplingSize ) );
+    lastControl = wtvReservoirSamplingSize;
+
+    wlSeed = new Label( wgRowHandling, SWT.RIGHT );
+    wlSeed.setText( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.Seed.Label" ) );
+    wlSeed.setToolTipText( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.Seed.TipText" ) );
+    props.setLook( wlSeed );
+    wlSeed.setLayoutData( getFirstLabelFormData() );
+
+    wtvSeed = new TextVar( variables, wgRowHandling, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wtvSeed.addModifyListener( simpleModifyListener );
+    props.setLook( wtvSeed );
+    wtvSeed.setLayoutData( getFirstPromptFormData( wlSeed ) );
+    lastControl = wtvSeed;
+
+    wlStratifyFields = new Label( wgRowHandling, SWT.RIGHT );
+    wlStratifyFields.setText( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.StratifyFields.Label" ) );
+    wlStratifyFields.setToolTipText( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.StratifyFields.TipText" ) );
+    props.setLook( wlStratifyFields );
+    wlStratifyFields.setLayoutData( getFirstLabelFormData() );
+
+    wtvStratifyFields = new TextVar( variables, wgRowHandling, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wtvStratifyFields.addModifyListener( simpleModifyListener );
+    props.setLook( wtvStratifyFields );
+    wtvStratifyFields.setLayoutData( getFirstPromptFormData( wlStratifyFields ) );
+    lastControl = wtvStratifyFields;
+
+    wlReservoirMemoryLimit = new Label( wgRowHandling, SWT.RIGHT );
+    wlReservoirMemoryLimit.setText( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.ReservoirMemoryLimit.Label" ) );
+    wlReservoirMemoryLimit.setToolTipText( BaseMessages.getString( PKG, "CPythonScriptExecutorDialog.ReservoirMemoryLimit.TipText" ) );
+    props.setLook( wlReservoirMemoryLimit );
+    wlReservoirMemoryLimit.setLayoutData( getFirstLabelFormData() );
+
+    wtvReservoirMemoryLimit = new TextVar( variables, wgRowHandling, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wtvReservoirMemoryLimit.addModifyListener( simpleModifyListener );
+    props.setLook( wtvReservoirMemoryLimit );
+    wtvReservoirMemoryLimit.setLayoutData( getFirstPromptFormData( wlReservoirMemoryLimit ) );
+    lastControl = wtvReservoirMemoryLimit;
+  }
+
   private void addOptionsGroup() {
     // add second group
     wgOptions = new Group( wcConfig, SWT.SHADOW_NONE );
@@ -671,6 +955,7 @@ public class CPythonScriptExecutorDialog extends BaseTransformDialog implements
     wlPythonCommand.setLayoutData( getFirstLabelFormData() );
 
     wtvPythonCommand = new TextVar( variables, wgOptions, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wtvPythonCommand.addModifyListener( simpleModifyListener );
     props.setLook( wtvPythonCommand );
     FormData fd = getFirstPromptFormData( wlPythonCommand );
     fd.right = new FormAttachment( 95, 0 );
@@ -684,6 +969,7 @@ public class CPythonScriptExecutorDialog extends BaseTransformDialog implements
     wlPyPathEntries.setLayoutData( getFirstLabelFormData() );
 
     wtvPyPathEntries = new TextVar( variables, wgOptions, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wtvPyPathEntries.addModifyListener( simpleModifyListener );
     props.setLook( wtvPyPathEntries );
     fd = getFirstPromptFormData( wlPyPathEntries );
     fd.right = new FormAttachment( 95, 0 );
@@ -697,11 +983,92 @@ public class CPythonScriptExecutorDialog extends BaseTransformDialog implements
     wlPyServerID.setLayoutData( getFirstLabelFormData() );
 
     wtvPyServerID = new TextVar( variables, wgOptions, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wtvPyServerID.addModifyListener( simpleModifyListener );
     props.setLook( wtvPyServerID );
     fd = getFirstPromptFormData( wlPyServerID );
     fd.right = new FormAttachment( 95, 0 );
     wtvPyServerID.setLayoutData( fd );
     lastControl = wtvPyServerID;
+
+    wlEnvironmentCacheDir = new Label( wgOptions, SWT.RIGHT );
+    wlEnvironmentCacheDir.setText( BaseMessages.getString( PKG, "CPythonScriptExecutor.EnvironmentCacheDir.Label" ) );
+    wlEnvironmentCacheDir.setToolTipText( BaseMessages.getString( PKG, "CPythonScriptExecutor.EnvironmentCacheDir.TipText" ) );
+    props.setLook( wlEnvironmentCacheDir );
+    wlEnvironmentCacheDir.setLayoutData( getFirstLabelFormData() );
+
+    wtvEnvironmentCacheDir = new TextVar( variables, wgOptions, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wtvEnvironmentCacheDir.addModifyListener( simpleModifyListener );
+    props.setLook( wtvEnvironmentCacheDir );
+    fd = getFirstPromptFormData( wlEnvironmentCacheDir );
+    fd.right = new FormAttachment( 95, 0 );
+    wtvEnvironmentCacheDir.setLayoutData( fd );
+    lastControl = wtvEnvironmentCacheDir;
+
+    wlWheelhouseDir = new Label( wgOptions, SWT.RIGHT );
+    wlWheelhouseDir.setText( BaseMessages.getString( PKG, "CPythonScriptExecutor.WheelhouseDir.Label" ) );
+    wlWheelhouseDir.setToolTipText( BaseMessages.getString( PKG, "CPythonScriptExecutor.WheelhouseDir.TipText" ) );
+    props.setLook( wlWheelhouseDir );
+    wlWheelhouseDir.setLayoutData( getFirstLabelFormData() );
+
+    wtvWheelhouseDir = new TextVar( variables, wgOptions, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wtvWheelhouseDir.addModifyListener( simpleModifyListener );
+    props.setLook( wtvWheelhouseDir );
+    fd = getFirstPromptFormData( wlWheelhouseDir );
+    fd.right = new FormAttachment( 95, 0 );
+    wtvWheelhouseDir.setLayoutData( fd );
+    lastControl = wtvWheelhouseDir;
+
+    wlResultCacheDir = new Label( wgOptions, SWT.RIGHT );
+    wlResultCacheDir.setText( BaseMessages.getString( PKG, "CPythonScriptExecutor.ResultCacheDir.Label" ) );
+    wlResultCacheDir.setToolTipText( BaseMessages.getString( PKG, "CPythonScriptExecutor.ResultCacheDir.TipText" ) );
+    props.setLook( wlResultCacheDir );
+    wlResultCacheDir.setLayoutData( getFirstLabelFormData() );
+
+    wtvResultCacheDir = new TextVar( variables, wgOptions, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wtvResultCacheDir.addModifyListener( simpleModifyListener );
+    props.setLook( wtvResultCacheDir );
+    fd = getFirstPromptFormData( wlResultCacheDir );
+    fd.right = new FormAttachment( 95, 0 );
+    wtvResultCacheDir.setLayoutData( fd );
+    lastControl = wtvResultCacheDir;
+
+    wlResultCacheSize = new Label( wgOptions, SWT.RIGHT );
+    wlResultCacheSize.setText( BaseMessages.getString( PKG, "CPythonScriptExecutor.ResultCacheSize.Label" ) );
+    wlResultCacheSize.setToolTipText( BaseMessages.getString( PKG, "CPythonScriptExecutor.ResultCacheSize.TipText" ) );
+    props.setLook( wlResultCacheSize );
+    wlResultCacheSize.setLayoutData( getFirstLabelFormData() );
+
+    wtvResultCacheSize = new TextVar( variables, wgOptions, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wtvResultCacheSize.addModifyListener( simpleModifyListener );
+    props.setLook( wtvResultCacheSize );
+    wtvResultCacheSize.setLayoutData( getFirstPromptFormData( wlResultCacheSize ) );
+    lastControl = wtvResultCacheSize;
+
+    wlScratchDir = new Label( wgOptions, SWT.RIGHT );
+    wlScratchDir.setText( BaseMessages.getString( PKG, "CPythonScriptExecutor.ScratchDir.Label" ) );
+    wlScratchDir.setToolTipText( BaseMessages.getString( PKG, "CPythonScriptExecutor.ScratchDir.TipText" ) );
+    props.setLook( wlScratchDir );
+    wlScratchDir.setLayoutData( getFirstLabelFormData() );
+
+    wtvScratchDir = new TextVar( variables, wgOptions, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wtvScratchDir.addModifyListener( simpleModifyListener );
+    props.setLook( wtvScratchDir );
+    fd = getFirstPromptFormData( wlScratchDir );
+    fd.right = new FormAttachment( 95, 0 );
+    wtvScratchDir.setLayoutData( fd );
+    lastControl = wtvScratchDir;
+
+    wlScratchQuota = new Label( wgOptions, SWT.RIGHT );
+    wlScratchQuota.setText( BaseMessages.getString( PKG, "CPythonScriptExecutor.ScratchQuota.Label" ) );
+    wlScratchQuota.setToolTipText( BaseMessages.getString( PKG, "CPythonScriptExecutor.ScratchQuota.TipText" ) );
+    props.setLook( wlScratchQuota );
+    wlScratchQuota.setLayoutData( getFirstLabelFormData() );
+
+    wtvScratchQuota = new TextVar( variables, wgOptions, SWT.SINGLE | SWT.LEFT | SWT.BORDER );
+    wtvScratchQuota.addModifyListener( simpleModifyListener );
+    props.setLook( wtvScratchQuota );
+    wtvScratchQuota.setLayoutData( getFirstPromptFormData( wlScratchQuota ) );
+    lastControl = wtvScratchQuota;
   }
 
   protected void getData( CPythonScriptExecutorMeta meta ) {
@@ -710,6 +1077,32 @@ public class CPythonScriptExecutorDialog extends BaseTransformDialog implements
     wstcLibraryEditor.setText(meta.getLibrary() == null ? "": meta.getLibrary());
     wbLoadScriptFile.setSelection( meta.getLoadScriptAtRuntime() );
     setItemText( wtvScriptLocation, meta.getScriptToLoad() );
+    wcvFrameFormat.setText( Const.NVL( meta.getFrameFormat(), CPythonScriptExecutorMeta.FRAME_FORMAT_CSV ) );
+    wcvTransport.setText( Const.NVL( meta.getTransport(), CPythonScriptExecutorMeta.TRANSPORT_FILE ) );
+    wcvSpillCompression.setText( Const.NVL( meta.getSpillCompression(), CPythonScriptExecutorMeta.SPILL_COMPRESSION_NONE ) );
+    wtvPythonCommand.setText( Const.NVL( meta.getPythonCommand(), "" ) );
+    wtvPyPathEntries.setText( Const.NVL( meta.getPyPathEntries(), "" ) );
+    wtvPyServerID.setText( Const.NVL( meta.getPytServerID(), "" ) );
+    wtvEnvironmentCacheDir.setText( Const.NVL( meta.getEnvironmentCacheDir(), "" ) );
+    wtvWheelhouseDir.setText( Const.NVL( meta.getWheelhouseDir(), "" ) );
+    wtvResultCacheDir.setText( Const.NVL( meta.getResultCacheDir(), "" ) );
+    setItemText( wtvResultCacheSize, meta.getResultCacheSize() );
+    wtvScratchDir.setText( Const.NVL( meta.getScratchDir(), "" ) );
+    setItemText( wtvScratchQuota, meta.getScratchQuota() );
+    wcvRowsToProcess.setText( org.apache.hop.core.util.Utils.isEmpty( meta.getRowsToProcess() )
+        ? CPythonScriptExecutorMeta.DEFAULT_ROWS_TO_PROCESS : meta.getRowsToProcess() );
+    setItemText( wtvRowsToProcessSize, meta.getRowsToProcessSize() );
+    setItemText( wtvBatchTimeout, meta.getBatchTimeout() );
+    setItemText( wtvBatchesInFlight, meta.getBatchesInFlight() );
+    setItemText( wtvNumberOfWorkers, meta.getNumberOfWorkers() );
+    setItemText( wtvPartitionFields, meta.getPartitionFields() );
+    wbReservoirSampling.setSelection( meta.getDoingReservoirSampling() );
+    setItemText( wtvReservoirSamplingSize, meta.getReservoirSamplingSize() );
+    setItemText( wtvSeed, meta.getRandomSeed() );
+    setItemText( wtvStratifyFields, meta.getStratifyFields() );
+    setItemText( wtvReservoirMemoryLimit, meta.getReservoirMemoryLimit() );
+    wbIncludeInputAsOutput.setSelection( meta.getIncludeInputAsOutput() );
+    wbIncludeRowIndex.setSelection( meta.getIncludeFrameRowIndexAsOutputField() );
 
     setInputToFramesTableFields( meta );
     setOutputFieldsTableFields( meta );
@@ -746,10 +1139,36 @@ public class CPythonScriptExecutorDialog extends BaseTransformDialog implements
     meta.setLibrary(wstcLibraryEditor.getText());
     meta.setLoadScriptAtRuntime( wbLoadScriptFile.getSelection() );
     meta.setScriptToLoad( wtvScriptLocation.getText() );
+    meta.setFrameFormat( wcvFrameFormat.getText() );
+    meta.setTransport( wcvTransport.getText() );
+    meta.setSpillCompression( wcvSpillCompression.getText() );
+    meta.setPythonCommand( wtvPythonCommand.getText() );
+    meta.setPyPathEntries( wtvPyPathEntries.getText() );
+    meta.setPyServerID( wtvPyServerID.getText() );
+    meta.setEnvironmentCacheDir( wtvEnvironmentCacheDir.getText() );
+    meta.setWheelhouseDir( wtvWheelhouseDir.getText() );
+    meta.setResultCacheDir( wtvResultCacheDir.getText() );
+    meta.setResultCacheSize( wtvResultCacheSize.getText() );
+    meta.setScratchDir( wtvScratchDir.getText() );
+    meta.setScratchQuota( wtvScratchQuota.getText() );
+    meta.setRowsToProcess( wcvRowsToProcess.getText() );
+    meta.setRowsToProcessSize( wtvRowsToProcessSize.getText() );
+    meta.setBatchTimeout( wtvBatchTimeout.getText() );
+    meta.setBatchesInFlight( wtvBatchesInFlight.getText() );
+    meta.setNumberOfWorkers( wtvNumberOfWorkers.getText() );
+    meta.setPartitionFields( wtvPartitionFields.getText() );
+    meta.setDoingReservoirSampling( wbReservoirSampling.getSelection() );
+    meta.setReservoirSamplingSize( wtvReservoirSamplingSize.getText() );
+    meta.setRandomSeed( wtvSeed.getText() );
+    meta.setStratifyFields( wtvStratifyFields.getText() );
+    meta.setReservoirMemoryLimit( wtvReservoirMemoryLimit.getText() );
+    meta.setIncludeInputAsOutput( wbIncludeInputAsOutput.getSelection() );
+    meta.setIncludeFrameRowIndexAsOutputField( wbIncludeRowIndex.getSelection() );
 
     // incoming stream/frame name data from table
     int numNonEmpty = wtvInputFrames.nrNonEmpty();
     List<String> frameNames = new ArrayList<String>();
+    List<Boolean> residentFrames = new ArrayList<Boolean>();
     List<String> stepNames = new ArrayList<String>();
     meta.clearStepIOMeta();
     for ( int i = 0; i < numNonEmpty; i++ ) {
@@ -761,11 +1180,13 @@ public class CPythonScriptExecutorDialog extends BaseTransformDialog implements
           frameName = CPythonScriptExecutorMeta.DEFAULT_FRAME_NAME_PREFIX + i;
         }
         frameNames.add( frameName );
+        residentFrames.add( "Y".equalsIgnoreCase( item.getText( 3 ).trim() ) );
         stepNames.add( stepName );
       }
     }
 
     meta.setFrameNames( frameNames );
+    meta.setResidentFrames( residentFrames );
     List<IStream> infoStreams = meta.getStepIOMeta().getInfoStreams();
     for ( int i = 0; i < infoStreams.size(); i++ ) {
       infoStreams.get( i ).setSubject( stepNames.get( i ) );
@@ -807,6 +1228,39 @@ public class CPythonScriptExecutorDialog extends BaseTransformDialog implements
       }
     }
     wbScriptBrowse.setEnabled( wbLoadScriptFile.getSelection() );
+    checkRowHandlingWidgets();
+  }
+
+  /**
+   * The batch size only applies to the batch mode, the batches in flight to every mode with more
+   * than one batch and the key fields to the modes that process all rows or groups
+   */
+  private void checkRowHandlingWidgets() {
+    String rowsToProcess = wcvRowsToProcess.getText();
+    boolean batch = CPythonScriptExecutorMeta.ROWS_TO_PROCESS_BATCH.equals( rowsToProcess );
+    wlRowsToProcessSize.setEnabled( batch );
+    wtvRowsToProcessSize.setEnabled( batch );
+    wlBatchTimeout.setEnabled( batch );
+    wtvBatchTimeout.setEnabled( batch );
+    boolean rowByRow = CPythonScriptExecutorMeta.ROWS_TO_PROCESS_ROW_BY_ROW.equals( rowsToProcess );
+    boolean group = CPythonScriptExecutorMeta.ROWS_TO_PROCESS_GROUP.equals( rowsToProcess );
+    boolean batches = batch || rowByRow || group;
+    wlBatchesInFlight.setEnabled( batches );
+    wtvBatchesInFlight.setEnabled( batches );
+    wlPartitionFields.setEnabled( !batch && !rowByRow );
+    wtvPartitionFields.setEnabled( !batch && !rowByRow );
+    //the frames are sampled when the script runs once over all rows
+    wlReservoirSampling.setEnabled( !batches );
+    wbReservoirSampling.setEnabled( !batches );
+    boolean sampling = !batches && wbReservoirSampling.getSelection();
+    wlReservoirSamplingSize.setEnabled( sampling );
+    wtvReservoirSamplingSize.setEnabled( sampling );
+    wlSeed.setEnabled( sampling );
+    wtvSeed.setEnabled( sampling );
+    wlStratifyFields.setEnabled( sampling );
+    wtvStratifyFields.setEnabled( sampling );
+    wlReservoirMemoryLimit.setEnabled( sampling );
+    wtvReservoirMemoryLimit.setEnabled( sampling );
   }
 
   protected void setInputToFramesTableFields( CPythonScriptExecutorMeta meta ) {
@@ -823,6 +1277,7 @@ public class CPythonScriptExecutorDialog extends BaseTransformDialog implements
         TableItem item = new TableItem( wtvInputFrames.table, SWT.NONE );
         item.setText( 1, Const.NVL( stepName, "" ) ); //$NON-NLS-1$
         item.setText( 2, Const.NVL( frameName, "" ) ); //$NON-NLS-1$
+        item.setText( 3, meta.isResidentFrame( i ) ? "Y" : "N" );
       }
     }
 
@@ -34,6 +34,7 @@ import org.apache.hop.core.row.IRowMeta;
 import org.apache.hop.core.row.IValueMeta;
 import org.apache.hop.core.row.RowMeta;
 import org.apache.hop.core.row.value.ValueMetaFactory;
+import org.apache.hop.core.row.value.ValueMetaInteger;
 import org.apache.hop.core.variables.IVariables;
 import org.apache.hop.core.xml.XmlHandler;
 import org.apache.hop.i18n.BaseMessages;
@@ -66,6 +67,8 @@ public class CPythonScriptExecutorMeta extends BaseTransformMeta<CPythonScriptEx
   protected static final String RESERVOIR_SAMPLING_TAG = "reservoir_sampling";
   protected static final String RESERVOIR_SAMPLING_SIZE_TAG = "reservoir_sampling_size";
   protected static final String RESERVOIR_SAMPLING_SEED_TAG = "reservoir_sampling_seed";
+  protected static final String RESERVOIR_MEMORY_LIMIT_TAG = "reservoir_memory_limit";
+  protected static final String STRATIFY_FIELDS_TAG = "stratify_fields";
   protected static final String INCLUDE_INPUT_AS_OUTPUT_TAG = "include_input_as_output";
   protected static final String INCLUDE_FRAME_ROW_INDEX_AS_OUTPUT_FIELD_TAG = "include_frame_row_index";
   protected static final String LOAD_SCRIPT_AT_RUNTIME_TAG = "load_script_at_runtime";
@@ -76,6 +79,8 @@ public class CPythonScriptExecutorMeta extends BaseTransformMeta<CPythonScriptEx
   protected static final String PY_VARS_TO_GET_TAG = "py_vars_to_get";
   protected static final String CONTINUE_ON_UNSET_VARS_TAG = "continue_on_unset_vars";
   protected static final String SINGLE_FRAME_NAME_PREFIX_TAG = "frame_name";
+  protected static final String RESIDENT_FRAMES_TAG = "resident_frames";
+  protected static final String SINGLE_RESIDENT_FRAME_TAG = "resident";
   protected static final String INCOMING_STEP_NAMES_TAG = "incoming_step_names";
   protected static final String SINGLE_INCOMING_STEP_NAME_TAG = "step_name";
   protected static final String OUTPUT_FIELDS_TAG = "output_fields";
@@ -83,12 +88,61 @@ public class CPythonScriptExecutorMeta extends BaseTransformMeta<CPythonScriptEx
   protected static final String PYTHON_COMMAND = "python_command";
   protected static final String PYTHON_PATH_ENTRIES = "python_path_entries";
   protected static final String PYTHON_SERVER_ID = "python_server_id";
+  protected static final String FRAME_FORMAT_TAG = "frame_format";
+  protected static final String TRANSPORT_TAG = "transport";
+  protected static final String SPILL_COMPRESSION_TAG = "spill_compression";
+  protected static final String ENVIRONMENT_CACHE_DIR_TAG = "environment_cache_dir";
+  protected static final String WHEELHOUSE_DIR_TAG = "wheelhouse_dir";
+  protected static final String RESULT_CACHE_DIR_TAG = "result_cache_dir";
+  protected static final String RESULT_CACHE_SIZE_TAG = "result_cache_size";
+  protected static final String SCRATCH_DIR_TAG = "scratch_dir";
+  protected static final String SCRATCH_QUOTA_TAG = "scratch_quota";
+  protected static final String BATCHES_IN_FLIGHT_TAG = "batches_in_flight";
+  protected static final String NUMBER_OF_WORKERS_TAG = "number_of_workers";
+  protected static final String PARTITION_FIELDS_TAG = "partition_fields";
+  protected static final String BATCH_TIMEOUT_TAG = "batch_timeout";
 
   /**
    * Default prefix for kettle data -> pandas frame name
    */
   public static final String DEFAULT_FRAME_NAME_PREFIX = "kettle_data";
 
+  /**
+   * Frames are exchanged with python as CSV files
+   */
+  public static final String FRAME_FORMAT_CSV = "CSV";
+
+  /**
+   * Frames are exchanged with python as Arrow IPC streams (requires pyarrow)
+   */
+  public static final String FRAME_FORMAT_ARROW = "Arrow";
+
+  /**
+   * Frames, script and result are exchanged through temporary files
+   */
+  public static final String TRANSPORT_FILE = "File";
+
+  /**
+   * Frames are streamed to a python worker over its stdin and the result is read from its stdout
+   */
+  public static final String TRANSPORT_PIPE = "Pipe";
+
+  /**
+   * Frame and result files are written as they are
+   */
+  public static final String SPILL_COMPRESSION_NONE = "None";
+
+  /**
+   * Frame and result files are compressed with gzip, which pandas reads and writes natively
+   */
+  public static final String SPILL_COMPRESSION_GZIP = "gzip";
+
+  /**
+   * The line that ends the init section of the script, the code that python workers run once and
+   * whose globals are kept for every execution of the rest of the script
+   */
+  public static final String END_OF_INIT_MARKER = "# hop:end-init";
+
   /**
    * Default row handling strategy
    */
@@ -97,6 +151,31 @@ public class CPythonScriptExecutorMeta extends BaseTransformMeta<CPythonScriptEx
       BaseMessages.getString(PKG,
           "CPythonScriptExecutorDialog.NumberOfRowsToProcess.Dropdown.AllEntry.Label");
 
+  /**
+   * Row handling strategy that runs the script for every row
+   */
+  public static final String
+      ROWS_TO_PROCESS_ROW_BY_ROW =
+      BaseMessages.getString(PKG,
+          "CPythonScriptExecutorDialog.NumberOfRowsToProcess.Dropdown.RowByRowEntry.Label");
+
+  /**
+   * Row handling strategy that runs the script every batch of rows
+   */
+  public static final String
+      ROWS_TO_PROCESS_BATCH =
+      BaseMessages.getString(PKG,
+          "CPythonScriptExecutorDialog.NumberOfRowsToProcess.Dropdown.BatchEntry.Label");
+
+  /**
+   * Row handling strategy that runs the script for every group of rows with the same key fields,
+   * the input must be sorted on them
+   */
+  public static final String
+      ROWS_TO_PROCESS_GROUP =
+      BaseMessages.getString(PKG,
+          "CPythonScriptExecutorDialog.NumberOfRowsToProcess.Dropdown.GroupEntry.Label");
+
   /**
    * The script to execute
    */
@@ -125,6 +204,80 @@ public class CPythonScriptExecutorMeta extends BaseTransformMeta<CPythonScriptEx
    */
   protected String m_serverID = "";
 
+  /**
+   * The format used to ship the incoming row sets to python
+   */
+  protected String m_frameFormat = FRAME_FORMAT_CSV;
+
+  /**
+   * How frames and results are moved between Hop and python
+   */
+  protected String m_transport = TRANSPORT_FILE;
+
+  /**
+   * How the frame and result files of the file transport are compressed
+   */
+  protected String m_spillCompression = SPILL_COMPRESSION_NONE;
+
+  /**
+   * Directory the virtual environments with the libraries are kept in. The default directory is
+   * used when empty
+   */
+  protected String m_environmentCacheDir = "";
+
+  /**
+   * Optional directory of wheels. When set the libraries are installed from it without network
+   * access
+   */
+  protected String m_wheelhouseDir = "";
+
+  /**
+   * Directory the results of the script are cached in, keyed on the script and the frames. No
+   * results are cached when empty
+   */
+  protected String m_resultCacheDir = "";
+
+  /**
+   * Maximum size of the result cache in megabytes, the least recently used results are evicted.
+   * 1024 when empty
+   */
+  protected String m_resultCacheSize = "";
+
+  /**
+   * Directory the frames, results and spilled rows are written to. When empty /dev/shm is used if it
+   * has enough free space, the temporary directory of the JVM otherwise
+   */
+  protected String m_scratchDir = "";
+
+  /**
+   * Maximum size of the scratch files of a run in megabytes, no limit when empty
+   */
+  protected String m_scratchQuota = "";
+
+  /**
+   * Number of batches that may be waiting for or running in python while the next batch is
+   * collected. 0 runs every batch before the next one is collected, 1 when empty
+   */
+  protected String m_batchesInFlight = "1";
+
+  /**
+   * Number of python processes that execute batches at the same time
+   */
+  protected String m_numberOfWorkers = "1";
+
+  /**
+   * Comma separated key fields of the first frame. When all rows are processed its rows are
+   * partitioned on them, so every worker executes the script for its own set of keys. In group
+   * mode the script is executed for every group of rows with the same keys
+   */
+  protected String m_partitionFields = "";
+
+  /**
+   * Milliseconds after the first row of a batch when the batch is executed even if it is not full.
+   * Empty or 0 to only execute full batches, which never happens when the input never ends
+   */
+  protected String m_batchTimeout = "";
+
   /**
    * Whether to load a script at runtime
    */
@@ -141,6 +294,12 @@ public class CPythonScriptExecutorMeta extends BaseTransformMeta<CPythonScriptEx
    */
   protected List<String> m_frameNames = new ArrayList<>();
 
+  /**
+   * Per frame whether the python workers keep it loaded between executions, so it is only sent
+   * again when its content changes
+   */
+  protected List<Boolean> m_residentFrames = new ArrayList<>();
+
   /**
    * List of variables to get from python. This should hold exactly one variable in the case of
    * extracting a data frame. There can be more than one if all variables are either strings or
@@ -185,6 +344,17 @@ public class CPythonScriptExecutorMeta extends BaseTransformMeta<CPythonScriptEx
    */
   protected String m_seed = "1"; //$NON-NLS-1$
 
+  /**
+   * Comma separated fields of the first frame the reservoir sample is stratified on, every value
+   * of them is sampled separately. Empty for one uniform sample
+   */
+  protected String m_stratifyFields = "";
+
+  /**
+   * Maximum megabytes of sampled rows when the sample is stratified. Empty for no limit
+   */
+  protected String m_reservoirMemoryLimit = "";
+
   /**
    * True if input stream values should be copied to the output stream. Only applies when output is
    * a single pandas data frame; furthermore, number of output rows must match number of input
@@ -221,6 +391,240 @@ public class CPythonScriptExecutorMeta extends BaseTransformMeta<CPythonScriptEx
     return m_serverID;
   }
 
+  /**
+   * Set the format used to ship the incoming row sets to python
+   *
+   * @param frameFormat {@link #FRAME_FORMAT_CSV} or {@link #FRAME_FORMAT_ARROW}
+   */
+  public void setFrameFormat(String frameFormat) {
+    m_frameFormat = frameFormat;
+  }
+
+  /**
+   * Get the format used to ship the incoming row sets to python
+   *
+   * @return {@link #FRAME_FORMAT_CSV} or {@link #FRAME_FORMAT_ARROW}
+   */
+  public String getFrameFormat() {
+    return m_frameFormat;
+  }
+
+  /**
+   * Set how frames and results are moved between Hop and python
+   *
+   * @param transport {@link #TRANSPORT_FILE} or {@link #TRANSPORT_PIPE}
+   */
+  public void setTransport(String transport) {
+    m_transport = transport;
+  }
+
+  /**
+   * Get how frames and results are moved between Hop and python
+   *
+   * @return {@link #TRANSPORT_FILE} or {@link #TRANSPORT_PIPE}
+   */
+  public String getTransport() {
+    return m_transport;
+  }
+
+  /**
+   * Set how the frame and result files of the file transport are compressed
+   *
+   * @param spillCompression {@link #SPILL_COMPRESSION_NONE} or {@link #SPILL_COMPRESSION_GZIP}
+   */
+  public void setSpillCompression(String spillCompression) {
+    m_spillCompression = spillCompression;
+  }
+
+  /**
+   * Get how the frame and result files of the file transport are compressed
+   *
+   * @return {@link #SPILL_COMPRESSION_NONE} or {@link #SPILL_COMPRESSION_GZIP}
+   */
+  public String getSpillCompression() {
+    return m_spillCompression;
+  }
+
+  /**
+   * Set the directory the virtual environments are kept in
+   *
+   * @param environmentCacheDir the directory, empty for the default
+   */
+  public void setEnvironmentCacheDir(String environmentCacheDir) {
+    m_environmentCacheDir = environmentCacheDir;
+  }
+
+  /**
+   * Get the directory the virtual environments are kept in
+   *
+   * @return the directory, empty for the default
+   */
+  public String getEnvironmentCacheDir() {
+    return m_environmentCacheDir;
+  }
+
+  /**
+   * Set the directory of wheels the libraries are installed from
+   *
+   * @param wheelhouseDir the directory, empty to install from the package index
+   */
+  public void setWheelhouseDir(String wheelhouseDir) {
+    m_wheelhouseDir = wheelhouseDir;
+  }
+
+  /**
+   * Get the directory of wheels the libraries are installed from
+   *
+   * @return the directory, empty to install from the package index
+   */
+  public String getWheelhouseDir() {
+    return m_wheelhouseDir;
+  }
+
+  /**
+   * Set the directory the results of the script are cached in
+   *
+   * @param resultCacheDir the directory, empty to not cache results
+   */
+  public void setResultCacheDir(String resultCacheDir) {
+    m_resultCacheDir = resultCacheDir;
+  }
+
+  /**
+   * Get the directory the results of the script are cached in
+   *
+   * @return the directory, empty to not cache results
+   */
+  public String getResultCacheDir() {
+    return m_resultCacheDir;
+  }
+
+  /**
+   * Set the maximum size of the result cache
+   *
+   * @param resultCacheSize the number of megabytes, may contain variables
+   */
+  public void setResultCacheSize(String resultCacheSize) {
+    m_resultCacheSize = resultCacheSize;
+  }
+
+  /**
+   * Get the maximum size of the result cache
+   *
+   * @return the number of megabytes, may contain variables
+   */
+  public String getResultCacheSize() {
+    return m_resultCacheSize;
+  }
+
+  /**
+   * Set the directory the scratch files are written to
+   *
+   * @param scratchDir the directory, empty to choose one
+   */
+  public void setScratchDir(String scratchDir) {
+    m_scratchDir = scratchDir;
+  }
+
+  /**
+   * Get the directory the scratch files are written to
+   *
+   * @return the directory, empty to choose one
+   */
+  public String getScratchDir() {
+    return m_scratchDir;
+  }
+
+  /**
+   * Set the maximum size of the scratch files of a run
+   *
+   * @param scratchQuota the number of megabytes, may contain variables
+   */
+  public void setScratchQuota(String scratchQuota) {
+    m_scratchQuota = scratchQuota;
+  }
+
+  /**
+   * Get the maximum size of the scratch files of a run
+   *
+   * @return the number of megabytes, may contain variables
+   */
+  public String getScratchQuota() {
+    return m_scratchQuota;
+  }
+
+  /**
+   * Set the number of batches that may be executed while the next one is collected
+   *
+   * @param batchesInFlight the number of batches, may contain variables
+   */
+  public void setBatchesInFlight(String batchesInFlight) {
+    m_batchesInFlight = batchesInFlight;
+  }
+
+  /**
+   * Get the number of batches that may be executed while the next one is collected
+   *
+   * @return the number of batches, may contain variables
+   */
+  public String getBatchesInFlight() {
+    return m_batchesInFlight;
+  }
+
+  /**
+   * Set the number of python processes that execute batches at the same time
+   *
+   * @param numberOfWorkers the number of processes, may contain variables
+   */
+  public void setNumberOfWorkers(String numberOfWorkers) {
+    m_numberOfWorkers = numberOfWorkers;
+  }
+
+  /**
+   * Get the number of python processes that execute batches at the same time
+   *
+   * @return the number of processes, may contain variables
+   */
+  public String getNumberOfWorkers() {
+    return m_numberOfWorkers;
+  }
+
+  /**
+   * Set the fields the rows of the first frame are partitioned on
+   *
+   * @param partitionFields comma separated field names, empty to not partition
+   */
+  public void setPartitionFields(String partitionFields) {
+    m_partitionFields = partitionFields;
+  }
+
+  /**
+   * Get the fields the rows of the first frame are partitioned on
+   *
+   * @return comma separated field names, empty to not partition
+   */
+  public String getPartitionFields() {
+    return m_partitionFields;
+  }
+
+  /**
+   * Set the time after which a batch is executed even if it is not full
+   *
+   * @param batchTimeout the number of milliseconds, may contain variables
+   */
+  public void setBatchTimeout(String batchTimeout) {
+    m_batchTimeout = batchTimeout;
+  }
+
+  /**
+   * Get the time after which a batch is executed even if it is not full
+   *
+   * @return the number of milliseconds, may contain variables
+   */
+  public String getBatchTimeout() {
+    return m_batchTimeout;
+  }
+
   /**
    * Get the output structure
    *
@@ -311,6 +715,42 @@ public class CPythonScriptExecutorMeta extends BaseTransformMeta<CPythonScriptEx
     return m_seed;
   }
 
+  /**
+   * Set the fields the reservoir sample of the first frame is stratified on
+   *
+   * @param stratifyFields comma separated field names, empty for one uniform sample
+   */
+  public void setStratifyFields(String stratifyFields) {
+    m_stratifyFields = stratifyFields;
+  }
+
+  /**
+   * Get the fields the reservoir sample of the first frame is stratified on
+   *
+   * @return comma separated field names, empty for one uniform sample
+   */
+  public String getStratifyFields() {
+    return m_stratifyFields;
+  }
+
+  /**
+   * Set the memory limit of a sample that is stratified
+   *
+   * @param memoryLimit the number of megabytes, may contain variables
+   */
+  public void setReservoirMemoryLimit(String memoryLimit) {
+    m_reservoirMemoryLimit = memoryLimit;
+  }
+
+  /**
+   * Get the memory limit of a sample that is stratified
+   *
+   * @return the number of megabytes, may contain variables
+   */
+  public String getReservoirMemoryLimit() {
+    return m_reservoirMemoryLimit;
+  }
+
   /**
    * Sets whether the step should or not include input values in the output stream
    */
@@ -411,6 +851,32 @@ public class CPythonScriptExecutorMeta extends BaseTransformMeta<CPythonScriptEx
     return m_frameNames;
   }
 
+  /**
+   * Set per frame whether the python workers keep it loaded between executions
+   *
+   * @param residentFrames a flag for each frame name
+   */
+  public void setResidentFrames(List<Boolean> residentFrames) {
+    m_residentFrames = residentFrames;
+  }
+
+  /**
+   * Get per frame whether the python workers keep it loaded between executions
+   *
+   * @return a flag for each frame name, may be shorter than the frame names
+   */
+  public List<Boolean> getResidentFrames() {
+    return m_residentFrames;
+  }
+
+  /**
+   * @param frameIndex the index of a frame
+   * @return true when the python workers keep the frame loaded between executions
+   */
+  public boolean isResidentFrame(int frameIndex) {
+    return frameIndex < m_residentFrames.size() && Boolean.TRUE.equals(m_residentFrames.get(frameIndex));
+  }
+
   /**
    * Set the list of python variables to retrieve. If there is more than one variable being
    * retrieved, then each variable will be extracted from python as a string, unless it is an image,
@@ -533,9 +999,25 @@ public class CPythonScriptExecutorMeta extends BaseTransformMeta<CPythonScriptEx
     m_rowsToProcessSize = "";
     m_doingReservoirSampling = false;
     m_reservoirSamplingSize = "";
+    m_stratifyFields = "";
+    m_reservoirMemoryLimit = "";
     m_frameNames = new ArrayList<>();
+    m_residentFrames = new ArrayList<>();
     m_continueOnUnsetVars = false;
     m_pyVarsToGet = new ArrayList<>();
+    m_frameFormat = FRAME_FORMAT_CSV;
+    m_transport = TRANSPORT_FILE;
+    m_spillCompression = SPILL_COMPRESSION_NONE;
+    m_environmentCacheDir = "";
+    m_wheelhouseDir = "";
+    m_resultCacheDir = "";
+    m_resultCacheSize = "";
+    m_scratchDir = "";
+    m_scratchQuota = "";
+    m_batchesInFlight = "1";
+    m_numberOfWorkers = "1";
+    m_partitionFields = "";
+    m_batchTimeout = "";
     m_script = BaseMessages
         .getString(PKG, "CPythonScriptExecutorMeta.InitialScriptText"); //$NON-NLS-1$
   }
@@ -572,11 +1054,26 @@ public class CPythonScriptExecutorMeta extends BaseTransformMeta<CPythonScriptEx
     buff.append(XmlHandler.addTagValue(PYTHON_COMMAND, getPythonCommand()));
     buff.append(XmlHandler.addTagValue(PYTHON_PATH_ENTRIES, getPyPathEntries()));
     buff.append(XmlHandler.addTagValue(PYTHON_SERVER_ID, getPytServerID()));
+    buff.append(XmlHandler.addTagValue(FRAME_FORMAT_TAG, getFrameFormat()));
+    buff.append(XmlHandler.addTagValue(TRANSPORT_TAG, getTransport()));
+    buff.append(XmlHandler.addTagValue(SPILL_COMPRESSION_TAG, getSpillCompression()));
+    buff.append(XmlHandler.addTagValue(ENVIRONMENT_CACHE_DIR_TAG, getEnvironmentCacheDir()));
+    buff.append(XmlHandler.addTagValue(WHEELHOUSE_DIR_TAG, getWheelhouseDir()));
+    buff.append(XmlHandler.addTagValue(RESULT_CACHE_DIR_TAG, getResultCacheDir()));
+    buff.append(XmlHandler.addTagValue(RESULT_CACHE_SIZE_TAG, getResultCacheSize()));
+    buff.append(XmlHandler.addTagValue(SCRATCH_DIR_TAG, getScratchDir()));
+    buff.append(XmlHandler.addTagValue(SCRATCH_QUOTA_TAG, getScratchQuota()));
+    buff.append(XmlHandler.addTagValue(BATCHES_IN_FLIGHT_TAG, getBatchesInFlight()));
+    buff.append(XmlHandler.addTagValue(NUMBER_OF_WORKERS_TAG, getNumberOfWorkers()));
+    buff.append(XmlHandler.addTagValue(PARTITION_FIELDS_TAG, getPartitionFields()));
+    buff.append(XmlHandler.addTagValue(BATCH_TIMEOUT_TAG, getBatchTimeout()));
     buff.append(XmlHandler.addTagValue(ROWS_TO_PROCESS_TAG, getRowsToProcess()));
     buff.append(XmlHandler.addTagValue(ROWS_TO_PROCESS_SIZE_TAG, getRowsToProcessSize()));
     buff.append(XmlHandler.addTagValue(RESERVOIR_SAMPLING_TAG, getDoingReservoirSampling()));
     buff.append(XmlHandler.addTagValue(RESERVOIR_SAMPLING_SIZE_TAG, getReservoirSamplingSize()));
     buff.append(XmlHandler.addTagValue(RESERVOIR_SAMPLING_SEED_TAG, getRandomSeed()));
+    buff.append(XmlHandler.addTagValue(STRATIFY_FIELDS_TAG, getStratifyFields()));
+    buff.append(XmlHandler.addTagValue(RESERVOIR_MEMORY_LIMIT_TAG, getReservoirMemoryLimit()));
     buff.append(XmlHandler.addTagValue(INCLUDE_INPUT_AS_OUTPUT_TAG, getIncludeInputAsOutput()));
     buff.append(XmlHandler.addTagValue(SCRIPT_TAG, getScript()));
     buff.append(XmlHandler.addTagValue(LIBRARY_TAG, getLibrary()));
@@ -599,6 +1096,12 @@ public class CPythonScriptExecutorMeta extends BaseTransformMeta<CPythonScriptEx
     buff.append("    " + XmlHandler.closeTag(FRAME_NAMES_TAG)
         + Const.CR); //$NON-NLS-1$
 
+    buff.append("   " + XmlHandler.openTag(RESIDENT_FRAMES_TAG) + Const.CR);
+    for (int i = 0; i < m_frameNames.size(); i++) {
+      buff.append("    " + XmlHandler.addTagValue(SINGLE_RESIDENT_FRAME_TAG + i, isResidentFrame(i)));
+    }
+    buff.append("    " + XmlHandler.closeTag(RESIDENT_FRAMES_TAG) + Const.CR);
+
     // name of the corresponding step that is providing data for each frame
     buff.append("   " + XmlHandler.openTag(INCOMING_STEP_NAMES_TAG)
         + Const.CR); //$NON-NLS-1$
@@ -644,6 +1147,38 @@ public class CPythonScriptExecutorMeta extends BaseTransformMeta<CPythonScriptEx
     setPyPathEntries(pyPathE == null ? "" : pyPathE);
     String pyServerID = XmlHandler.getTagValue(transformNode, PYTHON_SERVER_ID);
     setPyServerID(pyServerID == null ? "" : pyServerID);
+    String frameFormat = XmlHandler.getTagValue(transformNode, FRAME_FORMAT_TAG);
+    setFrameFormat(org.apache.hop.core.util.Utils.isEmpty(frameFormat) ? FRAME_FORMAT_CSV : frameFormat);
+    String transport = XmlHandler.getTagValue(transformNode, TRANSPORT_TAG);
+    setTransport(org.apache.hop.core.util.Utils.isEmpty(transport) ? TRANSPORT_FILE : transport);
+    String spillCompression = XmlHandler.getTagValue(transformNode, SPILL_COMPRESSION_TAG);
+    setSpillCompression(org.apache.hop.core.util.Utils.isEmpty(spillCompression) ? SPILL_COMPRESSION_NONE : spillCompression);
+    String environmentCacheDir = XmlHandler.getTagValue(transformNode, ENVIRONMENT_CACHE_DIR_TAG);
+    setEnvironmentCacheDir(environmentCacheDir == null ? "" : environmentCacheDir);
+    String wheelhouseDir = XmlHandler.getTagValue(transformNode, WHEELHOUSE_DIR_TAG);
+    setWheelhouseDir(wheelhouseDir == null ? "" : wheelhouseDir);
+    String resultCacheDir = XmlHandler.getTagValue(transformNode, RESULT_CACHE_DIR_TAG);
+    setResultCacheDir(resultCacheDir == null ? "" : resultCacheDir);
+    String resultCacheSize = XmlHandler.getTagValue(transformNode, RESULT_CACHE_SIZE_TAG);
+    setResultCacheSize(resultCacheSize == null ? "" : resultCacheSize);
+    String scratchDir = XmlHandler.getTagValue(transformNode, SCRATCH_DIR_TAG);
+    setScratchDir(scratchDir == null ? "" : scratchDir);
+    String scratchQuota = XmlHandler.getTagValue(transformNode, SCRATCH_QUOTA_TAG);
+    setScratchQuota(scratchQuota == null ? "" : scratchQuota);
+    //transforms saved before the option existed keep running every batch before the next one, the
+    //tag of an empty value has no text, so it is told apart from a missing tag by its node
+    if (XmlHandler.getSubNode(transformNode, BATCHES_IN_FLIGHT_TAG) == null) {
+      setBatchesInFlight("0");
+    } else {
+      String batchesInFlight = XmlHandler.getTagValue(transformNode, BATCHES_IN_FLIGHT_TAG);
+      setBatchesInFlight(org.apache.hop.core.util.Utils.isEmpty(batchesInFlight) ? "1" : batchesInFlight);
+    }
+    String numberOfWorkers = XmlHandler.getTagValue(transformNode, NUMBER_OF_WORKERS_TAG);
+    setNumberOfWorkers(numberOfWorkers == null ? "1" : numberOfWorkers);
+    String partitionFields = XmlHandler.getTagValue(transformNode, PARTITION_FIELDS_TAG);
+    setPartitionFields(partitionFields == null ? "" : partitionFields);
+    String batchTimeout = XmlHandler.getTagValue(transformNode, BATCH_TIMEOUT_TAG);
+    setBatchTimeout(batchTimeout == null ? "" : batchTimeout);
 
     String rowsToProcess = XmlHandler.getTagValue(transformNode, ROWS_TO_PROCESS_TAG);
     setRowsToProcess(rowsToProcess == null ? "" : rowsToProcess);
@@ -656,6 +1191,10 @@ public class CPythonScriptExecutorMeta extends BaseTransformMeta<CPythonScriptEx
         .getTagValue(transformNode, RESERVOIR_SAMPLING_SIZE_TAG);
     setReservoirSamplingSize(reservoirSamplingSize == null ? "" : reservoirSamplingSize);
     setRandomSeed(XmlHandler.getTagValue(transformNode, RESERVOIR_SAMPLING_SEED_TAG));
+    String stratifyFields = XmlHandler.getTagValue(transformNode, STRATIFY_FIELDS_TAG);
+    setStratifyFields(stratifyFields == null ? "" : stratifyFields);
+    String reservoirMemoryLimit = XmlHandler.getTagValue(transformNode, RESERVOIR_MEMORY_LIMIT_TAG);
+    setReservoirMemoryLimit(reservoirMemoryLimit == null ? "" : reservoirMemoryLimit);
     String includeInputAsOutput = XmlHandler
         .getTagValue(transformNode, INCLUDE_INPUT_AS_OUTPUT_TAG);
     if (!org.apache.hop.core.util.Utils.isEmpty(includeInputAsOutput)) {
@@ -698,6 +1237,13 @@ public class CPythonScriptExecutorMeta extends BaseTransformMeta<CPythonScriptEx
         i++;
       }
     }
+    m_residentFrames = new ArrayList<>();
+    Node residentFrames = XmlHandler.getSubNode(transformNode, RESIDENT_FRAMES_TAG);
+    for (int i = 0; i < m_frameNames.size(); i++) {
+      String resident = residentFrames == null ? null
+          : XmlHandler.getTagValue(residentFrames, SINGLE_RESIDENT_FRAME_TAG + i);
+      m_residentFrames.add("Y".equalsIgnoreCase(resident));
+    }
 
     // get the step names
     Node stepNameFields = XmlHandler.getSubNode(transformNode, INCOMING_STEP_NAMES_TAG);
@@ -734,6 +1280,41 @@ public class CPythonScriptExecutorMeta extends BaseTransformMeta<CPythonScriptEx
     }
   }
 
+  /**
+   * Declares the output fields, followed by the fields of the first frame that are included in the
+   * output and the frame row index. The executor builds the same row meta when it reads the first
+   * row.
+   */
+  @Override
+  public void getFields(IRowMeta rowMeta, String name, IRowMeta[] info, TransformMeta nextTransform,
+      IVariables variables, IHopMetadataProvider metadataProvider) throws HopTransformException {
+    IRowMeta firstFrame = info != null && info.length > 0 ? info[0] : null;
+    IRowMeta outputRowMeta = m_outputFields == null ? new RowMeta() : m_outputFields.clone();
+    if (getIncludeInputAsOutput() && firstFrame != null) {
+      for (int i = 0; i < outputRowMeta.size(); i++) {
+        int inputIndex = firstFrame.indexOfValue(outputRowMeta.getValueMeta(i).getName());
+        if (inputIndex >= 0) {
+          // the value is the one of the input row, so is its type
+          outputRowMeta.setValueMeta(i, firstFrame.getValueMeta(inputIndex).clone());
+        }
+      }
+      for (IValueMeta valueMeta : firstFrame.getValueMetaList()) {
+        if (outputRowMeta.indexOfValue(valueMeta.getName()) < 0) {
+          outputRowMeta.addValueMeta(valueMeta.clone());
+        }
+      }
+    }
+    if (getIncludeFrameRowIndexAsOutputField()) {
+      outputRowMeta.addValueMeta(new ValueMetaInteger(RowStore.INDEX_COLUMN));
+    }
+
+    rowMeta.clear();
+    for (IValueMeta valueMeta : outputRowMeta.getValueMetaList()) {
+      valueMeta.setOrigin(name);
+      rowMeta.addValueMeta(valueMeta);
+    }
+  }
+
   @Override
   public Object clone() {
     CPythonScriptExecutorMeta retval = (CPythonScriptExecutorMeta) super.clone();
@@ -758,7 +1339,6 @@ public class CPythonScriptExecutorMeta extends BaseTransformMeta<CPythonScriptEx
       ((TransformIOMeta) ioMeta).setInputAcceptor(true);
       ((TransformIOMeta) ioMeta).setOutputProducer(true);
       ((TransformIOMeta) ioMeta).setInputOptional(false);
-      ((TransformIOMeta) ioMeta).setSortedDataRequired(false);
       ioMeta.setInputDynamic(false);
       ioMeta.setOutputDynamic(false);
 
@@ -769,6 +1349,8 @@ public class CPythonScriptExecutorMeta extends BaseTransformMeta<CPythonScriptEx
                 StreamIcon.INFO, null));
       }
     }
+    // groups are detected on the fly, so they must arrive one after the other
+    ((TransformIOMeta) ioMeta).setSortedDataRequired(ROWS_TO_PROCESS_GROUP.equals(m_rowsToProcess));
     return ioMeta;
   }
 
@@ -0,0 +1,157 @@
+/*! ******************************************************************************
+ *
+ * CPython for the Hop orchestration platform
+ *
+ * http://www.project-hop.org
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.vutiendung.hop.pipeline.transforms.cpython;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes gzip to a target stream on a thread of its own, so the thread writing the rows only
+ * copies bytes. The bytes are handed over in blocks, at most a few blocks wait for the compressor
+ * so a slow disk holds up the writer instead of filling the memory. The fastest compression level
+ * is used, the point is less I/O, not the smallest file.
+ */
+public class CompressingOutputStream extends OutputStream {
+
+  private static final int BLOCK_SIZE = 256 * 1024;
+  private static final int PENDING_BLOCKS = 4;
+
+  /**
+   * Tells the compressor the stream is closed
+   */
+  private static final byte[] END = new byte[0];
+
+  private final BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<>(PENDING_BLOCKS);
+  private final Thread compressor;
+  private volatile IOException failure;
+
+  private byte[] block = new byte[BLOCK_SIZE];
+  private int length;
+  private boolean closed;
+
+  /**
+   * @param target receives the compressed bytes, it is closed with this stream
+   * @param name name of the compressor thread
+   */
+  public CompressingOutputStream(final OutputStream target, String name) {
+    compressor = new Thread(() -> compress(target), name);
+    compressor.setDaemon(true);
+    compressor.start();
+  }
+
+  @Override public void write(int b) throws IOException {
+    if (length == block.length) {
+      handOver();
+    }
+    block[length++] = (byte) b;
+  }
+
+  @Override public void write(byte[] b, int off, int len) throws IOException {
+    while (len > 0) {
+      if (length == block.length) {
+        handOver();
+      }
+      int n = Math.min(len, block.length - length);
+      System.arraycopy(b, off, block, length, n);
+      length += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+  /**
+   * Wait until all bytes are compressed and written, and close the target
+   *
+   * @throws IOException if the bytes could not be compressed or written
+   */
+  @Override public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (length > 0) {
+      handOver();
+    }
+    put(END);
+    try {
+      compressor.join();
+    } catch (InterruptedException e) {
+      compressor.interrupt();
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while compressing");
+    }
+    block = null;
+    checkFailure();
+  }
+
+  private void handOver() throws IOException {
+    put(length == block.length ? block : Arrays.copyOf(block, length));
+    block = new byte[BLOCK_SIZE];
+    length = 0;
+  }
+
+  private void put(byte[] bytes) throws IOException {
+    try {
+      //a failed compressor does not take blocks anymore
+      while (!blocks.offer(bytes, 100, TimeUnit.MILLISECONDS)) {
+        checkFailure();
+      }
+    } catch (InterruptedException e) {
+      compressor.interrupt();
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while compressing");
+    }
+    checkFailure();
+  }
+
+  private void checkFailure() throws IOException {
+    if (failure != null) {
+      throw new IOException("Unable to write the compressed bytes: " + failure.getMessage(), failure);
+    }
+  }
+
+  private void compress(OutputStream target) {
+    try (OutputStream out = new GZIPOutputStream(target, 64 * 1024) {
+      {
+        def.setLevel(Deflater.BEST_SPEED);
+      }
+    }) {
+      for (byte[] bytes = blocks.take(); bytes != END; bytes = blocks.take()) {
+        out.write(bytes);
+      }
+    } catch (IOException e) {
+      failure = e;
+    } catch (InterruptedException e) {
+      failure = new InterruptedIOException("Interrupted while compressing");
+    } finally {
+      blocks.clear();
+    }
+  }
+}
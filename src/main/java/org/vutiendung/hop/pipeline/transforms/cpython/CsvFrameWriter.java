@@ -0,0 +1,466 @@
+/*! ******************************************************************************
+ *
+ * CPython for the Hop orchestration platform
+ *
+ * http://www.project-hop.org
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.vutiendung.hop.pipeline.transforms.cpython;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+import org.apache.hop.core.exception.HopException;
+import org.apache.hop.core.exception.HopValueException;
+import org.apache.hop.core.row.IRowMeta;
+import org.apache.hop.core.row.IValueMeta;
+
+/**
+ * Writes a frame as a CSV file with a header line. Pandas reads it back with
+ * <code>pd.read_csv</code> using a dtype mapping derived from the row meta, followed by a
+ * <code>pd.to_datetime</code> pass for date and timestamp columns. Big numbers are read as text and
+ * converted to <code>Decimal</code>, so they keep all their digits.
+ * <p/>
+ * An encoder is compiled per field when the writer is created. Rows are encoded as UTF-8 straight
+ * into a reusable byte buffer that is handed to the output stream in large blocks. Integer, number,
+ * boolean, date and timestamp values are formatted without creating intermediate strings, values containing
+ * the delimiter, a quote or a line break are quoted as described in RFC 4180.
+ */
+public class CsvFrameWriter implements IFrameWriter {
+
+  private static final String DEFAULT_PYTHON_DATETIME_FORMAT = "%Y-%m-%d %H:%M:%S.%f";
+
+  /**
+   * The buffer is written to the output stream once it holds this many bytes
+   */
+  protected static final int FLUSH_THRESHOLD = 256 * 1024;
+
+  private static final byte QUOTE = '"';
+  private static final byte[] TRUE = { 'T', 'r', 'u', 'e' };
+  private static final byte[] FALSE = { 'F', 'a', 'l', 's', 'e' };
+  private static final byte[] NAN = { 'n', 'a', 'n' };
+  private static final byte[] INFINITY = { 'i', 'n', 'f' };
+  private static final byte[] LONG_MIN = Long.toString(Long.MIN_VALUE).getBytes();
+  private static final long NEGATIVE_ZERO_BITS = Double.doubleToRawLongBits(-0.0d);
+
+  private final OutputStream out;
+  private final IRowMeta rowMeta;
+  private final String delimiter;
+  private final String lineSeparator;
+  private final byte[] delimiterBytes;
+  private final byte[] lineSeparatorBytes;
+  private final char delimiterChar;
+  private final IFieldEncoder[] encoders;
+  private final Calendar calendar = Calendar.getInstance();
+
+  private byte[] buffer = new byte[FLUSH_THRESHOLD + 1024];
+  private int count;
+
+  public CsvFrameWriter(OutputStream out, IRowMeta rowMeta, String delimiter, String lineSeparator) throws HopException {
+    this.out = out;
+    this.rowMeta = rowMeta;
+    this.delimiter = delimiter;
+    this.lineSeparator = lineSeparator;
+    this.delimiterBytes = delimiter.getBytes(StandardCharsets.UTF_8);
+    this.lineSeparatorBytes = lineSeparator.getBytes(StandardCharsets.UTF_8);
+    this.delimiterChar = delimiter.length() == 1 ? delimiter.charAt(0) : 0;
+
+    encoders = new IFieldEncoder[rowMeta.size()];
+    for (int i = 0; i < encoders.length; i++) {
+      encoders[i] = createEncoder(rowMeta.getValueMeta(i));
+    }
+
+    try {
+      writeHeader();
+      flushBuffer();
+      out.flush();
+    } catch (Exception e) {
+      throw new HopException(e.getMessage());
+    }
+  }
+
+  @Override public void writeRow(Object[] row) throws HopException {
+    // the buffer is only flushed after a complete row, so a failed row is taken back completely
+    int rowStart = count;
+    try {
+      for (int i = 0; i < encoders.length; i++) {
+        if (i > 0) {
+          append(delimiterBytes);
+        }
+        Object value = row[i];
+        if (value != null) {
+          encoders[i].encode(value);
+        }
+      }
+      append(lineSeparatorBytes);
+    } catch (Exception ex) {
+      count = rowStart;
+      throw new HopException(ex.getMessage());
+    }
+    try {
+      if (count >= FLUSH_THRESHOLD) {
+        flushBuffer();
+      }
+    } catch (Exception ex) {
+      throw new HopException(ex.getMessage());
+    }
+  }
+
+  @Override public void close() throws HopException {
+    try {
+      flushBuffer();
+      out.close();
+    } catch (Exception e) {
+      throw new HopException(e.getMessage());
+    }
+  }
+
+  @Override public String getPandasReadCommand(String frameName, String source) {
+    return frameName + " = pd.read_csv(" + source + generatePandasHeader() + ")" + lineSeparator
+        + generatePandasConvertDecimal(frameName) + generatePandasConvertDatetime(frameName) + lineSeparator;
+  }
+
+  private void writeHeader() {
+    for (int i = 0; i < rowMeta.size(); i++) {
+      if (i > 0) {
+        append(delimiterBytes);
+      }
+      appendText(rowMeta.getValueMeta(i).getName());
+    }
+    append(lineSeparatorBytes);
+  }
+
+  /**
+   * Choose the encoder of a field. The fast paths only apply to values in normal storage, lazy
+   * converted values go through the value meta.
+   */
+  private IFieldEncoder createEncoder(final IValueMeta valueMeta) {
+    if (valueMeta.isStorageNormal()) {
+      switch (valueMeta.getType()) {
+        case IValueMeta.TYPE_INTEGER:
+          return value -> appendLong((Long) value);
+        case IValueMeta.TYPE_NUMBER:
+          return value -> appendDouble((Double) value);
+        case IValueMeta.TYPE_BOOLEAN:
+          return value -> append((Boolean) value ? TRUE : FALSE);
+        case IValueMeta.TYPE_DATE:
+        case IValueMeta.TYPE_TIMESTAMP:
+          return value -> appendDate((Date) value);
+        case IValueMeta.TYPE_BIGNUMBER:
+          return value -> appendAscii(((BigDecimal) value).toPlainString());
+        case IValueMeta.TYPE_STRING:
+          return value -> appendText((String) value);
+        default:
+          break;
+      }
+    }
+    if (valueMeta.getType() == IValueMeta.TYPE_BOOLEAN) {
+      return value -> {
+        Boolean b = valueMeta.getBoolean(value);
+        if (b != null) {
+          append(b ? TRUE : FALSE);
+        }
+      };
+    }
+    if (valueMeta.getType() == IValueMeta.TYPE_DATE || valueMeta.getType() == IValueMeta.TYPE_TIMESTAMP) {
+      return value -> {
+        Date date = valueMeta.getDate(value);
+        if (date != null) {
+          appendDate(date);
+        }
+      };
+    }
+    return value -> {
+      String text = valueMeta.getString(value);
+      if (text != null) {
+        appendText(text);
+      }
+    };
+  }
+
+  private void ensureCapacity(int extra) {
+    if (count + extra > buffer.length) {
+      byte[] larger = new byte[Math.max(buffer.length * 2, count + extra)];
+      System.arraycopy(buffer, 0, larger, 0, count);
+      buffer = larger;
+    }
+  }
+
+  private void append(byte[] bytes) {
+    ensureCapacity(bytes.length);
+    System.arraycopy(bytes, 0, buffer, count, bytes.length);
+    count += bytes.length;
+  }
+
+  private void appendAscii(String text) {
+    int length = text.length();
+    ensureCapacity(length);
+    for (int i = 0; i < length; i++) {
+      buffer[count++] = (byte) text.charAt(i);
+    }
+  }
+
+  /**
+   * Append a text value as UTF-8, quoted if it contains the delimiter, a quote or a line break
+   */
+  private void appendText(String text) {
+    int length = text.length();
+    boolean quote = delimiterChar == 0 && text.contains(delimiter);
+    for (int i = 0; i < length && !quote; i++) {
+      char c = text.charAt(i);
+      quote = c == '"' || c == '\n' || c == '\r' || c == delimiterChar;
+    }
+
+    // a char takes at most 3 bytes in UTF-8, a quote is doubled
+    ensureCapacity(length * 3 + 2);
+    if (quote) {
+      buffer[count++] = QUOTE;
+    }
+    for (int i = 0; i < length; i++) {
+      char c = text.charAt(i);
+      if (c < 0x80) {
+        if (c == '"') {
+          buffer[count++] = QUOTE;
+        }
+        buffer[count++] = (byte) c;
+      } else if (c < 0x800) {
+        buffer[count++] = (byte) (0xC0 | (c >> 6));
+        buffer[count++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, text.charAt(++i));
+        buffer[count++] = (byte) (0xF0 | (codePoint >> 18));
+        buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+      } else if (Character.isSurrogate(c)) {
+        buffer[count++] = '?';
+      } else {
+        buffer[count++] = (byte) (0xE0 | (c >> 12));
+        buffer[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        buffer[count++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+    if (quote) {
+      buffer[count++] = QUOTE;
+    }
+  }
+
+  private void appendLong(long value) {
+    if (value == Long.MIN_VALUE) {
+      append(LONG_MIN);
+      return;
+    }
+    ensureCapacity(20);
+    if (value < 0) {
+      buffer[count++] = '-';
+      value = -value;
+    }
+    int start = count;
+    do {
+      buffer[count++] = (byte) ('0' + (value % 10));
+      value /= 10;
+    } while (value != 0);
+
+    // digits were written least significant first
+    for (int i = start, j = count - 1; i < j; i++, j--) {
+      byte digit = buffer[i];
+      buffer[i] = buffer[j];
+      buffer[j] = digit;
+    }
+  }
+
+  private void appendDouble(double value) {
+    // -0.0 keeps its sign through Double.toString
+    if (value == Math.rint(value) && Math.abs(value) < 1e15 && Double.doubleToRawLongBits(value) != NEGATIVE_ZERO_BITS) {
+      appendLong((long) value);
+      appendAscii(".0");
+    } else if (Double.isNaN(value)) {
+      append(NAN);
+    } else if (Double.isInfinite(value)) {
+      if (value < 0) {
+        appendAscii("-");
+      }
+      append(INFINITY);
+    } else {
+      appendAscii(Double.toString(value));
+    }
+  }
+
+  /**
+   * Append a date as <code>yyyy-MM-dd HH:mm:ss.ffffff</code> in the JVM default time zone, the
+   * format the pandas read command expects. A timestamp keeps its microseconds, the nanoseconds
+   * below them are dropped because datetime parsing in pandas stops at microseconds.
+   *
+   * @throws HopValueException if the year does not have four digits or is before Christ, pandas can
+   *         not parse it
+   */
+  private void appendDate(Date date) throws HopValueException {
+    calendar.setTimeInMillis(date.getTime());
+    int year = calendar.get(Calendar.YEAR);
+    if (calendar.get(Calendar.ERA) == GregorianCalendar.BC || year > 9999) {
+      throw new HopValueException("The date " + date + " can not be written to a CSV frame, only the years 1 to 9999 are supported");
+    }
+    ensureCapacity(26);
+    appendDigits(year, 4);
+    buffer[count++] = '-';
+    appendDigits(calendar.get(Calendar.MONTH) + 1, 2);
+    buffer[count++] = '-';
+    appendDigits(calendar.get(Calendar.DAY_OF_MONTH), 2);
+    buffer[count++] = ' ';
+    appendDigits(calendar.get(Calendar.HOUR_OF_DAY), 2);
+    buffer[count++] = ':';
+    appendDigits(calendar.get(Calendar.MINUTE), 2);
+    buffer[count++] = ':';
+    appendDigits(calendar.get(Calendar.SECOND), 2);
+    buffer[count++] = '.';
+    int micros = date instanceof Timestamp
+        ? ((Timestamp) date).getNanos() / 1000 : calendar.get(Calendar.MILLISECOND) * 1000;
+    appendDigits(micros, 6);
+  }
+
+  private void appendDigits(int value, int width) {
+    for (int i = width - 1; i >= 0; i--) {
+      buffer[count + i] = (byte) ('0' + (value % 10));
+      value /= 10;
+    }
+    count += width;
+  }
+
+  private void flushBuffer() throws IOException {
+    if (count > 0) {
+      out.write(buffer, 0, count);
+      count = 0;
+    }
+  }
+
+  private String generatePandasHeader() {
+    List<String> fieldHeader = new ArrayList<>();
+    int countOfNonDatetimeField = 0;
+
+    int numberOfInputField = rowMeta.size();
+
+    if(numberOfInputField == 0 ) {
+      return "";
+    }
+
+    for (int fieldIndex = 0; fieldIndex < numberOfInputField; fieldIndex++) {
+      IValueMeta fieldMeta = rowMeta.getValueMetaList().get(fieldIndex);
+      String columnName = fieldMeta.getName();
+      String fieldType = fieldMeta.getTypeDesc();
+
+      if(!fieldType.equals("Date") && !fieldType.equals("Timestamp")) {
+        countOfNonDatetimeField ++;
+        fieldHeader.add(toPythonString(columnName) + ": '" + hopeTypeToPandasType(fieldType) + "'");
+      }
+    } // End foreach field
+
+    if(countOfNonDatetimeField > 0) {
+      return ", dtype={" + String.join(",", fieldHeader) + "}";
+    }
+    return "";
+  }
+
+  private String generatePandasConvertDatetime(String dataFrameName) {
+    String result = "";
+
+    int numberOfInputField = rowMeta.size();
+
+    if(numberOfInputField == 0 ) {
+      return "";
+    }
+
+    for (int fieldIndex = 0; fieldIndex < numberOfInputField; fieldIndex++) {
+      IValueMeta fieldMeta = rowMeta.getValueMetaList().get(fieldIndex);
+      String column = dataFrameName + "[" + toPythonString(fieldMeta.getName()) + "]";
+
+      if(fieldMeta.getType() == IValueMeta.TYPE_DATE || fieldMeta.getType() == IValueMeta.TYPE_TIMESTAMP) {
+         result = result + column + " = pd.to_datetime(" + column + ", format=\"" + DEFAULT_PYTHON_DATETIME_FORMAT + "\")" + lineSeparator;
+      }
+
+    } // End foreach field
+    return result + lineSeparator;
+  }
+
+  private String generatePandasConvertDecimal(String dataFrameName) {
+    StringBuilder result = new StringBuilder();
+    for (IValueMeta fieldMeta : rowMeta.getValueMetaList()) {
+      if(fieldMeta.getType() == IValueMeta.TYPE_BIGNUMBER) {
+        if(result.length() == 0) {
+          result.append("from decimal import Decimal").append(lineSeparator);
+        }
+        String column = dataFrameName + "[" + toPythonString(fieldMeta.getName()) + "]";
+        result.append(column).append(" = ").append(column)
+            .append(".map(lambda v: v if pd.isna(v) else Decimal(v))").append(lineSeparator);
+      }
+    }
+    return result.toString();
+  }
+
+  /**
+   * Quote a field name as a python string literal, so any name ends up in the generated code as
+   * data
+   */
+  private static String toPythonString(String text) {
+    StringBuilder literal = new StringBuilder(text.length() + 2).append('\'');
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      switch (c) {
+        case '\\': literal.append("\\\\"); break;
+        case '\'': literal.append("\\'"); break;
+        case '\n': literal.append("\\n"); break;
+        case '\r': literal.append("\\r"); break;
+        default:
+          if (c < 0x20) {
+            literal.append(String.format("\\x%02x", (int) c));
+          } else {
+            literal.append(c);
+          }
+      }
+    }
+    return literal.append('\'').toString();
+  }
+
+  private String hopeTypeToPandasType(String hopType) {
+    switch (hopType) {
+      case "Boolean": return "bool";
+      case "Date": return "datetime64";
+      case "Integer": return "int64";
+      case "BigNumber": return "str";
+      case "Timestamp": return "datetime64";
+      case "String": return "str";
+      case "Number": return "float64";
+      default:
+        return "object";
+    }
+  }
+
+  /**
+   * Appends one non-null value of a field to the buffer
+   */
+  private interface IFieldEncoder {
+    void encode(Object value) throws HopValueException;
+  }
+}
@@ -0,0 +1,376 @@
+/*! ******************************************************************************
+ *
+ * CPython for the Hop orchestration platform
+ *
+ * http://www.project-hop.org
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.vutiendung.hop.pipeline.transforms.cpython;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoField;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.apache.hop.core.exception.HopException;
+import org.apache.hop.core.logging.ILogChannel;
+import org.apache.hop.core.row.IRowMeta;
+import org.apache.hop.core.row.IValueMeta;
+import org.apache.hop.core.row.value.ValueMetaString;
+
+/**
+ * Reads an output frame that pandas wrote with <code>to_csv</code>. Date and timestamp columns are
+ * converted to strings on the python side before the frame is written, missing values are written
+ * as {@link #NULL_MARKER}.
+ * <p/>
+ * A parser is built per output field when the reader is created, and the header line is resolved to
+ * a column index per output field once. The stream is split by a {@link CsvTokenizer}, so quoted
+ * values with delimiters or line breaks are read correctly, and numbers, booleans and dates are
+ * parsed straight from the bytes of the field.
+ */
+public class CsvResultReader implements IResultReader {
+
+  private static final String DEFAULT_PYTHON_DATETIME_FORMAT = "%Y-%m-%d %H:%M:%S.%f";
+
+  /**
+   * Written by pandas for missing values, so they can be told apart from empty strings
+   */
+  protected static final String NULL_MARKER = "\\N";
+
+  private static final byte[] NULL_MARKER_BYTES = NULL_MARKER.getBytes(StandardCharsets.US_ASCII);
+
+  /**
+   * Exact powers of ten, a decimal with at most 15 digits divided by one of these is correctly
+   * rounded
+   */
+  private static final double[] POWERS_OF_TEN = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+      1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+  /**
+   * Parses what strftime writes for {@link #DEFAULT_PYTHON_DATETIME_FORMAT}, the time and the
+   * fraction are optional. Used when the fast path does not recognize the layout.
+   */
+  private static final DateTimeFormatter DATE_TIME_FORMATTER = new DateTimeFormatterBuilder()
+      .appendPattern("yyyy-MM-dd")
+      .optionalStart()
+      .appendLiteral(' ')
+      .appendPattern("HH:mm:ss")
+      .optionalStart()
+      .appendFraction(ChronoField.NANO_OF_SECOND, 0, 9, true)
+      .optionalEnd()
+      .optionalEnd()
+      .parseDefaulting(ChronoField.HOUR_OF_DAY, 0)
+      .parseDefaulting(ChronoField.MINUTE_OF_HOUR, 0)
+      .parseDefaulting(ChronoField.SECOND_OF_MINUTE, 0)
+      .toFormatter();
+
+  private final IRowMeta outputFields;
+  private final String delimiter;
+  private final String lineSeparator;
+  private final boolean compressed;
+  private final ILogChannel log;
+  private final ZoneId zoneId = ZoneId.systemDefault();
+  private final ValueMetaString stringMeta = new ValueMetaString("python");
+  private final IValueParser[] parsers;
+
+  public CsvResultReader(IRowMeta outputFields, String delimiter, String lineSeparator, ILogChannel log) {
+    this(outputFields, delimiter, lineSeparator, false, log);
+  }
+
+  /**
+   * @param compressed true if pandas writes the frame with gzip, the stream to read is decompressed
+   *        already
+   */
+  public CsvResultReader(IRowMeta outputFields, String delimiter, String lineSeparator, boolean compressed,
+      ILogChannel log) {
+    this.outputFields = outputFields;
+    this.delimiter = delimiter;
+    this.lineSeparator = lineSeparator;
+    this.compressed = compressed;
+    this.log = log;
+
+    parsers = new IValueParser[outputFields.size()];
+    for (int i = 0; i < parsers.length; i++) {
+      parsers[i] = createParser(outputFields.getValueMeta(i));
+    }
+  }
+
+  @Override public void read(InputStream in, IRowConsumer consumer) throws HopException {
+    CsvTokenizer tokenizer = new CsvTokenizer(Channels.newChannel(in), delimiter.charAt(0));
+    try {
+      if (!tokenizer.next()) {
+        return;
+      }
+
+      //parse header
+      String[] header = new String[tokenizer.getFieldCount()];
+      for (int i = 0; i < header.length; i++) {
+        header[i] = tokenizer.getString(i);
+      }
+      int[] columnIndexes = bindColumns(header);
+      int numberOfField = parsers.length;
+
+      while (tokenizer.next()) {
+        byte[] buffer = tokenizer.getBuffer();
+        int fieldCount = tokenizer.getFieldCount();
+        Object[] outputRow = new Object[numberOfField];
+
+        for (int i = 0; i < numberOfField; i++) {
+          int column = columnIndexes[i];
+          if (column < 0 || column >= fieldCount || tokenizer.getFieldLength(column) == 0
+              || tokenizer.isUnquoted(column, NULL_MARKER_BYTES)) {
+            continue;
+          }
+          outputRow[i] = parsers[i].parse(buffer, tokenizer.getFieldStart(column), tokenizer.getFieldLength(column));
+        }
+
+        consumer.putRow(outputRow);
+      }
+    } catch (IOException e) {
+      throw new HopException("Unable to read the result of the python script: " + e.getMessage(), e);
+    }
+  }
+
+  @Override public String getPandasWriteCommand(String frameName, String target) {
+    //Conver timestamp to string
+    return "for series_name in " + frameName + ":" + lineSeparator
+        + "\tif is_datetime64_any_dtype(" + frameName + "[series_name].dtype):" + lineSeparator
+        + "\t\t" + frameName + "[series_name] = " + frameName + "[series_name].dt.strftime(\"" + DEFAULT_PYTHON_DATETIME_FORMAT + "\")" + lineSeparator + lineSeparator
+    //Export dataframe to file
+        + frameName + ".to_csv(" + target + ", index=False, na_rep=r'" + NULL_MARKER + "', date_format=\"" + DEFAULT_PYTHON_DATETIME_FORMAT + "\""
+        + (compressed ? ", compression={'method': 'gzip', 'compresslevel': 1}" : "") + ")" + lineSeparator;
+  }
+
+  /**
+   * Find the column of each output field in the header
+   *
+   * @return per output field the index of its column, -1 if the frame does not have it
+   */
+  private int[] bindColumns(String[] header) {
+    int[] columnIndexes = new int[outputFields.size()];
+    for (int i = 0; i < columnIndexes.length; i++) {
+      String name = outputFields.getValueMeta(i).getName();
+      columnIndexes[i] = Arrays.asList(header).indexOf(name);
+      if (columnIndexes[i] < 0) {
+        log.logDebug("Cannot find field " + name + " from array [" + Arrays.toString(header) + "], returning null");
+      }
+    }
+    return columnIndexes;
+  }
+
+  private IValueParser createParser(final IValueMeta field) {
+    switch (field.getType()) {
+      case IValueMeta.TYPE_STRING:
+        return (buffer, start, length) -> new String(buffer, start, length, StandardCharsets.UTF_8);
+      case IValueMeta.TYPE_INTEGER:
+        return (buffer, start, length) -> {
+          Long value = parseLong(buffer, start, length);
+          if (value != null) {
+            return value;
+          }
+          try {
+            return Long.parseLong(ascii(buffer, start, length));
+          } catch (NumberFormatException e) {
+            // pandas writes integer columns holding missing values as floats
+            return (long) parseDouble(buffer, start, length, field);
+          }
+        };
+      case IValueMeta.TYPE_NUMBER:
+        return (buffer, start, length) -> parseDouble(buffer, start, length, field);
+      case IValueMeta.TYPE_BIGNUMBER:
+        return (buffer, start, length) -> {
+          String text = ascii(buffer, start, length);
+          try {
+            return new BigDecimal(text);
+          } catch (NumberFormatException e) {
+            return convert(text, field);
+          }
+        };
+      case IValueMeta.TYPE_BOOLEAN:
+        return (buffer, start, length) -> parseBoolean(ascii(buffer, start, length));
+      case IValueMeta.TYPE_DATE:
+        return (buffer, start, length) -> {
+          LocalDateTime dateTime = parseDateTime(buffer, start, length);
+          return dateTime == null ? convert(ascii(buffer, start, length), field)
+              : Date.from(dateTime.atZone(zoneId).toInstant());
+        };
+      case IValueMeta.TYPE_TIMESTAMP:
+        return (buffer, start, length) -> {
+          LocalDateTime dateTime = parseDateTime(buffer, start, length);
+          return dateTime == null ? convert(ascii(buffer, start, length), field)
+              : Timestamp.from(dateTime.atZone(zoneId).toInstant());
+        };
+      default:
+        return (buffer, start, length) -> convert(new String(buffer, start, length, StandardCharsets.UTF_8), field);
+    }
+  }
+
+  /**
+   * @return the value of a plain integer, null if the field holds anything else
+   */
+  private static Long parseLong(byte[] buffer, int start, int length) {
+    int end = start + length;
+    boolean negative = buffer[start] == '-';
+    int i = negative || buffer[start] == '+' ? start + 1 : start;
+    if (i == end || end - i > 18) {
+      return null;
+    }
+    long value = 0;
+    for (; i < end; i++) {
+      int digit = buffer[i] - '0';
+      if (digit < 0 || digit > 9) {
+        return null;
+      }
+      value = value * 10 + digit;
+    }
+    return negative ? -value : value;
+  }
+
+  private static double parseDouble(byte[] buffer, int start, int length, IValueMeta field) throws HopException {
+    // fast path for plain decimals with up to 15 significant digits
+    int end = start + length;
+    boolean negative = buffer[start] == '-';
+    int i = negative ? start + 1 : start;
+    long mantissa = 0;
+    int digits = 0;
+    int fractionDigits = -1;
+    for (; i < end; i++) {
+      byte b = buffer[i];
+      if (b >= '0' && b <= '9') {
+        mantissa = mantissa * 10 + (b - '0');
+        digits++;
+        if (fractionDigits >= 0) {
+          fractionDigits++;
+        }
+      } else if (b == '.' && fractionDigits < 0) {
+        fractionDigits = 0;
+      } else {
+        break;
+      }
+    }
+    if (i == end && digits > 0 && digits <= 15) {
+      double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+      return negative ? -value : value;
+    }
+
+    String text = ascii(buffer, start, length);
+    switch (text) {
+      case "inf":
+        return Double.POSITIVE_INFINITY;
+      case "-inf":
+        return Double.NEGATIVE_INFINITY;
+      case "nan":
+      case "NaN":
+        return Double.NaN;
+      default:
+        try {
+          return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+          throw new HopException("Unable to convert value [" + text + "] of field " + field.getName() + " to a number");
+        }
+    }
+  }
+
+  private static boolean parseBoolean(String text) {
+    return "True".equals(text) || "1".equals(text) || "1.0".equals(text)
+        || "Y".equalsIgnoreCase(text) || "YES".equalsIgnoreCase(text) || "TRUE".equalsIgnoreCase(text);
+  }
+
+  /**
+   * Parse <code>yyyy-MM-dd[ HH:mm:ss[.fffffffff]]</code>
+   *
+   * @return the date time or null if the field has another layout
+   */
+  private static LocalDateTime parseDateTime(byte[] buffer, int start, int length) {
+    try {
+      if (length == 10 && buffer[start + 4] == '-' && buffer[start + 7] == '-') {
+        return LocalDateTime.of(digits(buffer, start, 4), digits(buffer, start + 5, 2), digits(buffer, start + 8, 2),
+            0, 0);
+      }
+      if (length >= 19 && buffer[start + 4] == '-' && buffer[start + 7] == '-' && buffer[start + 10] == ' '
+          && buffer[start + 13] == ':' && buffer[start + 16] == ':') {
+        int nanos = 0;
+        if (length > 19) {
+          int fraction = length - 20;
+          if (buffer[start + 19] != '.' || fraction < 1 || fraction > 9) {
+            return parseDateTime(ascii(buffer, start, length));
+          }
+          nanos = digits(buffer, start + 20, fraction);
+          for (int i = fraction; i < 9; i++) {
+            nanos *= 10;
+          }
+        }
+        return LocalDateTime.of(digits(buffer, start, 4), digits(buffer, start + 5, 2), digits(buffer, start + 8, 2),
+            digits(buffer, start + 11, 2), digits(buffer, start + 14, 2), digits(buffer, start + 17, 2), nanos);
+      }
+    } catch (NumberFormatException | DateTimeException e) {
+      // not in the expected layout
+    }
+    return parseDateTime(ascii(buffer, start, length));
+  }
+
+  private static LocalDateTime parseDateTime(String text) {
+    try {
+      return LocalDateTime.parse(text, DATE_TIME_FORMATTER);
+    } catch (DateTimeParseException e) {
+      return null;
+    }
+  }
+
+  private static int digits(byte[] buffer, int start, int count) {
+    int value = 0;
+    for (int i = start; i < start + count; i++) {
+      int digit = buffer[i] - '0';
+      if (digit < 0 || digit > 9) {
+        throw new NumberFormatException();
+      }
+      value = value * 10 + digit;
+    }
+    return value;
+  }
+
+  private static String ascii(byte[] buffer, int start, int length) {
+    return new String(buffer, start, length, StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * Fall back to the Hop conversion for values in any other format
+   */
+  private Object convert(String text, IValueMeta field) throws HopException {
+    return field.convertData(stringMeta, text);
+  }
+
+  /**
+   * Parses a non-empty field into the type of its output field
+   */
+  private interface IValueParser {
+    Object parse(byte[] buffer, int start, int length) throws HopException;
+  }
+}
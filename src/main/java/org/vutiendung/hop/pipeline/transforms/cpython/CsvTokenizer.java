@@ -0,0 +1,242 @@
+/*! ******************************************************************************
+ *
+ * CPython for the Hop orchestration platform
+ *
+ * http://www.project-hop.org
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.vutiendung.hop.pipeline.transforms.cpython;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Splits a CSV stream into records and fields as described in RFC 4180. Quoted fields may contain
+ * the delimiter, doubled quotes and line breaks. Records end with LF or CRLF.
+ * <p/>
+ * The bytes of the fields of the current record are kept in one reusable buffer, so reading a
+ * record creates no objects. Callers get each field as a slice of {@link #getBuffer()}.
+ */
+public class CsvTokenizer {
+
+  private static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+  private static final int FIELD_START = 0;
+  private static final int UNQUOTED = 1;
+  private static final int QUOTED = 2;
+  private static final int QUOTE_IN_QUOTED = 3;
+
+  private final ReadableByteChannel channel;
+  private final byte delimiter;
+  private final ByteBuffer input;
+  private boolean endOfInput;
+
+  private byte[] record = new byte[4096];
+  private int recordLength;
+  private int[] starts = new int[16];
+  private int[] ends = new int[16];
+  private boolean[] quoted = new boolean[16];
+  private int fieldCount;
+
+  public CsvTokenizer(ReadableByteChannel channel, char delimiter) {
+    this(channel, delimiter, DEFAULT_BUFFER_SIZE);
+  }
+
+  public CsvTokenizer(ReadableByteChannel channel, char delimiter, int bufferSize) {
+    if (delimiter > 0x7F) {
+      throw new IllegalArgumentException("The delimiter must be an ASCII character");
+    }
+    this.channel = channel;
+    this.delimiter = (byte) delimiter;
+    this.input = ByteBuffer.allocate(bufferSize);
+    this.input.flip();
+  }
+
+  /**
+   * Read the next record
+   *
+   * @return false at the end of the stream
+   */
+  public boolean next() throws IOException {
+    fieldCount = 0;
+    recordLength = 0;
+    if (!input.hasRemaining() && !fill()) {
+      return false;
+    }
+
+    int state = FIELD_START;
+    int fieldStart = 0;
+    boolean fieldQuoted = false;
+    boolean pendingCarriageReturn = false;
+
+    while (input.hasRemaining() || fill()) {
+      byte b = input.get();
+
+      if (pendingCarriageReturn) {
+        pendingCarriageReturn = false;
+        if (b == '\n') {
+          endField(fieldStart, fieldQuoted);
+          return true;
+        }
+        append((byte) '\r');
+      }
+
+      switch (state) {
+        case QUOTED:
+          if (b == '"') {
+            state = QUOTE_IN_QUOTED;
+          } else {
+            append(b);
+          }
+          continue;
+        case QUOTE_IN_QUOTED:
+          if (b == '"') {
+            append(b);
+            state = QUOTED;
+            continue;
+          }
+          // the closing quote, whatever follows is handled as unquoted content
+          state = UNQUOTED;
+          break;
+        case FIELD_START:
+          if (b == '"') {
+            fieldQuoted = true;
+            state = QUOTED;
+            continue;
+          }
+          state = UNQUOTED;
+          break;
+        default:
+          break;
+      }
+
+      if (b == delimiter) {
+        endField(fieldStart, fieldQuoted);
+        fieldStart = recordLength;
+        fieldQuoted = false;
+        state = FIELD_START;
+      } else if (b == '\n') {
+        endField(fieldStart, fieldQuoted);
+        return true;
+      } else if (b == '\r') {
+        pendingCarriageReturn = true;
+      } else {
+        append(b);
+      }
+    }
+
+    // last record without a line break
+    if (pendingCarriageReturn) {
+      append((byte) '\r');
+    }
+    endField(fieldStart, fieldQuoted);
+    return true;
+  }
+
+  /**
+   * @return the number of fields of the current record
+   */
+  public int getFieldCount() {
+    return fieldCount;
+  }
+
+  /**
+   * @return the buffer holding the fields of the current record, valid until the next call to
+   *         {@link #next()}
+   */
+  public byte[] getBuffer() {
+    return record;
+  }
+
+  public int getFieldStart(int field) {
+    return starts[field];
+  }
+
+  public int getFieldLength(int field) {
+    return ends[field] - starts[field];
+  }
+
+  /**
+   * @return true if the field was quoted in the stream
+   */
+  public boolean isQuoted(int field) {
+    return quoted[field];
+  }
+
+  /**
+   * @return the field decoded as UTF-8
+   */
+  public String getString(int field) {
+    return new String(record, starts[field], ends[field] - starts[field], StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Check if a field holds exactly the given ASCII text and was not quoted
+   */
+  public boolean isUnquoted(int field, byte[] text) {
+    if (quoted[field] || getFieldLength(field) != text.length) {
+      return false;
+    }
+    int start = starts[field];
+    for (int i = 0; i < text.length; i++) {
+      if (record[start + i] != text[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void append(byte b) {
+    if (recordLength == record.length) {
+      record = Arrays.copyOf(record, record.length * 2);
+    }
+    record[recordLength++] = b;
+  }
+
+  private void endField(int start, boolean fieldQuoted) {
+    if (fieldCount == starts.length) {
+      starts = Arrays.copyOf(starts, fieldCount * 2);
+      ends = Arrays.copyOf(ends, fieldCount * 2);
+      quoted = Arrays.copyOf(quoted, fieldCount * 2);
+    }
+    starts[fieldCount] = start;
+    ends[fieldCount] = recordLength;
+    quoted[fieldCount] = fieldQuoted;
+    fieldCount++;
+  }
+
+  private boolean fill() throws IOException {
+    if (endOfInput) {
+      return false;
+    }
+    input.clear();
+    int read;
+    do {
+      read = channel.read(input);
+    } while (read == 0);
+    input.flip();
+    if (read < 0) {
+      endOfInput = true;
+      return false;
+    }
+    return true;
+  }
+}
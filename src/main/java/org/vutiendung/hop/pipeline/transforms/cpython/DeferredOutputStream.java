@@ -0,0 +1,113 @@
+/*! ******************************************************************************
+ *
+ * CPython for the Hop orchestration platform
+ *
+ * http://www.project-hop.org
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.vutiendung.hop.pipeline.transforms.cpython;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream whose target is not available yet, for example a frame of a python worker that
+ * is still starting. Data is kept in memory until the target is ready and then written through. If
+ * more than the given limit is pending the stream waits for the target instead of buffering more.
+ */
+public class DeferredOutputStream extends OutputStream {
+
+  /**
+   * Provides the target of a deferred stream
+   */
+  public interface ITargetProvider {
+
+    /**
+     * @return true if {@link #open()} would not block
+     */
+    boolean isReady();
+
+    /**
+     * Open the target, waiting for it if needed
+     *
+     * @return the target stream
+     * @throws IOException if the target can not be opened
+     */
+    OutputStream open() throws IOException;
+  }
+
+  private final ITargetProvider provider;
+  private final int maxPendingBytes;
+
+  private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+  private OutputStream target;
+
+  public DeferredOutputStream(ITargetProvider provider, int maxPendingBytes) {
+    this.provider = provider;
+    this.maxPendingBytes = maxPendingBytes;
+  }
+
+  @Override public void write(int b) throws IOException {
+    if (target == null && !switchToTarget(1)) {
+      pending.write(b);
+      return;
+    }
+    target.write(b);
+  }
+
+  @Override public void write(byte[] b, int off, int len) throws IOException {
+    if (target == null && !switchToTarget(len)) {
+      pending.write(b, off, len);
+      return;
+    }
+    target.write(b, off, len);
+  }
+
+  @Override public void flush() throws IOException {
+    if (target != null) {
+      target.flush();
+    }
+  }
+
+  @Override public void close() throws IOException {
+    if (target == null) {
+      openTarget();
+    }
+    target.close();
+  }
+
+  /**
+   * Open the target once it is ready or when buffering more data would exceed the limit
+   *
+   * @return true if the data must be written to the target
+   */
+  private boolean switchToTarget(int length) throws IOException {
+    if (!provider.isReady() && pending.size() + length <= maxPendingBytes) {
+      return false;
+    }
+    openTarget();
+    return true;
+  }
+
+  private void openTarget() throws IOException {
+    target = provider.open();
+    pending.writeTo(target);
+    pending = null;
+  }
+}
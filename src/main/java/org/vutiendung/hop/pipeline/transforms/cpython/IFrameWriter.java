@@ -0,0 +1,56 @@
+/*! ******************************************************************************
+ *
+ * CPython for the Hop orchestration platform
+ *
+ * http://www.project-hop.org
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.vutiendung.hop.pipeline.transforms.cpython;
+
+import org.apache.hop.core.exception.HopException;
+
+/**
+ * Writes the rows of one incoming row set in the format that is read back by the generated pandas
+ * prelude. One writer is created per input frame once the row meta of the frame is known.
+ */
+public interface IFrameWriter {
+
+  /**
+   * Append a row to the frame
+   *
+   * @param row the row, laid out according to the row meta the writer was created with
+   * @throws HopException if the row can't be converted or written
+   */
+  void writeRow(Object[] row) throws HopException;
+
+  /**
+   * Flush any pending data and close the underlying stream
+   *
+   * @throws HopException if the frame can't be finished
+   */
+  void close() throws HopException;
+
+  /**
+   * Generate the python statement(s) that load the written frame into a pandas data frame
+   *
+   * @param frameName the name of the pandas data frame variable
+   * @param source python expression that evaluates to the location of the written data
+   * @return python code, terminated by a line separator
+   */
+  String getPandasReadCommand(String frameName, String source);
+}
@@ -0,0 +1,59 @@
+/*! ******************************************************************************
+ *
+ * CPython for the Hop orchestration platform
+ *
+ * http://www.project-hop.org
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.vutiendung.hop.pipeline.transforms.cpython;
+
+import java.io.InputStream;
+
+import org.apache.hop.core.exception.HopException;
+
+/**
+ * Reads the output frame written by the generated python suffix and turns it into Hop rows laid
+ * out according to the output fields of the step.
+ */
+public interface IResultReader {
+
+  /**
+   * Receives the decoded output rows
+   */
+  interface IRowConsumer {
+    void putRow(Object[] row) throws HopException;
+  }
+
+  /**
+   * Decode the result and hand every row to the consumer
+   *
+   * @param in the result data
+   * @param consumer receives one call per output row
+   * @throws HopException if the result can't be read or converted
+   */
+  void read(InputStream in, IRowConsumer consumer) throws HopException;
+
+  /**
+   * Generate the python statement(s) that write the output data frame
+   *
+   * @param frameName the name of the pandas data frame variable to write
+   * @param target python expression that evaluates to the location to write to
+   * @return python code, terminated by a line separator
+   */
+  String getPandasWriteCommand(String frameName, String target);
+}
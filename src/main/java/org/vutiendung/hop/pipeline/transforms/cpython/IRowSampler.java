@@ -0,0 +1,74 @@
+/*! ******************************************************************************
+ *
+ * CPython for the Hop orchestration platform
+ *
+ * http://www.project-hop.org
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.vutiendung.hop.pipeline.transforms.cpython;
+
+import org.apache.hop.core.exception.HopException;
+
+/**
+ * Keeps a bounded random sample of the rows of a frame. Only the sample is written to python once
+ * all rows have been offered.
+ */
+public interface IRowSampler {
+
+  /**
+   * Offer the next row of the stream
+   *
+   * @param row the row
+   * @return true if the row was taken into the sample
+   * @throws HopException if the row can't be stored
+   */
+  boolean offer(Object[] row) throws HopException;
+
+  /**
+   * Write the sampled rows to a frame, in the order they arrived
+   *
+   * @param writer the writer of the frame
+   * @throws HopException if a row can't be read back or written
+   */
+  void writeTo(IFrameWriter writer) throws HopException;
+
+  /**
+   * @return the position in the stream of every sampled row, in the order they are written
+   */
+  long[] getPositions();
+
+  /**
+   * @return the number of rows in the sample
+   */
+  int size();
+
+  /**
+   * @return the number of rows offered
+   */
+  long getRowsSeen();
+
+  /**
+   * @return the approximate number of bytes of memory used by the sampled rows
+   */
+  long getSizeInBytes();
+
+  /**
+   * Release the sampled rows
+   */
+  void clear();
+}
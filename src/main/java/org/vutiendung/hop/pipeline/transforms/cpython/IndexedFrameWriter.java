@@ -0,0 +1,69 @@
+/*! ******************************************************************************
+ *
+ * CPython for the Hop orchestration platform
+ *
+ * http://www.project-hop.org
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.vutiendung.hop.pipeline.transforms.cpython;
+
+import org.apache.hop.core.exception.HopException;
+
+/**
+ * Writes the rows of the first frame and names its index {@link RowStore#INDEX_COLUMN}. The index
+ * becomes a column of the output frame when its index is reset, so every result row tells which
+ * row of the frame it was computed from. The rows can also be kept in a {@link RowStore} to join
+ * the result rows with them by position.
+ */
+public class IndexedFrameWriter implements IFrameWriter {
+
+  private final IFrameWriter writer;
+  private final RowStore store;
+  private final String lineSeparator;
+
+  /**
+   * @param writer writes the rows to python
+   * @param store keeps the rows on the java side, null when only the index is needed
+   * @param lineSeparator the line separator of the generated python code
+   */
+  public IndexedFrameWriter(IFrameWriter writer, RowStore store, String lineSeparator) {
+    this.writer = writer;
+    this.store = store;
+    this.lineSeparator = lineSeparator;
+  }
+
+  @Override public void writeRow(Object[] row) throws HopException {
+    if (store != null) {
+      store.add(row);
+    }
+    writer.writeRow(row);
+  }
+
+  @Override public void close() throws HopException {
+    writer.close();
+  }
+
+  @Override public String getPandasReadCommand(String frameName, String source) {
+    return writer.getPandasReadCommand(frameName, source)
+        + frameName + ".index.name = '" + RowStore.INDEX_COLUMN + "'" + lineSeparator;
+  }
+
+  public RowStore getStore() {
+    return store;
+  }
+}
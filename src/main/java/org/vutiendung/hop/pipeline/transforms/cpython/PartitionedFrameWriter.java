@@ -0,0 +1,165 @@
+/*! ******************************************************************************
+ *
+ * CPython for the Hop orchestration platform
+ *
+ * http://www.project-hop.org
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.vutiendung.hop.pipeline.transforms.cpython;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hop.core.exception.HopException;
+import org.apache.hop.core.row.IRowMeta;
+
+/**
+ * Splits the rows of a frame into partitions on the hash of key fields, so all rows with the same
+ * key end up in the same partition. Every partition is a complete frame of its own, spilled to a
+ * temporary file until it is sent to the python worker that executes it.
+ */
+public class PartitionedFrameWriter implements IFrameWriter {
+
+  /**
+   * Creates the writer of a partition
+   */
+  public interface IWriterFactory {
+    IFrameWriter create(OutputStream out) throws HopException;
+  }
+
+  private final IRowMeta rowMeta;
+  private final int[] keyIndexes;
+  private final Path[] files;
+  private final IFrameWriter[] writers;
+  private final long[] rowCounts;
+
+  /**
+   * Per partition the position in the frame of each of its rows
+   */
+  private final long[][] positions;
+  private long rowsWritten;
+  private final SpillManager spill;
+
+  /**
+   * @param rowMeta the row meta of the frame
+   * @param keyFields the fields the rows are partitioned on
+   * @param partitions the number of partitions
+   * @param spill where the partitions are spilled to
+   * @param extension extension of the spill files
+   * @param factory creates the writer of each partition
+   * @throws HopException if a key field does not exist or a spill file can not be created
+   */
+  public PartitionedFrameWriter(IRowMeta rowMeta, List<String> keyFields, int partitions, SpillManager spill,
+      String extension, IWriterFactory factory) throws HopException {
+    this.rowMeta = rowMeta;
+    this.spill = spill;
+    this.keyIndexes = new int[keyFields.size()];
+    for (int i = 0; i < keyIndexes.length; i++) {
+      keyIndexes[i] = rowMeta.indexOfValue(keyFields.get(i));
+      if (keyIndexes[i] < 0) {
+        throw new HopException("The partition field [" + keyFields.get(i) + "] does not exist in the first frame");
+      }
+    }
+
+    files = new Path[partitions];
+    writers = new IFrameWriter[partitions];
+    rowCounts = new long[partitions];
+    positions = new long[partitions][1024];
+    try {
+      for (int i = 0; i < partitions; i++) {
+        files[i] = spill.newFile("_partition" + i + extension);
+        writers[i] = factory.create(new BufferedOutputStream(spill.create(files[i])));
+      }
+    } catch (IOException e) {
+      delete();
+      throw new HopException("There is an error when creating the partition files: " + e.getMessage(), e);
+    }
+  }
+
+  @Override public void writeRow(Object[] row) throws HopException {
+    int partition = getPartition(row);
+    writers[partition].writeRow(row);
+    int count = (int) rowCounts[partition];
+    if (count == positions[partition].length) {
+      positions[partition] = Arrays.copyOf(positions[partition], count * 2);
+    }
+    positions[partition][count] = rowsWritten++;
+    rowCounts[partition]++;
+  }
+
+  @Override public void close() throws HopException {
+    for (IFrameWriter writer : writers) {
+      writer.close();
+    }
+  }
+
+  /**
+   * Every partition is read with the same command, only the source differs
+   */
+  @Override public String getPandasReadCommand(String frameName, String source) {
+    return writers[0].getPandasReadCommand(frameName, source);
+  }
+
+  public int getPartitionCount() {
+    return writers.length;
+  }
+
+  /**
+   * @return the file a partition is spilled to, complete once the writer is closed
+   */
+  public Path getFile(int partition) {
+    return files[partition];
+  }
+
+  public long getRowCount(int partition) {
+    return rowCounts[partition];
+  }
+
+  /**
+   * @param index the position of a row in its partition
+   * @return the position of the row in the frame, -1 if the partition has no such row
+   */
+  public long getPosition(int partition, long index) {
+    return index >= 0 && index < rowCounts[partition] ? positions[partition][(int) index] : -1;
+  }
+
+  /**
+   * Delete the spill files
+   */
+  public void delete() {
+    for (Path file : files) {
+      if (file != null) {
+        spill.delete(file);
+      }
+    }
+  }
+
+  private int getPartition(Object[] row) throws HopException {
+    int hash = 1;
+    for (int keyIndex : keyIndexes) {
+      hash = 31 * hash + rowMeta.getValueMeta(keyIndex).hashCode(row[keyIndex]);
+    }
+    // spread the bits, the hashes of small numbers are close to each other
+    hash ^= hash >>> 16;
+    return Math.floorMod(hash * 0x9E3779B1, writers.length);
+  }
+}
@@ -0,0 +1,276 @@
+/*! ******************************************************************************
+ *
+ * CPython for the Hop orchestration platform
+ *
+ * http://www.project-hop.org
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.vutiendung.hop.pipeline.transforms.cpython;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import org.apache.hop.core.Const;
+import org.apache.hop.core.exception.HopException;
+import org.apache.hop.core.logging.ILogChannel;
+import org.apache.hop.core.util.Utils;
+
+/**
+ * Creates and reuses the virtual environments the scripts run in. An environment is identified by
+ * a hash of the requirements and the version of the base interpreter, so the libraries are only
+ * installed the first time a given set of requirements is used. Later runs only check a marker
+ * file.
+ * <p/>
+ * Environments are created with <code>--system-site-packages</code> so libraries installed in the
+ * base interpreter stay available. Creation is guarded by a lock file in the cache directory, so
+ * pipelines in other JVMs do not build the same environment at the same time.
+ */
+public class PythonEnvironmentManager {
+
+  /**
+   * Written into an environment once all requirements are installed
+   */
+  protected static final String READY_MARKER = ".hop-ready";
+
+  private static final PythonEnvironmentManager INSTANCE = new PythonEnvironmentManager();
+
+  /**
+   * Version string per base interpreter, so the interpreter is only queried once per JVM
+   */
+  private final Map<String, String> interpreterVersions = new ConcurrentHashMap<>();
+
+  /**
+   * Environments known to be ready, by directory
+   */
+  private final Map<String, Boolean> readyEnvironments = new ConcurrentHashMap<>();
+
+  /**
+   * Guards the creation of an environment inside this JVM, file locks are held per JVM
+   */
+  private final Map<String, Object> environmentLocks = new ConcurrentHashMap<>();
+
+  public static PythonEnvironmentManager getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * @return the directory environments are kept in when none is configured
+   */
+  public static String getDefaultCacheDirectory() {
+    return Paths.get(System.getProperty("user.home"), ".hop", "cpython", "venvs").toString();
+  }
+
+  /**
+   * Get the interpreter of an environment that has the given requirements installed, creating the
+   * environment if needed
+   *
+   * @param baseExecutable the python executable the environment is based on
+   * @param pathEntries optional entries prepended to the PATH of the processes
+   * @param requirements the content of a pip requirements file, when empty the base executable is
+   *          returned
+   * @param cacheDirectory where the environments are kept, the default is used when empty
+   * @param wheelhouse optional directory of wheels, when set pip installs from it without using the
+   *          network
+   * @param log where the output of pip is logged
+   * @return the python executable to run the scripts with
+   * @throws HopException if the environment can not be created
+   */
+  public String getInterpreter(String baseExecutable, String pathEntries, String requirements,
+      String cacheDirectory, String wheelhouse, ILogChannel log) throws HopException {
+    String normalizedRequirements = normalizeRequirements(requirements);
+    if (normalizedRequirements.isEmpty()) {
+      log.logBasic("There is no config library, we will ignore this step.");
+      return baseExecutable;
+    }
+
+    String version = getInterpreterVersion(baseExecutable, pathEntries);
+    String hash = sha256(version + "\n" + Const.NVL(wheelhouse, "") + "\n" + normalizedRequirements);
+    Path environmentDir = Paths.get(Utils.isEmpty(cacheDirectory) ? getDefaultCacheDirectory() : cacheDirectory,
+        hash.substring(0, 16));
+    String interpreter = getEnvironmentInterpreter(environmentDir);
+
+    if (readyEnvironments.containsKey(environmentDir.toString())
+        || Files.exists(environmentDir.resolve(READY_MARKER))) {
+      readyEnvironments.put(environmentDir.toString(), Boolean.TRUE);
+      log.logDetailed("Using python environment " + environmentDir);
+      return interpreter;
+    }
+
+    Object jvmLock = environmentLocks.computeIfAbsent(environmentDir.toString(), k -> new Object());
+    synchronized (jvmLock) {
+      try {
+        Files.createDirectories(environmentDir.getParent());
+        Path lockFile = environmentDir.getParent().resolve(environmentDir.getFileName() + ".lock");
+        try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock lock = channel.lock()) {
+          // another pipeline might have finished it while we waited for the lock
+          if (!Files.exists(environmentDir.resolve(READY_MARKER))) {
+            createEnvironment(baseExecutable, pathEntries, normalizedRequirements, environmentDir, interpreter,
+                wheelhouse, log);
+          }
+        }
+      } catch (IOException e) {
+        throw new HopException("Unable to prepare the python environment " + environmentDir + ": " + e.getMessage(), e);
+      }
+    }
+
+    readyEnvironments.put(environmentDir.toString(), Boolean.TRUE);
+    return interpreter;
+  }
+
+  private void createEnvironment(String baseExecutable, String pathEntries, String requirements,
+      Path environmentDir, String interpreter, String wheelhouse, ILogChannel log) throws HopException, IOException {
+    log.logBasic("Creating python environment " + environmentDir);
+
+    // left over from an interrupted installation
+    if (Files.exists(environmentDir)) {
+      deleteDirectory(environmentDir);
+    }
+
+    runCommand(new String[] {baseExecutable, "-m", "venv", "--system-site-packages", environmentDir.toString()},
+        pathEntries, log);
+
+    Path requirementsFile = environmentDir.resolve("requirements.txt");
+    Files.write(requirementsFile, requirements.getBytes(StandardCharsets.UTF_8));
+
+    log.logBasic("Installing python library");
+    List<String> pip = new ArrayList<>();
+    pip.add(interpreter);
+    pip.add("-m");
+    pip.add("pip");
+    pip.add("install");
+    pip.add("--disable-pip-version-check");
+    if (!Utils.isEmpty(wheelhouse)) {
+      pip.add("--no-index");
+      pip.add("--find-links");
+      pip.add(wheelhouse);
+    }
+    pip.add("-r");
+    pip.add(requirementsFile.toString());
+    runCommand(pip.toArray(new String[0]), pathEntries, log);
+
+    Files.write(environmentDir.resolve(READY_MARKER), new byte[0]);
+  }
+
+  private String getInterpreterVersion(String baseExecutable, String pathEntries) throws HopException {
+    String key = baseExecutable + "\n" + Const.NVL(pathEntries, "");
+    String version = interpreterVersions.get(key);
+    if (version == null) {
+      version = runCommand(new String[] {baseExecutable, "-c",
+          "import sys;print(sys.version);print(sys.executable)"}, pathEntries, null);
+      interpreterVersions.put(key, version);
+    }
+    return version;
+  }
+
+  /**
+   * Run a command and return its output
+   *
+   * @param log where each line of output is logged, may be null
+   */
+  private String runCommand(String[] command, String pathEntries, ILogChannel log) throws HopException {
+    ProcessBuilder processBuilder = new ProcessBuilder(command);
+    processBuilder.redirectErrorStream(true);
+    PythonWorker.prependPathEntries(processBuilder, pathEntries);
+
+    try {
+      Process process = processBuilder.start();
+      StringBuilder output = new StringBuilder();
+      try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          output.append(line).append('\n');
+          if (log != null) {
+            log.logBasic("Command output: " + line);
+          }
+        }
+      }
+
+      int exitCode = process.waitFor();
+      if (exitCode != 0) {
+        throw new HopException("Command " + String.join(" ", command) + " failed with return code " + exitCode
+            + (log == null ? ": " + output : ""));
+      }
+      return output.toString();
+    } catch (IOException e) {
+      throw new HopException("Unable to run " + command[0] + ": " + e.getMessage(), e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new HopException("Interrupted while running " + command[0], e);
+    }
+  }
+
+  private static String getEnvironmentInterpreter(Path environmentDir) {
+    if (Const.getSystemOs().startsWith("Windows")) {
+      return environmentDir.resolve("Scripts").resolve("python.exe").toString();
+    }
+    return environmentDir.resolve("bin").resolve("python").toString();
+  }
+
+  /**
+   * Trim the lines and drop blank ones, so formatting changes do not create a new environment
+   */
+  private static String normalizeRequirements(String requirements) {
+    if (requirements == null) {
+      return "";
+    }
+    StringBuilder normalized = new StringBuilder();
+    for (String line : requirements.split("\\r?\\n")) {
+      if (!line.trim().isEmpty()) {
+        normalized.append(line.trim()).append('\n');
+      }
+    }
+    return normalized.toString();
+  }
+
+  private static String sha256(String value) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+      StringBuilder hex = new StringBuilder();
+      for (byte b : digest) {
+        hex.append(String.format("%02x", b));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void deleteDirectory(Path directory) throws IOException {
+    try (Stream<Path> paths = Files.walk(directory)) {
+      paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+  }
+}
@@ -0,0 +1,561 @@
+/*! ******************************************************************************
+ *
+ * CPython for the Hop orchestration platform
+ *
+ * http://www.project-hop.org
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.vutiendung.hop.pipeline.transforms.cpython;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hop.core.exception.HopException;
+import org.apache.hop.core.logging.ILogChannel;
+import org.apache.hop.core.util.Utils;
+
+/**
+ * A python process running <code>hop_cpython_worker.py</code>. Frames are streamed to the
+ * process over its stdin as they are written and the result comes back on its stdout, so nothing
+ * touches the disk. Output of the user's script is redirected to stderr by the worker and logged.
+ * <p/>
+ * The worker script itself is sent over stdin when the process starts, it is never written to a
+ * file. The process stays alive until {@link #close()} is called, so it can be reused by several
+ * pipeline runs through {@link PythonWorkerRegistry}.
+ */
+public class PythonWorker {
+
+  protected static final String WORKER_SCRIPT_RESOURCE = "/hop_cpython_worker.py";
+
+  protected static final byte OP_FRAME_CHUNK = 'F';
+  protected static final byte OP_EXECUTE = 'X';
+  protected static final byte OP_PING = 'P';
+  protected static final byte OP_QUIT = 'Q';
+  protected static final byte OP_PREPARE_ROWS = 'C';
+  protected static final byte OP_ROW = 'W';
+  protected static final byte OP_RESIDENT_FRAME = 'K';
+  protected static final byte OP_INIT = 'I';
+  protected static final byte OP_DISCARD_FRAMES = 'Z';
+
+  protected static final byte RESPONSE_RESULT_CHUNK = 'R';
+  protected static final byte RESPONSE_DONE = 'D';
+  protected static final byte RESPONSE_ERROR = 'E';
+
+  /**
+   * Size of the frame chunks sent to the worker
+   */
+  protected static final int FRAME_CHUNK_SIZE = 1024 * 1024;
+
+  /**
+   * Reads the length-prefixed worker script from stdin and runs it
+   */
+  private static final String BOOTSTRAP =
+      "import sys;exec(sys.stdin.buffer.read(int(sys.stdin.buffer.readline())))";
+
+  /**
+   * How long to wait for the process to exit after it was asked to quit
+   */
+  private static final long QUIT_TIMEOUT_SECONDS = 5;
+
+  private final String pythonExecutable;
+  private final String pathEntries;
+  private final Process process;
+  private final DataOutputStream requests;
+  private final DataInputStream responses;
+
+  private volatile ILogChannel log;
+
+  /**
+   * True while frames or a script were sent and the result was not read completely
+   */
+  private volatile boolean busy;
+
+  /**
+   * True once the protocol failed, the worker can not be reused
+   */
+  private volatile boolean broken;
+
+  /**
+   * Key of the content of every resident frame the process keeps, by frame name, and the keys
+   * announced for the next execution, kept once it succeeds
+   */
+  private final Map<String, String> residentFrames = new HashMap<>();
+  private final Map<String, String> pendingResidentFrames = new HashMap<>();
+
+  /**
+   * Start a worker
+   *
+   * @param pythonExecutable the python executable to run
+   * @param pathEntries optional entries prepended to the PATH of the process, may be empty
+   * @param log where the output of the scripts is logged
+   * @throws HopException if the process can not be started
+   */
+  public PythonWorker(String pythonExecutable, String pathEntries, ILogChannel log) throws HopException {
+    this.pythonExecutable = pythonExecutable;
+    this.pathEntries = pathEntries;
+    this.log = log;
+
+    byte[] workerScript = loadWorkerScript();
+    try {
+      ProcessBuilder processBuilder = new ProcessBuilder(pythonExecutable, "-u", "-c", BOOTSTRAP);
+      prependPathEntries(processBuilder, pathEntries);
+      process = processBuilder.start();
+    } catch (IOException e) {
+      throw new HopException("Unable to start python (" + pythonExecutable + "): " + e.getMessage(), e);
+    }
+
+    requests = new DataOutputStream(new BufferedOutputStream(process.getOutputStream(), 64 * 1024));
+    responses = new DataInputStream(new BufferedInputStream(process.getInputStream(), 64 * 1024));
+    startLogPump();
+
+    try {
+      requests.write((workerScript.length + "\n").getBytes(StandardCharsets.US_ASCII));
+      requests.write(workerScript);
+      requests.flush();
+    } catch (IOException e) {
+      close();
+      throw new HopException("Unable to start the python worker: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Prepend the given entries to the PATH of a process
+   *
+   * @param processBuilder the process to configure
+   * @param pathEntries entries separated by the platform path separator, may be empty
+   */
+  public static void prependPathEntries(ProcessBuilder processBuilder, String pathEntries) {
+    if (Utils.isEmpty(pathEntries) || "default".equalsIgnoreCase(pathEntries.trim())) {
+      return;
+    }
+
+    Map<String, String> environment = processBuilder.environment();
+    String pathVariable = "PATH";
+    for (String name : environment.keySet()) {
+      if (name.equalsIgnoreCase("PATH")) {
+        pathVariable = name;
+      }
+    }
+    String path = environment.get(pathVariable);
+    environment.put(pathVariable, pathEntries.trim() + (Utils.isEmpty(path) ? "" : File.pathSeparator + path));
+  }
+
+  public String getPythonExecutable() {
+    return pythonExecutable;
+  }
+
+  public String getPathEntries() {
+    return pathEntries;
+  }
+
+  /**
+   * Set where the output of the scripts is logged, used when the worker is handed to another
+   * transform
+   *
+   * @param log the log channel
+   */
+  public void setLogChannel(ILogChannel log) {
+    this.log = log;
+  }
+
+  /**
+   * Check that the process is alive and answers requests
+   *
+   * @return true if the worker can be used
+   */
+  public boolean ping() {
+    if (!isReusable()) {
+      return false;
+    }
+    try {
+      sendMessage(OP_PING, null, new byte[0], 0, 0);
+      requests.flush();
+      byte type = responses.readByte();
+      int length = responses.readInt();
+      return type == RESPONSE_DONE && length == 0;
+    } catch (IOException e) {
+      broken = true;
+      return false;
+    }
+  }
+
+  /**
+   * @return true if the process is alive and no request is in progress
+   */
+  public boolean isReusable() {
+    return !broken && !busy && process.isAlive();
+  }
+
+  /**
+   * Open a stream for one input frame. Data written to it is sent to the worker in chunks. All
+   * frames must be closed before {@link #execute(String)} is called.
+   *
+   * @param frameIndex the index of the frame, the script reads it as <code>_hop_frames[index]</code>
+   * @return the stream to write the frame to
+   */
+  public OutputStream openFrame(int frameIndex) {
+    return new FrameOutputStream(frameIndex);
+  }
+
+  /**
+   * @param frameName the name of a resident frame
+   * @return the key of the content of the frame the process keeps, null when it has none
+   */
+  public synchronized String getResidentFrameKey(String frameName) {
+    return residentFrames.get(frameName);
+  }
+
+  /**
+   * Announce the content a resident frame of the next execution has. The script reads the frame
+   * only when the process keeps another content, so the frame must be sent unless
+   * {@link #getResidentFrameKey} returns the same key.
+   *
+   * @param frameIndex the index of the frame
+   * @param frameName the name of the frame
+   * @param key the key of the content of the frame
+   */
+  public void useResidentFrame(int frameIndex, String frameName, String key) throws HopException {
+    byte[] payload = key.getBytes(StandardCharsets.UTF_8);
+    try {
+      sendMessage(OP_RESIDENT_FRAME, frameIndex, payload, 0, payload.length);
+    } catch (IOException e) {
+      throw new HopException("Error while communicating with the python worker: " + e.getMessage(), e);
+    }
+    synchronized (this) {
+      pendingResidentFrames.put(frameName, key);
+    }
+  }
+
+  /**
+   * Run a script over the frames sent so far. The script must write its result to
+   * <code>_hop_result</code>.
+   *
+   * @param script the full script to run
+   * @return the result written by the script, must be closed once read
+   * @throws HopException if the script fails
+   */
+  public InputStream execute(String script) throws HopException {
+    byte[] payload = script.getBytes(StandardCharsets.UTF_8);
+    return request(OP_EXECUTE, payload, payload.length);
+  }
+
+  /**
+   * Run the init section of the script unless the process ran the same one already. The globals it
+   * defines are available to every script that runs afterwards.
+   *
+   * @param key identifies the init code and everything it depends on
+   * @param code the init code
+   * @return true when the init code ran, false when the globals of an earlier run are used
+   * @throws HopException if the init code fails
+   */
+  public boolean init(String key, String code) throws HopException {
+    ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    byte[] codeBytes = code.getBytes(StandardCharsets.UTF_8);
+    payload.write(keyBytes, 0, keyBytes.length);
+    payload.write(0);
+    payload.write(codeBytes, 0, codeBytes.length);
+    try (InputStream result = request(OP_INIT, payload.toByteArray(), payload.size())) {
+      return result.read() == '1';
+    } catch (IOException e) {
+      throw new HopException("Error while communicating with the python worker: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Drop the frames sent since the last execution, for example when the result of the batch is
+   * replayed from the result cache, so they do not end up in the frames of the next execution
+   *
+   * @throws HopException if the worker does not respond
+   */
+  public void discardFrames() throws HopException {
+    try (InputStream result = request(OP_DISCARD_FRAMES, new byte[0], 0)) {
+      // nothing is returned
+    } catch (IOException e) {
+      throw new HopException("Error while communicating with the python worker: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Prepare row by row mode: run the setup code over the frames sent so far and compile the
+   * script that is run for every row
+   *
+   * @param program the encoded program, see {@link RowCodec#encodeProgram}
+   * @throws HopException if the setup code fails or the script does not compile
+   */
+  public void prepareRows(byte[] program) throws HopException {
+    try (InputStream result = request(OP_PREPARE_ROWS, program, program.length)) {
+      // nothing is returned
+    } catch (IOException e) {
+      throw new HopException("Error while communicating with the python worker: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Run the prepared script for one row
+   *
+   * @param row the encoded row
+   * @param length number of bytes of the row
+   * @return the encoded result rows, must be closed once read
+   * @throws HopException if the script fails
+   */
+  public InputStream processRow(byte[] row, int length) throws HopException {
+    return request(OP_ROW, row, length);
+  }
+
+  private InputStream request(byte opcode, byte[] payload, int length) throws HopException {
+    try {
+      busy = true;
+      sendMessage(opcode, null, payload, 0, length);
+      requests.flush();
+
+      ResultInputStream result = new ResultInputStream();
+      try {
+        result.nextChunk();
+      } finally {
+        if (opcode == OP_EXECUTE || opcode == OP_PREPARE_ROWS || opcode == OP_DISCARD_FRAMES
+            || (opcode == OP_INIT && result.failed)) {
+          synchronized (this) {
+            //the script ran without errors when the first chunk of its result arrived, discarded
+            //frames were never read and a failed init section drops the frames sent before it
+            if (!broken && !result.failed && opcode != OP_DISCARD_FRAMES && opcode != OP_INIT) {
+              residentFrames.putAll(pendingResidentFrames);
+            }
+            pendingResidentFrames.clear();
+          }
+        }
+      }
+      return result;
+    } catch (IOException e) {
+      broken = true;
+      throw new HopException("Error while communicating with the python worker: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Ask the worker to quit and wait for it to exit
+   */
+  public void close() {
+    try {
+      if (!busy && !broken) {
+        sendMessage(OP_QUIT, null, new byte[0], 0, 0);
+      }
+      requests.close();
+    } catch (IOException e) {
+      // the process might be gone already
+    }
+
+    try {
+      if (!process.waitFor(QUIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        process.destroy();
+      }
+      logBasic("Return code of command: " + process.waitFor());
+    } catch (InterruptedException e) {
+      process.destroy();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private synchronized void sendMessage(byte opcode, Integer frameIndex, byte[] payload, int offset, int length)
+      throws IOException {
+    if (opcode == OP_FRAME_CHUNK) {
+      busy = true;
+    }
+    try {
+      requests.writeByte(opcode);
+      if (frameIndex == null) {
+        requests.writeInt(length);
+      } else {
+        requests.writeInt(length + 2);
+        requests.writeShort(frameIndex);
+      }
+      requests.write(payload, offset, length);
+    } catch (IOException e) {
+      broken = true;
+      throw e;
+    }
+  }
+
+  private void startLogPump() {
+    Thread pump = new Thread(() -> {
+      try (BufferedReader reader = new BufferedReader(
+          new InputStreamReader(process.getErrorStream(), StandardCharsets.UTF_8))) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          logBasic("Command output: " + line);
+        }
+      } catch (IOException e) {
+        // process ended
+      }
+    }, "python-worker-log");
+    pump.setDaemon(true);
+    pump.start();
+  }
+
+  private void logBasic(String message) {
+    if (log != null) {
+      log.logBasic(message);
+    }
+  }
+
+  private static byte[] loadWorkerScript() throws HopException {
+    try (InputStream in = PythonWorker.class.getResourceAsStream(WORKER_SCRIPT_RESOURCE)) {
+      if (in == null) {
+        throw new HopException("Unable to find the python worker script " + WORKER_SCRIPT_RESOURCE);
+      }
+      ByteArrayOutputStream script = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        script.write(buffer, 0, read);
+      }
+      return script.toByteArray();
+    } catch (IOException e) {
+      throw new HopException("Unable to load the python worker script: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Buffers frame data and sends it to the worker one chunk at a time
+   */
+  private class FrameOutputStream extends OutputStream {
+    private final int frameIndex;
+    private final byte[] buffer = new byte[FRAME_CHUNK_SIZE];
+    private int count;
+
+    FrameOutputStream(int frameIndex) {
+      this.frameIndex = frameIndex;
+    }
+
+    @Override public void write(int b) throws IOException {
+      if (count == buffer.length) {
+        flushChunk();
+      }
+      buffer[count++] = (byte) b;
+    }
+
+    @Override public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        if (count == buffer.length) {
+          flushChunk();
+        }
+        int n = Math.min(len, buffer.length - count);
+        System.arraycopy(b, off, buffer, count, n);
+        count += n;
+        off += n;
+        len -= n;
+      }
+    }
+
+    @Override public void close() throws IOException {
+      flushChunk();
+    }
+
+    private void flushChunk() throws IOException {
+      if (count > 0) {
+        sendMessage(OP_FRAME_CHUNK, frameIndex, buffer, 0, count);
+        count = 0;
+      }
+    }
+  }
+
+  /**
+   * Reads the result chunks of one execution. Closing the stream skips whatever the reader did not
+   * consume so the protocol stays in sync.
+   */
+  private class ResultInputStream extends InputStream {
+    private int remaining;
+    private boolean done;
+    private boolean failed;
+
+    void nextChunk() throws IOException, HopException {
+      byte type = responses.readByte();
+      int length = responses.readInt();
+      if (type == RESPONSE_RESULT_CHUNK) {
+        remaining = length;
+      } else if (type == RESPONSE_DONE) {
+        done = true;
+        busy = false;
+      } else if (type == RESPONSE_ERROR) {
+        byte[] message = new byte[length];
+        responses.readFully(message);
+        done = true;
+        failed = true;
+        busy = false;
+        throw new HopException("There is an error when excuting script: "
+            + new String(message, StandardCharsets.UTF_8));
+      } else {
+        broken = true;
+        throw new IOException("Unexpected response from the python worker: " + type);
+      }
+    }
+
+    private boolean fill() throws IOException {
+      while (!done && remaining == 0) {
+        try {
+          nextChunk();
+        } catch (HopException e) {
+          throw new IOException(e.getMessage(), e);
+        }
+      }
+      return !done;
+    }
+
+    @Override public int read() throws IOException {
+      if (!fill()) {
+        return -1;
+      }
+      remaining--;
+      return responses.read();
+    }
+
+    @Override public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (!fill()) {
+        return -1;
+      }
+      int read = responses.read(b, off, Math.min(len, remaining));
+      if (read < 0) {
+        throw new IOException("Unexpected end of the python worker output");
+      }
+      remaining -= read;
+      return read;
+    }
+
+    @Override public void close() throws IOException {
+      while (fill()) {
+        remaining -= (int) responses.skip(remaining);
+      }
+    }
+  }
+}
@@ -0,0 +1,228 @@
+/*! ******************************************************************************
+ *
+ * CPython for the Hop orchestration platform
+ *
+ * http://www.project-hop.org
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.vutiendung.hop.pipeline.transforms.cpython;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hop.core.Const;
+import org.apache.hop.core.exception.HopException;
+import org.apache.hop.core.logging.ILogChannel;
+import org.apache.hop.core.util.Utils;
+
+/**
+ * Keeps python workers alive between pipeline executions in the same JVM. Workers are keyed by the
+ * server ID of the transform plus the python executable and path entries, so transforms that share
+ * an ID share warm interpreters.
+ * <p/>
+ * A worker is used by one transform at a time. {@link #acquire} hands out an idle worker for the
+ * key (after a health check) or starts a new one, {@link #release} puts it back. Workers that stay
+ * idle longer than {@link #IDLE_TIMEOUT_VARIABLE} seconds are stopped.
+ */
+public class PythonWorkerRegistry {
+
+  /**
+   * System property holding the idle timeout in seconds
+   */
+  public static final String IDLE_TIMEOUT_VARIABLE = "HOP_CPYTHON_WORKER_IDLE_TIMEOUT";
+
+  public static final long DEFAULT_IDLE_TIMEOUT_SECONDS = 600;
+
+  private static final long EVICTION_INTERVAL_SECONDS = 30;
+
+  private static final PythonWorkerRegistry INSTANCE = new PythonWorkerRegistry();
+
+  private final Map<String, Deque<IdleWorker>> idleWorkers = new HashMap<>();
+  private final Map<PythonWorker, String> workerKeys = new HashMap<>();
+  private ScheduledExecutorService evictor;
+
+  public static PythonWorkerRegistry getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Get a worker for the given server. Without a server ID a new worker is started that is not kept
+   * after it is released.
+   *
+   * @param serverID the server ID of the transform, may be empty
+   * @param pythonExecutable the python executable
+   * @param pathEntries optional entries prepended to the PATH of the process
+   * @param log where the output of the scripts is logged
+   * @return a worker that is not used by anybody else
+   * @throws HopException if a new worker can not be started
+   */
+  public PythonWorker acquire(String serverID, String pythonExecutable, String pathEntries, ILogChannel log)
+      throws HopException {
+    if (Utils.isEmpty(serverID)) {
+      return new PythonWorker(pythonExecutable, pathEntries, log);
+    }
+
+    String key = serverID + "\n" + pythonExecutable + "\n" + Const.NVL(pathEntries, "");
+    PythonWorker worker;
+    while ((worker = pollIdle(key)) != null) {
+      if (worker.ping()) {
+        log.logBasic("Reusing python server [" + serverID + "]");
+        worker.setLogChannel(log);
+        return worker;
+      }
+      log.logBasic("Python server [" + serverID + "] does not respond anymore, starting a new one");
+      forget(worker);
+      worker.close();
+    }
+
+    log.logBasic("Starting python server [" + serverID + "]");
+    worker = new PythonWorker(pythonExecutable, pathEntries, log);
+    synchronized (this) {
+      workerKeys.put(worker, key);
+    }
+    return worker;
+  }
+
+  /**
+   * Give a worker back. It is kept for later use if it belongs to a server and is in a clean state,
+   * otherwise it is stopped.
+   *
+   * @param worker the worker to release
+   */
+  public void release(PythonWorker worker) {
+    worker.setLogChannel(null);
+
+    synchronized (this) {
+      String key = workerKeys.get(worker);
+      if (key != null && worker.isReusable()) {
+        idleWorkers.computeIfAbsent(key, k -> new ArrayDeque<>())
+            .push(new IdleWorker(worker, System.currentTimeMillis()));
+        startEvictor();
+        return;
+      }
+      workerKeys.remove(worker);
+    }
+    worker.close();
+  }
+
+  /**
+   * Stop the workers that were idle longer than the idle timeout
+   */
+  public void evictIdleWorkers() {
+    long deadline = System.currentTimeMillis() - getIdleTimeoutSeconds() * 1000L;
+    List<PythonWorker> expired = new ArrayList<>();
+
+    synchronized (this) {
+      Iterator<Deque<IdleWorker>> queues = idleWorkers.values().iterator();
+      while (queues.hasNext()) {
+        Deque<IdleWorker> queue = queues.next();
+        Iterator<IdleWorker> idle = queue.iterator();
+        while (idle.hasNext()) {
+          IdleWorker candidate = idle.next();
+          if (candidate.idleSince < deadline || !candidate.worker.isReusable()) {
+            idle.remove();
+            workerKeys.remove(candidate.worker);
+            expired.add(candidate.worker);
+          }
+        }
+        if (queue.isEmpty()) {
+          queues.remove();
+        }
+      }
+    }
+
+    for (PythonWorker worker : expired) {
+      worker.close();
+    }
+  }
+
+  /**
+   * Stop all idle workers
+   */
+  public void closeAll() {
+    List<PythonWorker> workers = new ArrayList<>();
+    synchronized (this) {
+      for (Deque<IdleWorker> queue : idleWorkers.values()) {
+        for (IdleWorker idle : queue) {
+          workers.add(idle.worker);
+          workerKeys.remove(idle.worker);
+        }
+      }
+      idleWorkers.clear();
+    }
+
+    for (PythonWorker worker : workers) {
+      worker.close();
+    }
+  }
+
+  private synchronized PythonWorker pollIdle(String key) {
+    Deque<IdleWorker> queue = idleWorkers.get(key);
+    if (queue == null || queue.isEmpty()) {
+      return null;
+    }
+    return queue.pop().worker;
+  }
+
+  private synchronized void forget(PythonWorker worker) {
+    workerKeys.remove(worker);
+  }
+
+  private synchronized void startEvictor() {
+    if (evictor != null) {
+      return;
+    }
+    evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "python-worker-evictor");
+      thread.setDaemon(true);
+      return thread;
+    });
+    evictor.scheduleWithFixedDelay(this::evictIdleWorkers, EVICTION_INTERVAL_SECONDS,
+        EVICTION_INTERVAL_SECONDS, TimeUnit.SECONDS);
+  }
+
+  private long getIdleTimeoutSeconds() {
+    String timeout = System.getProperty(IDLE_TIMEOUT_VARIABLE);
+    if (!Utils.isEmpty(timeout)) {
+      try {
+        return Long.parseLong(timeout.trim());
+      } catch (NumberFormatException e) {
+        // fall back to the default
+      }
+    }
+    return DEFAULT_IDLE_TIMEOUT_SECONDS;
+  }
+
+  private static class IdleWorker {
+    final PythonWorker worker;
+    final long idleSince;
+
+    IdleWorker(PythonWorker worker, long idleSince) {
+      this.worker = worker;
+      this.idleSince = idleSince;
+    }
+  }
+}
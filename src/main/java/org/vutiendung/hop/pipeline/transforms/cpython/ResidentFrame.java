@@ -0,0 +1,115 @@
+/*! ******************************************************************************
+ *
+ * CPython for the Hop orchestration platform
+ *
+ * http://www.project-hop.org
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.vutiendung.hop.pipeline.transforms.cpython;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.hop.core.exception.HopException;
+
+/**
+ * The encoded content of a frame that python workers keep loaded between executions, usually a
+ * small lookup frame that rarely changes. The key of the content is the SHA-256 hash of its bytes
+ * and of the pandas command reading it, so a frame is only sent to a worker and parsed again when
+ * either changed.
+ */
+public class ResidentFrame {
+
+  private final int index;
+  private final String name;
+  private final ByteArrayOutputStream content;
+  private final String key;
+
+  /**
+   * @param index the index of the frame
+   * @param name the name of the frame
+   * @param readCommand the pandas command reading the frame
+   * @param content the encoded frame
+   */
+  public ResidentFrame(int index, String name, String readCommand, ByteArrayOutputStream content)
+      throws HopException {
+    this.index = index;
+    this.name = name;
+    this.content = content;
+    this.key = new ResultCache.KeyBuilder().add(readCommand).add(content.toByteArray()).build();
+  }
+
+  /**
+   * Python code that reads the frame when the worker keeps another content of it and hands the
+   * script a copy of the kept frame, so changes made by the script are not kept
+   *
+   * @param readCommand the pandas command reading the frame
+   */
+  public static String getPandasReadCommand(int index, String name, String readCommand, String lineSeparator) {
+    String slot = "_hop_resident['" + name + "']";
+    String key = "_hop_resident_keys[" + index + "]";
+    StringBuilder command = new StringBuilder()
+        .append("if _hop_resident.get('").append(name).append("', (None, None))[0] != ").append(key).append(":")
+        .append(lineSeparator);
+    for (String line : readCommand.split("\\r?\\n")) {
+      if (!line.trim().isEmpty()) {
+        command.append("\t").append(line).append(lineSeparator);
+      }
+    }
+    return command
+        .append("\t").append(slot).append(" = (").append(key).append(", ").append(name).append(")").append(lineSeparator)
+        .append(name).append(" = ").append(slot).append("[1].copy()").append(lineSeparator)
+        .toString();
+  }
+
+  /**
+   * Make the frame available to the next execution on a worker, sending it only when the worker
+   * does not keep the same content already
+   *
+   * @return true when the frame was sent
+   */
+  public boolean sendTo(PythonWorker worker) throws HopException {
+    boolean send = !key.equals(worker.getResidentFrameKey(name));
+    if (send) {
+      try (OutputStream out = worker.openFrame(index)) {
+        content.writeTo(out);
+      } catch (IOException e) {
+        throw new HopException("There is an error when sending frame [" + name + "]: " + e.getMessage(), e);
+      }
+    }
+    worker.useResidentFrame(index, name, key);
+    return send;
+  }
+
+  public int getIndex() {
+    return index;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  public int size() {
+    return content.size();
+  }
+}
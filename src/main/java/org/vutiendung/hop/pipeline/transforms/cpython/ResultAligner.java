@@ -0,0 +1,116 @@
+/*! ******************************************************************************
+ *
+ * CPython for the Hop orchestration platform
+ *
+ * http://www.project-hop.org
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.vutiendung.hop.pipeline.transforms.cpython;
+
+import java.util.Arrays;
+
+import org.apache.hop.core.exception.HopException;
+import org.apache.hop.core.row.IRowMeta;
+
+/**
+ * Puts the result rows of one execution of the script back in the order of the rows of the first
+ * frame they were computed from, whatever order the script left them in. The rows are kept in a
+ * {@link RowStore} until the result is complete and are then ordered by a counting sort on their
+ * frame row index. The indexes are positions in the frame, so this takes linear time, and rows with
+ * the same index keep their order.
+ */
+public class ResultAligner implements IResultReader.IRowConsumer {
+
+  private final int indexField;
+  private final RowStore rows;
+  private int[] indexes = new int[1024];
+  private int count;
+  private int maxIndex = -1;
+
+  /**
+   * @param resultRowMeta the fields of the result rows
+   * @param indexField the field holding the frame row index
+   * @param memoryLimit the number of bytes of rows kept in memory before they are spilled
+   * @param spill where the rows are spilled to
+   */
+  public ResultAligner(IRowMeta resultRowMeta, int indexField, long memoryLimit, SpillManager spill) {
+    this.indexField = indexField;
+    this.rows = new RowStore(resultRowMeta, memoryLimit, spill);
+  }
+
+  @Override public void putRow(Object[] row) throws HopException {
+    Object index = row[indexField];
+    if (!(index instanceof Long) || (Long) index < 0 || (Long) index >= Integer.MAX_VALUE) {
+      throw new HopException("Result row " + (count + 1) + " does not have a valid frame row index [" + index
+          + "], keep the index of the first frame in the output frame");
+    }
+    if (count == indexes.length) {
+      indexes = Arrays.copyOf(indexes, count * 2);
+    }
+    indexes[count++] = ((Long) index).intValue();
+    maxIndex = Math.max(maxIndex, indexes[count - 1]);
+    rows.add(row);
+  }
+
+  /**
+   * Hand the rows to a consumer in the order of the frame, rows with the same index in the order
+   * they arrived
+   */
+  public void writeTo(IResultReader.IRowConsumer consumer) throws HopException {
+    //a count per index only pays off when the indexes are dense, a script can return any index
+    int[] order = maxIndex < 2L * count + 1024 ? countingOrder() : sortedOrder();
+    for (int i = 0; i < count; i++) {
+      consumer.putRow(rows.get(order[i]));
+    }
+  }
+
+  private int[] countingOrder() {
+    int[] starts = new int[maxIndex + 2];
+    for (int i = 0; i < count; i++) {
+      starts[indexes[i] + 1]++;
+    }
+    for (int i = 1; i < starts.length; i++) {
+      starts[i] += starts[i - 1];
+    }
+    int[] order = new int[count];
+    for (int i = 0; i < count; i++) {
+      order[starts[indexes[i]]++] = i;
+    }
+    return order;
+  }
+
+  private int[] sortedOrder() {
+    long[] keys = new long[count];
+    for (int i = 0; i < count; i++) {
+      keys[i] = ((long) indexes[i] << 32) | i;
+    }
+    Arrays.sort(keys);
+    int[] order = new int[count];
+    for (int i = 0; i < count; i++) {
+      order[i] = (int) keys[i];
+    }
+    return order;
+  }
+
+  /**
+   * Release the rows and delete the spill file
+   */
+  public void delete() {
+    rows.delete();
+  }
+}
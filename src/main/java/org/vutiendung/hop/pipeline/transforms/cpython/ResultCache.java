@@ -0,0 +1,331 @@
+/*! ******************************************************************************
+ *
+ * CPython for the Hop orchestration platform
+ *
+ * http://www.project-hop.org
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.vutiendung.hop.pipeline.transforms.cpython;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.apache.hop.core.exception.HopException;
+import org.apache.hop.core.row.IRowMeta;
+import org.apache.hop.core.row.IValueMeta;
+
+/**
+ * Keeps the results of the script in a directory, one file per result named after the SHA-256
+ * hash of everything the result depends on: the script, the libraries, the fields and the bytes
+ * of every frame. A result is replayed from its file instead of running python again.
+ * <p/>
+ * The directory is bounded in size. The time a result was last used is the modification time of
+ * its file, so when the cache grows too large the least recently used results are deleted. A
+ * result is written to a temporary file and renamed once it is complete, so executions running at
+ * the same time, in this process or another, never read a partial result.
+ */
+public class ResultCache {
+
+  private static final String EXTENSION = ".result";
+  private static final String TEMP_EXTENSION = ".tmp";
+
+  /**
+   * Evictions of the caches of all transforms using the same directory are done one at a time
+   */
+  private static final Object EVICTION_LOCK = new Object();
+
+  private final Path directory;
+  private final long maxSize;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * @param directory the directory the results are kept in, created when it does not exist
+   * @param maxSize the maximum number of bytes of all results together
+   */
+  public ResultCache(String directory, long maxSize) throws HopException {
+    this.directory = Paths.get(directory);
+    this.maxSize = maxSize;
+    try {
+      Files.createDirectories(this.directory);
+    } catch (IOException e) {
+      throw new HopException("Unable to create the result cache directory [" + directory + "]: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * @return a new digest of the algorithm used for the keys
+   */
+  public static MessageDigest newDigest() throws HopException {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new HopException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Hand a cached result to a consumer
+   *
+   * @param key the key of the result
+   * @param rowMeta the fields of the result rows
+   * @return false when the result is not cached
+   */
+  public boolean replay(String key, IRowMeta rowMeta, IResultReader.IRowConsumer consumer) throws HopException {
+    Path file = directory.resolve(key + EXTENSION);
+    InputStream in;
+    try {
+      in = new BufferedInputStream(Files.newInputStream(file), 65536);
+    } catch (IOException e) {
+      misses.incrementAndGet();
+      return false;
+    }
+
+    hits.incrementAndGet();
+    try (DataInputStream data = new DataInputStream(in)) {
+      touch(file);
+      while (data.readBoolean()) {
+        consumer.putRow(rowMeta.readData(data));
+      }
+    } catch (IOException e) {
+      throw new HopException("Unable to read the cached result " + key + ": " + e.getMessage(), e);
+    }
+    return true;
+  }
+
+  /**
+   * Start caching a result. The result rows written to the entry are passed on to the consumer.
+   *
+   * @param key the key of the result
+   * @param rowMeta the fields of the result rows
+   * @param consumer receives the result rows
+   */
+  public Entry create(String key, IRowMeta rowMeta, IResultReader.IRowConsumer consumer) {
+    return new Entry(key, rowMeta, consumer);
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Delete the least recently used results until the cache fits its maximum size. A result larger
+   * than the cache is not kept either.
+   */
+  private void evict() {
+    synchronized (EVICTION_LOCK) {
+      Map<Path, BasicFileAttributes> files = new HashMap<>();
+      long size = 0;
+      try (Stream<Path> list = Files.list(directory)) {
+        for (Path file : (Iterable<Path>) list::iterator) {
+          if (!file.getFileName().toString().endsWith(EXTENSION)) {
+            continue;
+          }
+          try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            files.put(file, attributes);
+            size += attributes.size();
+          } catch (IOException e) {
+            //deleted in the meantime
+          }
+        }
+      } catch (IOException e) {
+        return;
+      }
+
+      List<Path> leastRecentlyUsed = new ArrayList<>(files.keySet());
+      leastRecentlyUsed.sort(Comparator.comparing(file -> files.get(file).lastModifiedTime()));
+      for (Path file : leastRecentlyUsed) {
+        if (size <= maxSize) {
+          break;
+        }
+        try {
+          Files.deleteIfExists(file);
+          size -= files.get(file).size();
+        } catch (IOException e) {
+          //in use, it is deleted by a later eviction
+        }
+      }
+    }
+  }
+
+  private static void touch(Path file) {
+    try {
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException e) {
+      //only the eviction order suffers
+    }
+  }
+
+  /**
+   * A result that is being cached. Writing to the cache never fails the execution, a result that
+   * can not be written is just not cached.
+   */
+  public class Entry implements IResultReader.IRowConsumer {
+
+    private final String key;
+    private final IRowMeta rowMeta;
+    private final IResultReader.IRowConsumer consumer;
+    private final Path tempFile;
+    private DataOutputStream out;
+
+    private Entry(String key, IRowMeta rowMeta, IResultReader.IRowConsumer consumer) {
+      this.key = key;
+      this.rowMeta = rowMeta;
+      this.consumer = consumer;
+      this.tempFile = directory.resolve(key + "." + UUID.randomUUID() + TEMP_EXTENSION);
+      try {
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), 65536));
+      } catch (IOException e) {
+        out = null;
+      }
+    }
+
+    @Override public void putRow(Object[] row) throws HopException {
+      if (out != null) {
+        try {
+          out.writeBoolean(true);
+          rowMeta.writeData(out, row);
+        } catch (IOException | HopException e) {
+          discard();
+        }
+      }
+      consumer.putRow(row);
+    }
+
+    /**
+     * Keep the result once it is complete
+     *
+     * @return false when the result could not be written
+     */
+    public boolean commit() {
+      if (out == null) {
+        return false;
+      }
+      try {
+        out.writeBoolean(false);
+        out.close();
+        out = null;
+        Files.move(tempFile, directory.resolve(key + EXTENSION), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+        discard();
+        return false;
+      }
+      evict();
+      return true;
+    }
+
+    /**
+     * Drop the result, when it is incomplete. Does nothing once the result is committed
+     */
+    public void discard() {
+      if (out != null) {
+        try {
+          out.close();
+        } catch (IOException e) {
+          //deleted anyway
+        }
+        out = null;
+      }
+      try {
+        Files.deleteIfExists(tempFile);
+      } catch (IOException e) {
+        tempFile.toFile().deleteOnExit();
+      }
+    }
+  }
+
+  /**
+   * Builds the key of a result from everything it depends on. Every value is written with its
+   * length, so different values never give the same sequence of bytes.
+   */
+  public static class KeyBuilder {
+
+    private final MessageDigest digest;
+
+    public KeyBuilder() throws HopException {
+      digest = newDigest();
+    }
+
+    public KeyBuilder add(byte[] value) {
+      digest.update(intBytes(value.length));
+      digest.update(value);
+      return this;
+    }
+
+    public KeyBuilder add(String value) {
+      return add(value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Add the names, types and formats of fields
+     */
+    public KeyBuilder add(IRowMeta rowMeta) {
+      digest.update(intBytes(rowMeta.size()));
+      for (IValueMeta valueMeta : rowMeta.getValueMetaList()) {
+        add(valueMeta.getName());
+        digest.update(intBytes(valueMeta.getType()));
+        digest.update(intBytes(valueMeta.getLength()));
+        digest.update(intBytes(valueMeta.getPrecision()));
+        add(valueMeta.getConversionMask());
+      }
+      return this;
+    }
+
+    /**
+     * @return the key as a hexadecimal string, usable as a file name
+     */
+    public String build() {
+      StringBuilder key = new StringBuilder();
+      for (byte b : digest.digest()) {
+        key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      }
+      return key.toString();
+    }
+
+    private static byte[] intBytes(int value) {
+      return new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value };
+    }
+  }
+}
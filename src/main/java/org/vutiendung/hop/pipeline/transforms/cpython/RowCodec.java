@@ -0,0 +1,293 @@
+/*! ******************************************************************************
+ *
+ * CPython for the Hop orchestration platform
+ *
+ * http://www.project-hop.org
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.vutiendung.hop.pipeline.transforms.cpython;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.hop.core.exception.HopException;
+import org.apache.hop.core.row.IRowMeta;
+import org.apache.hop.core.row.IValueMeta;
+import org.apache.hop.core.row.RowDataUtil;
+import org.apache.hop.core.row.value.ValueMetaBigNumber;
+import org.apache.hop.core.row.value.ValueMetaBinary;
+import org.apache.hop.core.row.value.ValueMetaBoolean;
+import org.apache.hop.core.row.value.ValueMetaInteger;
+import org.apache.hop.core.row.value.ValueMetaNumber;
+import org.apache.hop.core.row.value.ValueMetaString;
+import org.apache.hop.core.row.value.ValueMetaTimestamp;
+
+/**
+ * Binary encoding of single rows for row by row mode, read and written by
+ * <code>hop_cpython_worker.py</code>. Every value is a one byte tag followed by the data: 8 bytes
+ * for integers, numbers and timestamps (microseconds since the epoch, local time), one byte for
+ * booleans and a 4 byte length plus the bytes for strings, big numbers and binaries. A result is a
+ * 4 byte row count followed by the rows.
+ * <p/>
+ * The encoder reuses one buffer, so encoding a row creates no garbage besides the strings.
+ */
+public class RowCodec {
+
+  protected static final byte TAG_NULL = 0;
+  protected static final byte TAG_INTEGER = 1;
+  protected static final byte TAG_NUMBER = 2;
+  protected static final byte TAG_BOOLEAN = 3;
+  protected static final byte TAG_STRING = 4;
+  protected static final byte TAG_TIMESTAMP = 5;
+  protected static final byte TAG_BIG_NUMBER = 6;
+  protected static final byte TAG_BINARY = 7;
+
+  private static final IValueMeta[] TAG_VALUE_METAS = {
+      null,
+      new ValueMetaInteger("value"),
+      new ValueMetaNumber("value"),
+      new ValueMetaBoolean("value"),
+      new ValueMetaString("value"),
+      new ValueMetaTimestamp("value"),
+      new ValueMetaBigNumber("value"),
+      new ValueMetaBinary("value") };
+
+  private final IRowMeta inputRowMeta;
+  private final IRowMeta outputRowMeta;
+  private final ZoneId zone = ZoneId.systemDefault();
+
+  private final RowBuffer buffer = new RowBuffer();
+  private final DataOutputStream out = new DataOutputStream(buffer);
+
+  /**
+   * @param inputRowMeta the fields of the rows sent to python
+   * @param outputRowMeta the fields of the result rows
+   */
+  public RowCodec(IRowMeta inputRowMeta, IRowMeta outputRowMeta) {
+    this.inputRowMeta = inputRowMeta;
+    this.outputRowMeta = outputRowMeta;
+  }
+
+  /**
+   * Encode the program of row by row mode
+   *
+   * @param setup code run once before the first row
+   * @param script code run for every row
+   * @param inputName the variable the row is assigned to, as a data frame of one row
+   * @param outputName the variable the result is read from
+   */
+  public byte[] encodeProgram(String setup, String script, String inputName, String outputName) throws HopException {
+    ByteArrayOutputStream program = new ByteArrayOutputStream();
+    try (DataOutputStream data = new DataOutputStream(program)) {
+      writeString(data, setup);
+      writeString(data, script);
+      writeString(data, inputName);
+      writeString(data, outputName);
+      data.writeInt(inputRowMeta.size());
+      for (String name : inputRowMeta.getFieldNames()) {
+        writeString(data, name);
+      }
+      data.writeInt(outputRowMeta.size());
+      for (String name : outputRowMeta.getFieldNames()) {
+        writeString(data, name);
+      }
+    } catch (IOException e) {
+      throw new HopException(e.getMessage(), e);
+    }
+    return program.toByteArray();
+  }
+
+  /**
+   * Encode a row into the internal buffer
+   *
+   * @return the number of bytes of the row in {@link #getBuffer()}
+   */
+  public int encode(Object[] row) throws HopException {
+    buffer.reset();
+    try {
+      for (int i = 0; i < inputRowMeta.size(); i++) {
+        IValueMeta valueMeta = inputRowMeta.getValueMeta(i);
+        Object value = row[i];
+        if (valueMeta.isNull(value)) {
+          out.writeByte(TAG_NULL);
+          continue;
+        }
+
+        switch (valueMeta.getType()) {
+          case IValueMeta.TYPE_INTEGER:
+            out.writeByte(TAG_INTEGER);
+            out.writeLong(valueMeta.getInteger(value));
+            break;
+          case IValueMeta.TYPE_NUMBER:
+            out.writeByte(TAG_NUMBER);
+            out.writeDouble(valueMeta.getNumber(value));
+            break;
+          case IValueMeta.TYPE_BOOLEAN:
+            out.writeByte(TAG_BOOLEAN);
+            out.writeByte(valueMeta.getBoolean(value) ? 1 : 0);
+            break;
+          case IValueMeta.TYPE_DATE:
+          case IValueMeta.TYPE_TIMESTAMP:
+            out.writeByte(TAG_TIMESTAMP);
+            out.writeLong(toMicros(valueMeta.getDate(value)));
+            break;
+          case IValueMeta.TYPE_BIGNUMBER:
+            writeBytes(TAG_BIG_NUMBER, valueMeta.getBigNumber(value).toPlainString().getBytes(StandardCharsets.US_ASCII));
+            break;
+          case IValueMeta.TYPE_BINARY:
+            writeBytes(TAG_BINARY, valueMeta.getBinary(value));
+            break;
+          default:
+            writeBytes(TAG_STRING, valueMeta.getString(value).getBytes(StandardCharsets.UTF_8));
+            break;
+        }
+      }
+    } catch (IOException e) {
+      throw new HopException(e.getMessage(), e);
+    }
+    return buffer.size();
+  }
+
+  /**
+   * @return the buffer holding the last encoded row, valid until the next call to {@link #encode}
+   */
+  public byte[] getBuffer() {
+    return buffer.getBuffer();
+  }
+
+  /**
+   * Decode the result rows of one row, converted to the output fields
+   */
+  public List<Object[]> decode(InputStream in) throws HopException {
+    try {
+      DataInputStream data = new DataInputStream(in);
+      int count = data.readInt();
+      List<Object[]> rows = new ArrayList<>(count);
+      for (int r = 0; r < count; r++) {
+        Object[] row = RowDataUtil.allocateRowData(outputRowMeta.size());
+        for (int i = 0; i < outputRowMeta.size(); i++) {
+          row[i] = readValue(data, outputRowMeta.getValueMeta(i));
+        }
+        rows.add(row);
+      }
+      return rows;
+    } catch (IOException e) {
+      throw new HopException("Unable to read the result of the row: " + e.getMessage(), e);
+    }
+  }
+
+  private Object readValue(DataInputStream data, IValueMeta target) throws IOException, HopException {
+    byte tag = data.readByte();
+    Object value;
+    switch (tag) {
+      case TAG_NULL:
+        return null;
+      case TAG_INTEGER:
+        value = data.readLong();
+        break;
+      case TAG_NUMBER:
+        value = data.readDouble();
+        break;
+      case TAG_BOOLEAN:
+        value = data.readByte() != 0;
+        break;
+      case TAG_TIMESTAMP:
+        value = fromMicros(data.readLong());
+        if (target.getType() == IValueMeta.TYPE_DATE) {
+          return new Date(((Timestamp) value).getTime());
+        }
+        break;
+      case TAG_STRING:
+        value = new String(readBytes(data), StandardCharsets.UTF_8);
+        break;
+      case TAG_BIG_NUMBER:
+        value = new BigDecimal(new String(readBytes(data), StandardCharsets.US_ASCII));
+        break;
+      case TAG_BINARY:
+        value = readBytes(data);
+        break;
+      default:
+        throw new IOException("Unknown value type " + tag);
+    }
+
+    IValueMeta source = TAG_VALUE_METAS[tag];
+    if (source.getType() == target.getType()) {
+      return value;
+    }
+    return target.convertData(source, value);
+  }
+
+  /**
+   * Microseconds since the epoch of the local date and time, the way pandas sees a naive datetime
+   */
+  private long toMicros(Date date) {
+    Instant instant = date instanceof Timestamp ? ((Timestamp) date).toInstant() : date.toInstant();
+    LocalDateTime local = LocalDateTime.ofInstant(instant, zone);
+    return local.toEpochSecond(ZoneOffset.UTC) * 1000000L + local.getNano() / 1000;
+  }
+
+  private Timestamp fromMicros(long micros) {
+    LocalDateTime local = LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1000000L),
+        (int) Math.floorMod(micros, 1000000L) * 1000, ZoneOffset.UTC);
+    return Timestamp.from(local.atZone(zone).toInstant());
+  }
+
+  private void writeBytes(byte tag, byte[] bytes) throws IOException {
+    out.writeByte(tag);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static byte[] readBytes(DataInputStream data) throws IOException {
+    byte[] bytes = new byte[data.readInt()];
+    data.readFully(bytes);
+    return bytes;
+  }
+
+  private static void writeString(DataOutputStream data, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    data.writeInt(bytes.length);
+    data.write(bytes);
+  }
+
+  /**
+   * Gives access to the bytes without copying them
+   */
+  private static class RowBuffer extends ByteArrayOutputStream {
+    RowBuffer() {
+      super(256);
+    }
+
+    byte[] getBuffer() {
+      return buf;
+    }
+  }
+}
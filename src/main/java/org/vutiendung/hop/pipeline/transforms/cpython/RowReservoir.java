@@ -0,0 +1,293 @@
+/*! ******************************************************************************
+ *
+ * CPython for the Hop orchestration platform
+ *
+ * http://www.project-hop.org
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.vutiendung.hop.pipeline.transforms.cpython;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.SplittableRandom;
+
+import org.apache.hop.core.exception.HopException;
+import org.apache.hop.core.row.IRowMeta;
+
+/**
+ * A uniform random sample of fixed size over a stream of rows of unknown length, using the skip
+ * based algorithm L of Li (1994). Once the reservoir is full the number of rows to skip until the
+ * next accepted row is drawn up front, so rejected rows cost a counter increment and are never
+ * touched.
+ * <p/>
+ * Every sampled row has a random key and the sample holds the rows with the smallest keys, kept in
+ * a max heap. This is what algorithm L simulates, and it lets the reservoir shrink to a smaller
+ * uniform sample by dropping the largest keys.
+ * <p/>
+ * The sampled rows are kept serialized with {@link IRowMeta#writeData}, one byte array per slot,
+ * which is far smaller than the rows themselves with their boxed values. Every row also keeps its
+ * position in the stream, so the sample is written in the order the rows arrived.
+ */
+public class RowReservoir implements IRowSampler {
+
+  /**
+   * Approximate bytes per sampled row besides its data: the array header, the reference and the key
+   */
+  private static final int ROW_OVERHEAD = 32;
+
+  private final IRowMeta rowMeta;
+  private final SplittableRandom random;
+  private int capacity;
+  private byte[][] slots;
+  private double[] keys;
+  private long[] ordinals;
+  private int size;
+  private long sizeInBytes;
+
+  /**
+   * Number of rows offered so far, and the number of rows offered when the next one is accepted
+   */
+  private long rowsSeen;
+  private long nextAccepted;
+
+  private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+  private final DataOutputStream out = new DataOutputStream(buffer);
+
+  /**
+   * @param rowMeta the fields of the rows
+   * @param capacity the size of the sample
+   * @param seed the seed of the random generator, the same seed gives the same sample
+   */
+  public RowReservoir(IRowMeta rowMeta, int capacity, long seed) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("The size of the reservoir must be positive");
+    }
+    this.rowMeta = rowMeta;
+    this.random = new SplittableRandom(seed);
+    this.capacity = capacity;
+    //grows with the sample, many reservoirs of a stratified sample stay small
+    this.slots = new byte[Math.min(capacity, 16)][];
+    this.keys = new double[slots.length];
+    this.ordinals = new long[slots.length];
+  }
+
+  @Override public boolean offer(Object[] row) throws HopException {
+    return offer(row, rowsSeen);
+  }
+
+  /**
+   * Offer the next row of the stream
+   *
+   * @param row the row
+   * @param ordinal the position of the row in the stream, the sample is written in this order
+   * @return true if the row was taken into the sample
+   * @throws HopException if the row can't be stored
+   */
+  public boolean offer(Object[] row, long ordinal) throws HopException {
+    rowsSeen++;
+    if (size < capacity) {
+      if (size == slots.length) {
+        int length = (int) Math.min(capacity, 2L * slots.length);
+        slots = Arrays.copyOf(slots, length);
+        keys = Arrays.copyOf(keys, length);
+        ordinals = Arrays.copyOf(ordinals, length);
+      }
+      add(nextRandom(), ordinal, encode(row));
+      if (size == capacity) {
+        skip();
+      }
+      return true;
+    }
+    if (rowsSeen < nextAccepted) {
+      return false;
+    }
+
+    //the key of an accepted row is uniform below the largest key, which it replaces
+    double key = keys[0] * nextRandom();
+    removeLargest();
+    add(key, ordinal, encode(row));
+    skip();
+    return true;
+  }
+
+  /**
+   * Reduce the sample to the given size. The rows with the largest keys are dropped, so what is
+   * left is a uniform sample of the rows seen so far and sampling continues as if the reservoir
+   * always had the smaller size.
+   */
+  public void shrink(int newCapacity) {
+    if (newCapacity <= 0) {
+      throw new IllegalArgumentException("The size of the reservoir must be positive");
+    }
+    if (newCapacity >= capacity) {
+      return;
+    }
+    capacity = newCapacity;
+    while (size > capacity) {
+      removeLargest();
+    }
+    if (size == capacity) {
+      skip();
+    }
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  @Override public int size() {
+    return size;
+  }
+
+  @Override public long getRowsSeen() {
+    return rowsSeen;
+  }
+
+  @Override public long getSizeInBytes() {
+    return sizeInBytes;
+  }
+
+  @Override public void writeTo(IFrameWriter writer) throws HopException {
+    for (int slot : getArrivalOrder()) {
+      writer.writeRow(readRow(slot));
+    }
+  }
+
+  @Override public long[] getPositions() {
+    long[] positions = Arrays.copyOf(ordinals, size);
+    Arrays.sort(positions);
+    return positions;
+  }
+
+  @Override public void clear() {
+    slots = new byte[0][];
+    keys = new double[0];
+    ordinals = new long[0];
+    size = 0;
+    sizeInBytes = 0;
+  }
+
+  /**
+   * @return the slots of the sampled rows in the order the rows arrived
+   */
+  int[] getArrivalOrder() {
+    Integer[] order = new Integer[size];
+    for (int i = 0; i < size; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, Comparator.comparingLong(slot -> ordinals[slot]));
+    int[] slotOrder = new int[size];
+    for (int i = 0; i < size; i++) {
+      slotOrder[i] = order[i];
+    }
+    return slotOrder;
+  }
+
+  /**
+   * @return the position in the stream of the row in a slot
+   */
+  long getOrdinal(int slot) {
+    return ordinals[slot];
+  }
+
+  /**
+   * @return the row in a slot
+   */
+  Object[] readRow(int slot) throws HopException {
+    try {
+      return rowMeta.readData(new DataInputStream(new ByteArrayInputStream(slots[slot])));
+    } catch (IOException e) {
+      throw new HopException("Unable to read a row of the reservoir: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Draw the number of rows until the next one with a key below the largest key of the sample
+   */
+  private void skip() {
+    double w = keys[0];
+    nextAccepted = rowsSeen + (long) Math.floor(Math.log(nextRandom()) / Math.log1p(-w)) + 1;
+  }
+
+  /**
+   * @return a random number in (0, 1], so its logarithm is finite
+   */
+  private double nextRandom() {
+    return 1.0 - random.nextDouble();
+  }
+
+  private byte[] encode(Object[] row) throws HopException {
+    buffer.reset();
+    rowMeta.writeData(out, row);
+    return buffer.toByteArray();
+  }
+
+  private void add(double key, long ordinal, byte[] row) {
+    int i = size++;
+    sizeInBytes += row.length + ROW_OVERHEAD;
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      if (keys[parent] >= key) {
+        break;
+      }
+      keys[i] = keys[parent];
+      ordinals[i] = ordinals[parent];
+      slots[i] = slots[parent];
+      i = parent;
+    }
+    keys[i] = key;
+    ordinals[i] = ordinal;
+    slots[i] = row;
+  }
+
+  private void removeLargest() {
+    sizeInBytes -= slots[0].length + ROW_OVERHEAD;
+    size--;
+    double key = keys[size];
+    long ordinal = ordinals[size];
+    byte[] row = slots[size];
+    slots[size] = null;
+    int i = 0;
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= size) {
+        break;
+      }
+      if (child + 1 < size && keys[child + 1] > keys[child]) {
+        child++;
+      }
+      if (keys[child] <= key) {
+        break;
+      }
+      keys[i] = keys[child];
+      ordinals[i] = ordinals[child];
+      slots[i] = slots[child];
+      i = child;
+    }
+    if (size > 0) {
+      keys[i] = key;
+      ordinals[i] = ordinal;
+      slots[i] = row;
+    }
+  }
+}
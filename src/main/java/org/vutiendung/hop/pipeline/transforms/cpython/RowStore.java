@@ -0,0 +1,213 @@
+/*! ******************************************************************************
+ *
+ * CPython for the Hop orchestration platform
+ *
+ * http://www.project-hop.org
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.vutiendung.hop.pipeline.transforms.cpython;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.apache.hop.core.exception.HopException;
+import org.apache.hop.core.row.IRowMeta;
+
+/**
+ * Rows kept on the java side and looked up by their position, serialized with
+ * {@link IRowMeta#writeData}. The rows are held in memory up to a limit, after that all of them are
+ * spilled to a temporary file and read back from it.
+ * <p/>
+ * Rows are added by one thread and read by one thread after that, for example the thread that
+ * executes the batch they belong to.
+ */
+public class RowStore {
+
+  /**
+   * The name of the index of the first frame when the input is included in the output, so the
+   * result rows tell which input row they belong to
+   */
+  public static final String INDEX_COLUMN = "__hop_row__";
+
+  private final IRowMeta rowMeta;
+  private final long memoryLimit;
+  private final SpillManager spill;
+
+  /**
+   * Where each row starts, the entry after the last row is where the next one starts
+   */
+  private long[] offsets = new long[1024];
+  private int count;
+
+  private byte[] memory = new byte[64 * 1024];
+
+  private Path file;
+  private OutputStream fileOut;
+  private boolean unflushed;
+  private FileChannel channel;
+
+  private final RowBuffer buffer = new RowBuffer();
+  private final DataOutputStream out = new DataOutputStream(buffer);
+
+  /**
+   * @param rowMeta the fields of the rows
+   * @param memoryLimit the number of bytes of rows kept in memory before they are spilled
+   * @param spill where the rows are spilled to
+   */
+  public RowStore(IRowMeta rowMeta, long memoryLimit, SpillManager spill) {
+    this.rowMeta = rowMeta;
+    this.memoryLimit = memoryLimit;
+    this.spill = spill;
+  }
+
+  /**
+   * Add a row after the others
+   *
+   * @return the position of the row, starting at 0
+   */
+  public int add(Object[] row) throws HopException {
+    buffer.reset();
+    rowMeta.writeData(out, row);
+    int length = buffer.size();
+    long start = offsets[count];
+
+    try {
+      if (file == null && start + length > memoryLimit) {
+        spill();
+      }
+      if (file == null) {
+        if (start + length > memory.length) {
+          memory = Arrays.copyOf(memory, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(start + length, 2L * memory.length)));
+        }
+        System.arraycopy(buffer.getBuffer(), 0, memory, (int) start, length);
+      }
+      else {
+        fileOut.write(buffer.getBuffer(), 0, length);
+        unflushed = true;
+      }
+    } catch (IOException e) {
+      throw new HopException("Unable to store an input row: " + e.getMessage(), e);
+    }
+
+    if (count + 2 > offsets.length) {
+      offsets = Arrays.copyOf(offsets, offsets.length * 2);
+    }
+    offsets[count + 1] = start + length;
+    return count++;
+  }
+
+  /**
+   * Get the row at a position
+   *
+   * @throws HopException if there is no row at the position or it can't be read
+   */
+  public Object[] get(long index) throws HopException {
+    if (index < 0 || index >= count) {
+      throw new HopException("There is no input row " + index + ", the frame had " + count + " rows");
+    }
+    int i = (int) index;
+    long start = offsets[i];
+    int length = (int) (offsets[i + 1] - start);
+    try {
+      if (file == null) {
+        return rowMeta.readData(new DataInputStream(new ByteArrayInputStream(memory, (int) start, length)));
+      }
+
+      if (unflushed) {
+        fileOut.flush();
+        unflushed = false;
+      }
+      if (channel == null) {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+      }
+      ByteBuffer bytes = ByteBuffer.allocate(length);
+      while (bytes.hasRemaining()) {
+        if (channel.read(bytes, start + bytes.position()) < 0) {
+          throw new IOException("Unexpected end of " + file);
+        }
+      }
+      return rowMeta.readData(new DataInputStream(new ByteArrayInputStream(bytes.array())));
+    } catch (IOException e) {
+      throw new HopException("Unable to read input row " + index + ": " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * @return the number of rows
+   */
+  public int size() {
+    return count;
+  }
+
+  /**
+   * @return true if the rows were spilled to disk
+   */
+  public boolean isSpilled() {
+    return file != null;
+  }
+
+  /**
+   * Release the rows and delete the spill file
+   */
+  public void delete() {
+    memory = null;
+    try {
+      if (channel != null) {
+        channel.close();
+      }
+      if (fileOut != null) {
+        fileOut.close();
+      }
+    } catch (IOException e) {
+      //the file is deleted anyway
+    }
+    if (file != null) {
+      spill.delete(file);
+    }
+  }
+
+  private void spill() throws IOException {
+    file = spill.newFile("_input_rows.bin");
+    fileOut = new BufferedOutputStream(spill.create(file), 256 * 1024);
+    fileOut.write(memory, 0, (int) offsets[count]);
+    memory = null;
+  }
+
+  /**
+   * Gives access to the bytes without copying them
+   */
+  private static class RowBuffer extends ByteArrayOutputStream {
+    RowBuffer() {
+      super(256);
+    }
+
+    byte[] getBuffer() {
+      return buf;
+    }
+  }
+}
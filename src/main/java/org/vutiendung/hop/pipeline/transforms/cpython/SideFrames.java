@@ -0,0 +1,93 @@
+/*! ******************************************************************************
+ *
+ * CPython for the Hop orchestration platform
+ *
+ * http://www.project-hop.org
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.vutiendung.hop.pipeline.transforms.cpython;
+
+import java.util.List;
+
+import org.apache.hop.core.exception.HopException;
+
+/**
+ * The rows of the frames other than the first one, kept in memory and written to the frames of
+ * every batch or partition. They are read completely before they are first written, so the first
+ * execution of the script sees them as complete as the later ones.
+ */
+public class SideFrames {
+
+  /**
+   * Reads the remaining rows of a frame
+   */
+  public interface IFrameReader {
+    /**
+     * @param frameIndex the index of the frame, never 0
+     * @param rows the rows of the frame so far, the remaining rows are added to it
+     */
+    void readRows(int frameIndex, List<Object[]> rows) throws HopException;
+  }
+
+  private final List<List<Object[]>> buffers;
+  private final IFrameReader reader;
+  private boolean read;
+
+  /**
+   * @param buffers the rows per frame, the first frame is not read
+   * @param reader reads the remaining rows of a frame
+   */
+  public SideFrames(List<List<Object[]>> buffers, IFrameReader reader) {
+    this.buffers = buffers;
+    this.reader = reader;
+  }
+
+  /**
+   * Read the remaining rows of every frame except the first one, once
+   */
+  public void read() throws HopException {
+    if (read) {
+      return;
+    }
+    read = true;
+    for (int i = 1; i < buffers.size(); i++) {
+      reader.readRows(i, buffers.get(i));
+    }
+  }
+
+  /**
+   * @return the rows of a frame, read completely
+   */
+  public List<Object[]> getRows(int frameIndex) throws HopException {
+    read();
+    return buffers.get(frameIndex);
+  }
+
+  /**
+   * Write the rows of a frame, read completely
+   */
+  public void writeTo(int frameIndex, IFrameWriter writer) throws HopException {
+    for (Object[] row : getRows(frameIndex)) {
+      writer.writeRow(row);
+    }
+  }
+
+  public boolean isRead() {
+    return read;
+  }
+}
@@ -0,0 +1,285 @@
+/*! ******************************************************************************
+ *
+ * CPython for the Hop orchestration platform
+ *
+ * http://www.project-hop.org
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.vutiendung.hop.pipeline.transforms.cpython;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import org.apache.hop.core.exception.HopException;
+import org.apache.hop.core.logging.ILogChannel;
+import org.apache.hop.core.util.Utils;
+
+/**
+ * The scratch files of one run of the transform: the frames, the results and the spilled rows.
+ * They are kept in a directory of their own, named after the process, that is removed when the
+ * transform ends, whether it succeeded, failed or was stopped, and when the JVM shuts down.
+ * <p/>
+ * The scratch files written through {@link #create} and the files python writes that are
+ * {@link #account accounted} count towards a quota, writing more fails the run. When a directory
+ * is used for the first time in a process, the directories of processes that are no longer alive
+ * are removed, with the files of crashed runs.
+ */
+public class SpillManager {
+
+  /**
+   * The memory backed file system used when no directory is configured and it has enough room
+   */
+  public static final String TMPFS_DIRECTORY = "/dev/shm";
+
+  /**
+   * Free space /dev/shm needs to be chosen when there is no quota
+   */
+  private static final long MIN_TMPFS_FREE_SPACE = 1024L * 1024 * 1024;
+
+  private static final String RUN_PREFIX = "hop-cpython-";
+  private static final Pattern RUN_DIRECTORY = Pattern.compile(Pattern.quote(RUN_PREFIX) + "(\\d+)-[0-9a-f-]+");
+
+  /**
+   * Scratch files of earlier versions, written next to each other without a run directory. They are
+   * removed once they are older than a day, so they do not belong to a run in progress.
+   */
+  private static final Pattern LOOSE_FILE = Pattern.compile(
+      "[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}_.*(_input|_output|_script|_input_rows|_partition\\d+)\\.[a-z]+");
+  private static final long LOOSE_FILE_AGE = TimeUnit.DAYS.toMillis(1);
+
+  /**
+   * The directories swept in this process, and the runs that are not deleted yet
+   */
+  private static final Set<Path> sweptDirectories = ConcurrentHashMap.newKeySet();
+  private static final Set<SpillManager> openRuns = ConcurrentHashMap.newKeySet();
+
+  static {
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      for (SpillManager run : openRuns) {
+        run.delete();
+      }
+    }, "cpython-scratch-cleanup"));
+  }
+
+  private final Path directory;
+  private final long quota;
+  private final AtomicLong used = new AtomicLong();
+
+  /**
+   * @param baseDirectory the directory the directory of the run is created in
+   * @param quota the maximum number of bytes of scratch files, 0 for no limit
+   * @param log receives the orphaned files that are removed
+   * @throws HopException if the directory of the run can not be created
+   */
+  public SpillManager(String baseDirectory, long quota, ILogChannel log) throws HopException {
+    Path base = Paths.get(baseDirectory).toAbsolutePath().normalize();
+    this.quota = quota;
+    try {
+      Files.createDirectories(base);
+      if (sweptDirectories.add(base)) {
+        int removed = sweepOrphans(base);
+        if (removed > 0) {
+          log.logBasic("Removed " + removed + " orphaned scratch files from " + base);
+        }
+      }
+      directory = Files.createDirectory(base.resolve(RUN_PREFIX + ProcessHandle.current().pid() + "-" + UUID.randomUUID()));
+    } catch (IOException e) {
+      throw new HopException("Unable to create a scratch directory in [" + baseDirectory + "]: " + e.getMessage(), e);
+    }
+    openRuns.add(this);
+  }
+
+  /**
+   * Choose the directory scratch files are written to
+   *
+   * @param configured the configured directory, empty to choose one
+   * @param quota the quota of the run, 0 for no limit
+   * @return the configured directory, otherwise /dev/shm if it has room for the quota, or 1 GB
+   *         without a quota, otherwise the temporary directory of the JVM
+   */
+  public static String chooseDirectory(String configured, long quota) {
+    if (!Utils.isEmpty(configured)) {
+      return configured;
+    }
+    Path tmpfs = Paths.get(TMPFS_DIRECTORY);
+    try {
+      if (Files.isDirectory(tmpfs) && Files.isWritable(tmpfs)
+          && Files.getFileStore(tmpfs).getUsableSpace() >= Math.max(quota, MIN_TMPFS_FREE_SPACE)) {
+        return TMPFS_DIRECTORY;
+      }
+    } catch (IOException e) {
+      //not usable, fall back to the temporary directory
+    }
+    return System.getProperty("java.io.tmpdir");
+  }
+
+  /**
+   * @return the directory of the run
+   */
+  public Path getDirectory() {
+    return directory;
+  }
+
+  /**
+   * @return the number of bytes of scratch files counted towards the quota
+   */
+  public long getUsed() {
+    return used.get();
+  }
+
+  /**
+   * @param suffix the end of the file name
+   * @return a new file in the directory of the run, it is not created
+   */
+  public Path newFile(String suffix) {
+    return directory.resolve(UUID.randomUUID() + suffix);
+  }
+
+  /**
+   * Create or truncate a scratch file. What is written to it counts towards the quota.
+   */
+  public OutputStream create(Path file) throws IOException {
+    release(file);
+    OutputStream out = Files.newOutputStream(file);
+    return new FilterOutputStream(out) {
+      @Override public void write(int b) throws IOException {
+        charge(1);
+        out.write(b);
+      }
+
+      @Override public void write(byte[] b, int off, int len) throws IOException {
+        charge(len);
+        out.write(b, off, len);
+      }
+    };
+  }
+
+  /**
+   * Count a file written by python towards the quota
+   *
+   * @throws IOException if the quota is exceeded
+   */
+  public void account(Path file) throws IOException {
+    if (Files.exists(file)) {
+      charge(Files.size(file));
+    }
+  }
+
+  /**
+   * Delete a scratch file and release its bytes from the quota
+   */
+  public void delete(Path file) {
+    release(file);
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      //removed with the directory of the run
+    }
+  }
+
+  /**
+   * Delete the directory of the run with all files in it
+   */
+  public void delete() {
+    openRuns.remove(this);
+    deleteTree(directory);
+    used.set(0);
+  }
+
+  private void charge(long bytes) throws IOException {
+    if (used.addAndGet(bytes) > quota && quota > 0) {
+      throw new IOException("The scratch files need more than the quota of " + (quota / (1024 * 1024))
+          + " MB in " + directory);
+    }
+  }
+
+  private void release(Path file) {
+    try {
+      if (Files.exists(file)) {
+        used.addAndGet(-Files.size(file));
+      }
+    } catch (IOException e) {
+      //the file is gone
+    }
+  }
+
+  /**
+   * Remove the run directories of processes that are not alive anymore, and old scratch files of
+   * earlier versions
+   *
+   * @return the number of files removed
+   */
+  static int sweepOrphans(Path base) throws IOException {
+    int removed = 0;
+    long now = System.currentTimeMillis();
+    try (Stream<Path> entries = Files.list(base)) {
+      for (Path entry : (Iterable<Path>) entries::iterator) {
+        String name = entry.getFileName().toString();
+        Matcher run = RUN_DIRECTORY.matcher(name);
+        if (run.matches() && Files.isDirectory(entry)) {
+          long pid = Long.parseLong(run.group(1));
+          if (!ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false)) {
+            removed += deleteTree(entry);
+          }
+        }
+        else if (LOOSE_FILE.matcher(name).matches() && Files.isRegularFile(entry)) {
+          FileTime modified = Files.getLastModifiedTime(entry);
+          if (now - modified.toMillis() > LOOSE_FILE_AGE && Files.deleteIfExists(entry)) {
+            removed++;
+          }
+        }
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * @return the number of files deleted
+   */
+  private static int deleteTree(Path root) {
+    int deleted = 0;
+    try (Stream<Path> paths = Files.walk(root)) {
+      for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+        try {
+          if (Files.deleteIfExists(path) && !path.equals(root)) {
+            deleted++;
+          }
+        } catch (IOException e) {
+          //left for the next sweep
+        }
+      }
+    } catch (IOException e) {
+      //the directory is gone already
+    }
+    return deleted;
+  }
+}
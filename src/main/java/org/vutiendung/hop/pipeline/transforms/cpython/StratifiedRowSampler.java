@@ -0,0 +1,206 @@
+/*! ******************************************************************************
+ *
+ * CPython for the Hop orchestration platform
+ *
+ * http://www.project-hop.org
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.vutiendung.hop.pipeline.transforms.cpython;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+
+import org.apache.hop.core.exception.HopException;
+import org.apache.hop.core.row.IRowMeta;
+import org.apache.hop.core.row.IValueMeta;
+
+/**
+ * A separate reservoir per value of the key fields, so rare values keep their rows instead of
+ * being drowned by the frequent ones. Every stratum holds at most the configured number of rows.
+ * <p/>
+ * When the sampled rows of all strata together use more memory than allowed, the number of rows
+ * per stratum is lowered for all strata. The large strata shrink to a smaller uniform sample, the
+ * strata that are already below the new size keep all their rows.
+ * <p/>
+ * The rows of all strata are written together in the order they arrived.
+ */
+public class StratifiedRowSampler implements IRowSampler {
+
+  private final IRowMeta rowMeta;
+  private final int[] keyIndexes;
+  private final long memoryLimit;
+  private final SplittableRandom seeds;
+  private final Map<List<Object>, RowReservoir> strata = new HashMap<>();
+
+  private int stratumCapacity;
+  private long rowsSeen;
+  private long sizeInBytes;
+
+  /**
+   * @param rowMeta the fields of the rows
+   * @param keyFields the fields whose values define the strata
+   * @param stratumCapacity the maximum number of rows per stratum
+   * @param memoryLimit the maximum number of bytes of all sampled rows, 0 for no limit
+   * @param seed the seed of the random generators, the same seed gives the same sample
+   * @throws HopException if a key field does not exist
+   */
+  public StratifiedRowSampler(IRowMeta rowMeta, List<String> keyFields, int stratumCapacity, long memoryLimit,
+      long seed) throws HopException {
+    this.rowMeta = rowMeta;
+    this.keyIndexes = new int[keyFields.size()];
+    for (int i = 0; i < keyIndexes.length; i++) {
+      keyIndexes[i] = rowMeta.indexOfValue(keyFields.get(i));
+      if (keyIndexes[i] < 0) {
+        throw new HopException("The key field [" + keyFields.get(i) + "] does not exist in the first frame");
+      }
+    }
+    this.stratumCapacity = stratumCapacity;
+    this.memoryLimit = memoryLimit;
+    this.seeds = new SplittableRandom(seed);
+  }
+
+  @Override public boolean offer(Object[] row) throws HopException {
+    long ordinal = rowsSeen++;
+    List<Object> key = getKey(row);
+    RowReservoir reservoir = strata.get(key);
+    if (reservoir == null) {
+      reservoir = new RowReservoir(rowMeta, stratumCapacity, seeds.nextLong());
+      strata.put(key, reservoir);
+    }
+
+    long before = reservoir.getSizeInBytes();
+    boolean accepted = reservoir.offer(row, ordinal);
+    sizeInBytes += reservoir.getSizeInBytes() - before;
+    if (accepted && memoryLimit > 0 && sizeInBytes > memoryLimit) {
+      reduceStrata();
+    }
+    return accepted;
+  }
+
+  /**
+   * @return the number of distinct values of the key fields
+   */
+  public int getStrataCount() {
+    return strata.size();
+  }
+
+  /**
+   * @return the maximum number of rows per stratum, lower than configured if the memory limit was
+   *         reached
+   */
+  public int getStratumCapacity() {
+    return stratumCapacity;
+  }
+
+  @Override public int size() {
+    int size = 0;
+    for (RowReservoir reservoir : strata.values()) {
+      size += reservoir.size();
+    }
+    return size;
+  }
+
+  @Override public long getRowsSeen() {
+    return rowsSeen;
+  }
+
+  @Override public long getSizeInBytes() {
+    return sizeInBytes;
+  }
+
+  @Override public void writeTo(IFrameWriter writer) throws HopException {
+    // merge the strata, each of them is in arrival order already
+    final List<RowReservoir> reservoirs = new ArrayList<>(strata.values());
+    final int[][] orders = new int[reservoirs.size()][];
+    final int[] next = new int[reservoirs.size()];
+    PriorityQueue<Integer> queue = new PriorityQueue<>(Math.max(1, reservoirs.size()),
+        Comparator.comparingLong(i -> reservoirs.get(i).getOrdinal(orders[i][next[i]])));
+    for (int i = 0; i < orders.length; i++) {
+      orders[i] = reservoirs.get(i).getArrivalOrder();
+      if (orders[i].length > 0) {
+        queue.add(i);
+      }
+    }
+    while (!queue.isEmpty()) {
+      int i = queue.poll();
+      writer.writeRow(reservoirs.get(i).readRow(orders[i][next[i]++]));
+      if (next[i] < orders[i].length) {
+        queue.add(i);
+      }
+    }
+  }
+
+  @Override public long[] getPositions() {
+    long[] positions = new long[size()];
+    int count = 0;
+    for (RowReservoir reservoir : strata.values()) {
+      long[] stratum = reservoir.getPositions();
+      System.arraycopy(stratum, 0, positions, count, stratum.length);
+      count += stratum.length;
+    }
+    Arrays.sort(positions);
+    return positions;
+  }
+
+  @Override public void clear() {
+    strata.clear();
+    sizeInBytes = 0;
+  }
+
+  /**
+   * Lower the number of rows per stratum by a quarter of the largest stratum until the sample fits
+   * in the memory limit again
+   */
+  private void reduceStrata() throws HopException {
+    while (sizeInBytes > memoryLimit) {
+      int largest = 0;
+      for (RowReservoir reservoir : strata.values()) {
+        largest = Math.max(largest, reservoir.size());
+      }
+      if (largest <= 1) {
+        throw new HopException("The sample of " + strata.size() + " strata does not fit in " + memoryLimit
+            + " bytes even with one row per stratum, please raise the memory limit or use fewer key values");
+      }
+
+      stratumCapacity = largest - Math.max(1, largest / 4);
+      sizeInBytes = 0;
+      for (RowReservoir reservoir : strata.values()) {
+        reservoir.shrink(stratumCapacity);
+        sizeInBytes += reservoir.getSizeInBytes();
+      }
+    }
+  }
+
+  /**
+   * @return the values of the key fields in their native type, comparable with equals
+   */
+  private List<Object> getKey(Object[] row) throws HopException {
+    List<Object> key = new ArrayList<>(keyIndexes.length);
+    for (int keyIndex : keyIndexes) {
+      IValueMeta valueMeta = rowMeta.getValueMeta(keyIndex);
+      key.add(valueMeta.isNull(row[keyIndex]) ? null : valueMeta.convertToNormalStorageType(row[keyIndex]));
+    }
+    return key;
+  }
+}
@@ -0,0 +1,422 @@
+#
+# CPython for the Hop orchestration platform
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with
+# the License. You may obtain a copy of the License at
+#
+#    http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+
+# Worker process used by the CPython Script Executor transform when frames are
+# shipped over a pipe. The transform talks to this process over stdin/stdout:
+#
+#   request  = 1 byte opcode + 4 byte big-endian payload length + payload
+#   response = 1 byte type   + 4 byte big-endian payload length + payload
+#
+# The process stays alive between executions, so it can be reused by several
+# pipeline runs. Modules imported by a script stay loaded, each script runs in
+# a fresh namespace.
+#
+# stdout only carries protocol messages. Anything printed by the user's script
+# (or by native code) is redirected to stderr, which the transform logs.
+#
+# Resident frames are parsed once and kept between executions. A resident
+# frame request names the key of the content a frame of the next execution
+# must have, the script only reads the frame when the copy it keeps has another
+# key, so the transform leaves the frame out when the worker has it already.
+#
+# The init section of a script runs once per process. An init request carries
+# a key of the init code and the files it references, the code only runs again
+# when the key changes. The globals it defines (loaded models, connections) are
+# copied into the namespace of every script that runs after it, so objects are
+# shared between executions while names bound by a script are not. The
+# transform sends it before any frame, a failing init section drops the frames
+# received so far anyway.
+#
+# A discard request drops the frames sent since the last execution, for a batch
+# whose result the transform replays from its result cache instead.
+#
+# Row by row mode avoids frame files on the hot path. A prepare request runs the
+# setup code once (imports, other frames) and compiles the user's script, then
+# every row request carries one row in a compact binary encoding and gets the
+# result rows back in the same encoding. The script sees the row as a data frame
+# of one row, the same as a batch of one row:
+#
+#   row    = value for every field
+#   value  = 1 byte tag + data, see the TAG_* constants
+#   result = 4 byte row count + rows
+
+import io
+import numbers
+import os
+import struct
+import sys
+import traceback
+from collections.abc import Mapping
+from datetime import date, datetime, time, timedelta
+from decimal import Decimal
+
+OP_FRAME_CHUNK = b'F'
+OP_EXECUTE = b'X'
+OP_PING = b'P'
+OP_QUIT = b'Q'
+OP_PREPARE_ROWS = b'C'
+OP_ROW = b'W'
+OP_RESIDENT_FRAME = b'K'
+OP_INIT = b'I'
+OP_DISCARD_FRAMES = b'Z'
+
+RESPONSE_RESULT_CHUNK = b'R'
+RESPONSE_DONE = b'D'
+RESPONSE_ERROR = b'E'
+
+RESULT_CHUNK_SIZE = 1024 * 1024
+
+_HEADER = struct.Struct('>cI')
+_FRAME_INDEX = struct.Struct('>H')
+_INT32 = struct.Struct('>i')
+_INT64 = struct.Struct('>q')
+_FLOAT64 = struct.Struct('>d')
+
+TAG_NULL = 0
+TAG_INTEGER = 1
+TAG_NUMBER = 2
+TAG_BOOLEAN = 3
+TAG_STRING = 4
+TAG_TIMESTAMP = 5
+TAG_BIG_NUMBER = 6
+TAG_BINARY = 7
+
+_EPOCH = datetime(1970, 1, 1)
+_MICROSECOND = timedelta(microseconds=1)
+_INT64_MIN = -(1 << 63)
+_INT64_MAX = (1 << 63) - 1
+
+
+def _read_exactly(stream, size):
+    data = stream.read(size)
+    while len(data) < size:
+        more = stream.read(size - len(data))
+        if not more:
+            raise EOFError('Unexpected end of the request stream')
+        data += more
+    return data
+
+
+def _read_message(stream):
+    header = stream.read(_HEADER.size)
+    if not header:
+        return None
+    if len(header) < _HEADER.size:
+        header += _read_exactly(stream, _HEADER.size - len(header))
+    opcode, length = _HEADER.unpack(header)
+    return opcode, _read_exactly(stream, length)
+
+
+def _send(out, response, payload=b''):
+    out.write(_HEADER.pack(response, len(payload)))
+    if payload:
+        out.write(payload)
+
+
+def _init(payload, state, out):
+    key, _, code = bytes(payload).partition(b'\0')
+    try:
+        ran = state.get('key') != key
+        if ran:
+            state.clear()
+            namespace = {'__name__': '__hop__'}
+            exec(compile(code.decode('utf-8'), '<hop init>', 'exec'), namespace)
+            state['key'] = key
+            state['globals'] = namespace
+    except BaseException:
+        state.clear()
+        _send(out, RESPONSE_ERROR, traceback.format_exc().encode('utf-8'))
+        out.flush()
+        return False
+    _send(out, RESPONSE_RESULT_CHUNK, b'1' if ran else b'0')
+    _send(out, RESPONSE_DONE)
+    out.flush()
+    return True
+
+
+def _execute(script, frames, resident, resident_keys, state, out):
+    for frame in frames.values():
+        frame.seek(0)
+    namespace = dict(state.get('globals', {}))
+    namespace.update({'__name__': '__hop__', '_hop_frames': frames, '_hop_result': io.BytesIO(),
+                      '_hop_resident': resident, '_hop_resident_keys': resident_keys})
+    try:
+        exec(compile(script, '<hop script>', 'exec'), namespace)
+    except BaseException:
+        _send(out, RESPONSE_ERROR, traceback.format_exc().encode('utf-8'))
+    else:
+        result = namespace['_hop_result'].getbuffer()
+        for offset in range(0, len(result), RESULT_CHUNK_SIZE):
+            _send(out, RESPONSE_RESULT_CHUNK, result[offset:offset + RESULT_CHUNK_SIZE])
+        result.release()
+        _send(out, RESPONSE_DONE)
+    out.flush()
+
+
+class _RowProgram(object):
+    """The compiled script of row by row mode and the namespace it starts from"""
+
+    def __init__(self, payload, frames, resident, resident_keys, state):
+        fields = _Strings(payload)
+        setup, script = fields.next(), fields.next()
+        self.input_name, self.output_name = fields.next(), fields.next()
+        self.input_fields = [fields.next() for _ in range(fields.next_int())]
+        self.output_fields = [fields.next() for _ in range(fields.next_int())]
+
+        for frame in frames.values():
+            frame.seek(0)
+        self.namespace = dict(state.get('globals', {}))
+        self.namespace.update({'__name__': '__hop__', '_hop_frames': frames,
+                               '_hop_resident': resident, '_hop_resident_keys': resident_keys})
+        exec(compile(setup, '<hop setup>', 'exec'), self.namespace)
+        for name in ('_hop_frames', '_hop_resident', '_hop_resident_keys'):
+            del self.namespace[name]
+        self.code = compile(script, '<hop script>', 'exec')
+        import pandas
+        self.data_frame = pandas.DataFrame
+
+    def run(self, payload):
+        namespace = dict(self.namespace)
+        namespace[self.input_name] = self.data_frame([_decode_row(payload, self.input_fields)],
+                                                     columns=self.input_fields)
+        exec(self.code, namespace)
+        if self.output_name not in namespace:
+            raise NameError('Variable [%s] is not exist. Please check the script or job config again!'
+                            % self.output_name)
+        return _result_rows(namespace[self.output_name], self.output_fields)
+
+
+class _Strings(object):
+    """Reads the length-prefixed UTF-8 strings of a prepare request"""
+
+    def __init__(self, payload):
+        self.payload = payload
+        self.offset = 0
+
+    def next_int(self):
+        value, = _INT32.unpack_from(self.payload, self.offset)
+        self.offset += _INT32.size
+        return value
+
+    def next(self):
+        length = self.next_int()
+        value = self.payload[self.offset:self.offset + length].decode('utf-8')
+        self.offset += length
+        return value
+
+
+def _decode_row(payload, names):
+    row = {}
+    offset = 0
+    for name in names:
+        tag = payload[offset]
+        offset += 1
+        if tag == TAG_NULL:
+            value = None
+        elif tag == TAG_INTEGER:
+            value, = _INT64.unpack_from(payload, offset)
+            offset += 8
+        elif tag == TAG_NUMBER:
+            value, = _FLOAT64.unpack_from(payload, offset)
+            offset += 8
+        elif tag == TAG_BOOLEAN:
+            value = payload[offset] != 0
+            offset += 1
+        elif tag == TAG_TIMESTAMP:
+            micros, = _INT64.unpack_from(payload, offset)
+            value = _EPOCH + timedelta(microseconds=micros)
+            offset += 8
+        else:
+            length, = _INT32.unpack_from(payload, offset)
+            offset += 4
+            data = payload[offset:offset + length]
+            offset += length
+            if tag == TAG_STRING:
+                value = data.decode('utf-8')
+            elif tag == TAG_BIG_NUMBER:
+                value = Decimal(data.decode('ascii'))
+            else:
+                value = bytes(data)
+        row[name] = value
+    return row
+
+
+def _result_rows(result, names):
+    """The rows of the output variable: a mapping (or series) is one row, a data frame or a list of
+    mappings are several"""
+    if result is None:
+        return []
+    if isinstance(result, Mapping):
+        return [[result.get(name) for name in names]]
+    columns = getattr(result, 'columns', None)
+    if columns is not None:
+        # the same index reset and column flattening as the suffix of the other modes
+        result = result.copy(deep=False)
+        if result.columns.nlevels > 1:
+            result.columns = result.columns.map(lambda x: '_'.join([_object_to_string(i) for i in x]))
+        result = result.reset_index()
+        columns = list(result.columns)
+        positions = [columns.index(name) if name in columns else -1 for name in names]
+        return [[row[p] if p >= 0 else None for p in positions]
+                for row in result.itertuples(index=False, name=None)]
+    if hasattr(result, 'get') and hasattr(result, 'index'):
+        return [[result.get(name) for name in names]]
+    if isinstance(result, (list, tuple)):
+        rows = []
+        for item in result:
+            rows.extend(_result_rows(item, names))
+        return rows
+    raise TypeError('The output variable must be a dict, a pandas Series or DataFrame, or a list of them, not %s'
+                    % type(result).__name__)
+
+
+def _object_to_string(value):
+    """A level of a flattened column name, formatted like the suffix of the other modes"""
+    if isinstance(value, str):
+        return value
+    if isinstance(value, date):
+        return value.strftime("%Y%m%d")
+    if isinstance(value, (int, float, bool)):
+        return str(value)
+    return ""
+
+
+def _is_null(value):
+    if value is None:
+        return True
+    if isinstance(value, numbers.Real) and not isinstance(value, numbers.Integral):
+        return value != value
+    # pandas.NaT and pandas.NA, without importing pandas
+    return type(value).__name__ in ('NaTType', 'NAType')
+
+
+def _encode_value(out, value):
+    if _is_null(value):
+        out.append(TAG_NULL)
+    elif isinstance(value, bool) or type(value).__name__ == 'bool_':
+        out.append(TAG_BOOLEAN)
+        out.append(1 if value else 0)
+    elif isinstance(value, numbers.Integral) and _INT64_MIN <= value <= _INT64_MAX:
+        out.append(TAG_INTEGER)
+        out += _INT64.pack(int(value))
+    elif isinstance(value, Decimal) or isinstance(value, numbers.Integral):
+        _encode_bytes(out, TAG_BIG_NUMBER, str(value).encode('ascii'))
+    elif isinstance(value, numbers.Real):
+        out.append(TAG_NUMBER)
+        out += _FLOAT64.pack(float(value))
+    elif isinstance(value, datetime):
+        if value.tzinfo is not None:
+            value = value.astimezone().replace(tzinfo=None)
+        out.append(TAG_TIMESTAMP)
+        out += _INT64.pack((value - _EPOCH) // _MICROSECOND)
+    elif isinstance(value, date):
+        out.append(TAG_TIMESTAMP)
+        out += _INT64.pack((datetime.combine(value, time()) - _EPOCH) // _MICROSECOND)
+    elif isinstance(value, (bytes, bytearray, memoryview)):
+        _encode_bytes(out, TAG_BINARY, bytes(value))
+    else:
+        _encode_bytes(out, TAG_STRING, str(value).encode('utf-8'))
+
+
+def _encode_bytes(out, tag, data):
+    out.append(tag)
+    out += _INT32.pack(len(data))
+    out += data
+
+
+def _prepare_rows(payload, frames, resident, resident_keys, state, out):
+    try:
+        program = _RowProgram(payload, frames, resident, resident_keys, state)
+    except BaseException:
+        _send(out, RESPONSE_ERROR, traceback.format_exc().encode('utf-8'))
+        program = None
+    else:
+        _send(out, RESPONSE_DONE)
+    out.flush()
+    return program
+
+
+def _process_row(program, payload, out):
+    try:
+        if program is None:
+            raise RuntimeError('Row by row mode was not prepared')
+        rows = program.run(payload)
+        result = bytearray(_INT32.pack(len(rows)))
+        for row in rows:
+            for value in row:
+                _encode_value(result, value)
+    except BaseException:
+        _send(out, RESPONSE_ERROR, traceback.format_exc().encode('utf-8'))
+    else:
+        _send(out, RESPONSE_RESULT_CHUNK, bytes(result))
+        _send(out, RESPONSE_DONE)
+    out.flush()
+
+
+def main():
+    out = os.fdopen(os.dup(sys.stdout.fileno()), 'wb')
+    os.dup2(sys.stderr.fileno(), sys.stdout.fileno())
+    requests = sys.stdin.buffer
+
+    frames = {}
+    # frame name -> (key, frame), kept as long as the process lives
+    resident = {}
+    resident_keys = {}
+    # the key and the globals of the init section that ran last
+    state = {}
+    program = None
+    while True:
+        message = _read_message(requests)
+        if message is None:
+            break
+        opcode, payload = message
+        if opcode == OP_FRAME_CHUNK:
+            index, = _FRAME_INDEX.unpack_from(payload)
+            frames.setdefault(index, io.BytesIO()).write(memoryview(payload)[_FRAME_INDEX.size:])
+        elif opcode == OP_RESIDENT_FRAME:
+            index, = _FRAME_INDEX.unpack_from(payload)
+            resident_keys[index] = bytes(payload[_FRAME_INDEX.size:]).decode('utf-8')
+        elif opcode == OP_EXECUTE:
+            _execute(payload.decode('utf-8'), frames, resident, resident_keys, state, out)
+            frames = {}
+            resident_keys = {}
+        elif opcode == OP_ROW:
+            _process_row(program, payload, out)
+        elif opcode == OP_PREPARE_ROWS:
+            program = _prepare_rows(payload, frames, resident, resident_keys, state, out)
+            frames = {}
+            resident_keys = {}
+        elif opcode == OP_DISCARD_FRAMES:
+            frames = {}
+            resident_keys = {}
+            _send(out, RESPONSE_DONE)
+            out.flush()
+        elif opcode == OP_INIT:
+            # the frames sent for a script whose init section fails are never read
+            if not _init(payload, state, out):
+                frames = {}
+                resident_keys = {}
+        elif opcode == OP_PING:
+            _send(out, RESPONSE_DONE)
+            out.flush()
+        elif opcode == OP_QUIT:
+            break
+        else:
+            raise ValueError('Unknown request %r' % opcode)
+
+
+if __name__ == '__main__':
+    main()
@@ -0,0 +1,203 @@
+/*! ******************************************************************************
+ *
+ * CPython for the Hop orchestration platform
+ *
+ * http://www.project-hop.org
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.vutiendung.hop.pipeline.transforms.cpython;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hop.core.exception.HopException;
+import org.apache.hop.pipeline.transform.ITransform;
+import org.junit.After;
+import org.junit.Test;
+
+public class BatchPipelineTest {
+
+  private final AtomicBoolean stopped = new AtomicBoolean();
+  private final List<Integer> handled = Collections.synchronizedList(new ArrayList<Integer>());
+  private BatchPipeline<Integer> pipeline;
+
+  @After public void shutdown() {
+    if (pipeline != null) {
+      pipeline.shutdown();
+    }
+  }
+
+  @Test public void testResultsAreHandledInSubmissionOrder() throws Exception {
+    pipeline = new BatchPipeline<>("test", 3, 6, transform(), handled::add);
+    // each of the first batches waits for the one after it, so the slots finish in reverse order
+    final int slots = 3;
+    final CountDownLatch[] done = new CountDownLatch[slots];
+    for (int i = 0; i < slots; i++) {
+      done[i] = new CountDownLatch(1);
+    }
+    final List<Integer> finished = Collections.synchronizedList(new ArrayList<Integer>());
+    final Set<Integer> busySlots = ConcurrentHashMap.newKeySet();
+    final AtomicInteger sharedSlot = new AtomicInteger();
+
+    for (int i = 0; i < 6; i++) {
+      final int batch = i;
+      pipeline.submit(slot -> {
+        if (!busySlots.add(slot)) {
+          sharedSlot.incrementAndGet();
+        }
+        try {
+          if (batch < slots - 1 && !done[batch + 1].await(10, TimeUnit.SECONDS)) {
+            throw new HopException("Batch " + (batch + 1) + " did not finish");
+          }
+          finished.add(batch);
+          return batch;
+        } catch (InterruptedException e) {
+          throw new HopException(e);
+        } finally {
+          busySlots.remove(slot);
+          if (batch < slots) {
+            done[batch].countDown();
+          }
+        }
+      });
+    }
+    pipeline.awaitCompletion();
+
+    // later batches can finish in between once a slot is free
+    List<Integer> firstBatches = new ArrayList<>(finished);
+    firstBatches.retainAll(Arrays.asList(0, 1, 2));
+    assertEquals(Arrays.asList(2, 1, 0), firstBatches);
+    assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5), handled);
+    assertEquals("two batches ran in the same slot at the same time", 0, sharedSlot.get());
+  }
+
+  @Test public void testNullResultsAreNotHandled() throws Exception {
+    pipeline = new BatchPipeline<>("test", 2, 2, transform(), handled::add);
+    for (int i = 0; i < 4; i++) {
+      final int batch = i;
+      pipeline.submit(slot -> batch % 2 == 0 ? batch : null);
+    }
+    pipeline.awaitCompletion();
+
+    assertEquals(Arrays.asList(0, 2), handled);
+  }
+
+  @Test public void testFailureIsThrownAndLaterBatchesAreSkipped() throws Exception {
+    pipeline = new BatchPipeline<>("test", 1, 1, transform(), handled::add);
+    final HopException failure = new HopException("batch failed");
+    final AtomicInteger executed = new AtomicInteger();
+
+    pipeline.submit(slot -> {
+      executed.incrementAndGet();
+      throw failure;
+    });
+    try {
+      pipeline.awaitCompletion();
+      fail("the failure of the batch was not thrown");
+    } catch (HopException e) {
+      assertSame(failure, e);
+    }
+    try {
+      pipeline.submit(slot -> executed.incrementAndGet());
+      fail("a batch was accepted after a failure");
+    } catch (HopException e) {
+      assertSame(failure, e);
+    }
+    assertEquals(1, executed.get());
+    assertTrue(handled.isEmpty());
+  }
+
+  @Test public void testSubmitAfterStopIsDropped() throws Exception {
+    pipeline = new BatchPipeline<>("test", 2, 2, transform(), handled::add);
+    final AtomicInteger executed = new AtomicInteger();
+    pipeline.submit(slot -> executed.incrementAndGet());
+    pipeline.awaitCompletion();
+
+    // once the transform is stopped a batch is neither executed nor handled, and nothing waits for it
+    stopped.set(true);
+    pipeline.submit(slot -> executed.incrementAndGet());
+    pipeline.awaitCompletion();
+
+    assertEquals(1, executed.get());
+    assertEquals(Arrays.asList(1), handled);
+  }
+
+  @Test(timeout = 10000)
+  public void testSubmitStopsWaitingWhenTheTransformIsStopped() throws Exception {
+    pipeline = new BatchPipeline<>("test", 1, 1, transform(), handled::add);
+    final CountDownLatch release = new CountDownLatch(1);
+    pipeline.submit(slot -> {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return null;
+    });
+
+    // the only permit is taken, so this submit waits until the transform is stopped
+    Thread stopper = new Thread(() -> {
+      sleep(300);
+      stopped.set(true);
+    });
+    stopper.start();
+    final AtomicInteger executed = new AtomicInteger();
+    pipeline.submit(slot -> executed.incrementAndGet());
+    release.countDown();
+    stopper.join();
+
+    pipeline.awaitCompletion();
+    assertEquals(0, executed.get());
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * A transform that only answers whether it is stopped
+   */
+  private ITransform transform() {
+    return (ITransform) Proxy.newProxyInstance(ITransform.class.getClassLoader(), new Class<?>[] { ITransform.class },
+        (proxy, method, args) -> {
+          if ("isStopped".equals(method.getName())) {
+            return stopped.get();
+          }
+          throw new UnsupportedOperationException(method.getName());
+        });
+  }
+}
@@ -0,0 +1,148 @@
+/*! ******************************************************************************
+ *
+ * CPython for the Hop orchestration platform
+ *
+ * http://www.project-hop.org
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.vutiendung.hop.pipeline.transforms.cpython;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Every stream is read with buffers of 1, 2, 3 and 7 bytes as well, so records, quotes and line
+ * breaks are split at every possible buffer boundary.
+ */
+public class CsvTokenizerTest {
+
+  private static final int[] BUFFER_SIZES = { 1, 2, 3, 7, 4096 };
+
+  @Test public void testSimpleRecords() throws IOException {
+    assertRecords("a,b\n1,2\n", record("a", "b"), record("1", "2"));
+  }
+
+  @Test public void testCrLfLineBreaks() throws IOException {
+    assertRecords("a,b\r\n1,2\r\n", record("a", "b"), record("1", "2"));
+  }
+
+  @Test public void testQuotedDelimiter() throws IOException {
+    assertRecords("\"a,b\",c\n", record("a,b", "c"));
+  }
+
+  @Test public void testDoubledQuotes() throws IOException {
+    assertRecords("\"say \"\"hi\"\"\",x\n\"\"\"\"\n", record("say \"hi\"", "x"), record("\""));
+  }
+
+  @Test public void testLineBreaksInQuotedField() throws IOException {
+    assertRecords("\"l1\r\nl2\nl3\",z\r\nnext\n", record("l1\r\nl2\nl3", "z"), record("next"));
+  }
+
+  @Test public void testCarriageReturnInsideUnquotedField() throws IOException {
+    assertRecords("a\rb,c\n", record("a\rb", "c"));
+  }
+
+  @Test public void testLastRecordWithoutLineBreak() throws IOException {
+    assertRecords("a,b\n1,2", record("a", "b"), record("1", "2"));
+    assertRecords("\"x\ny\"", record("x\ny"));
+  }
+
+  @Test public void testEmptyFields() throws IOException {
+    assertRecords(",\n,,x\n\n", record("", ""), record("", "", "x"), record(""));
+  }
+
+  @Test public void testEmptyStream() throws IOException {
+    for (int bufferSize : BUFFER_SIZES) {
+      assertFalse(tokenizer(',', "", bufferSize).next());
+    }
+  }
+
+  @Test public void testOtherDelimiter() throws IOException {
+    assertRecords(';', "a;\"b;c\",d\n", record("a", "b;c,d"));
+  }
+
+  @Test public void testMultiByteCharacters() throws IOException {
+    assertRecords("é,€\n\"ü,ä\"\n", record("é", "€"), record("ü,ä"));
+  }
+
+  @Test public void testQuotedFlag() throws IOException {
+    for (int bufferSize : BUFFER_SIZES) {
+      CsvTokenizer tokenizer = tokenizer(',', "\"\",,nan,\"nan\"\n", bufferSize);
+      assertTrue(tokenizer.next());
+      assertEquals(4, tokenizer.getFieldCount());
+      assertTrue(tokenizer.isQuoted(0));
+      assertFalse(tokenizer.isQuoted(1));
+      assertTrue(tokenizer.isUnquoted(2, "nan".getBytes(StandardCharsets.US_ASCII)));
+      assertFalse(tokenizer.isUnquoted(3, "nan".getBytes(StandardCharsets.US_ASCII)));
+      assertFalse(tokenizer.next());
+    }
+  }
+
+  @Test public void testLongRecordGrowsTheBuffers() throws IOException {
+    StringBuilder csv = new StringBuilder();
+    List<String> fields = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      String field = "field" + i + new String(new char[100]).replace('\0', 'x');
+      fields.add(field);
+      csv.append(i > 0 ? "," : "").append(field);
+    }
+    assertRecords(csv.append('\n').toString(), fields);
+  }
+
+  private static List<String> record(String... fields) {
+    return Arrays.asList(fields);
+  }
+
+  @SafeVarargs
+  private static void assertRecords(String csv, List<String>... expected) throws IOException {
+    assertRecords(',', csv, expected);
+  }
+
+  @SafeVarargs
+  private static void assertRecords(char delimiter, String csv, List<String>... expected) throws IOException {
+    for (int bufferSize : BUFFER_SIZES) {
+      CsvTokenizer tokenizer = tokenizer(delimiter, csv, bufferSize);
+      List<List<String>> records = new ArrayList<>();
+      while (tokenizer.next()) {
+        List<String> fields = new ArrayList<>();
+        for (int i = 0; i < tokenizer.getFieldCount(); i++) {
+          fields.add(tokenizer.getString(i));
+        }
+        records.add(fields);
+      }
+      assertEquals("buffer size " + bufferSize, Arrays.asList(expected), records);
+    }
+  }
+
+  private static CsvTokenizer tokenizer(char delimiter, String csv, int bufferSize) {
+    return new CsvTokenizer(Channels.newChannel(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8))),
+        delimiter, bufferSize);
+  }
+}
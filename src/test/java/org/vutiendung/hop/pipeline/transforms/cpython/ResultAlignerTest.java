@@ -0,0 +1,162 @@
+/*! ******************************************************************************
+ *
+ * CPython for the Hop orchestration platform
+ *
+ * http://www.project-hop.org
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.vutiendung.hop.pipeline.transforms.cpython;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hop.core.exception.HopException;
+import org.apache.hop.core.row.IRowMeta;
+import org.apache.hop.core.row.RowMeta;
+import org.apache.hop.core.row.value.ValueMetaInteger;
+import org.apache.hop.core.row.value.ValueMetaString;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ResultAlignerTest {
+
+  private Path directory;
+  private SpillManager spill;
+  private ResultAligner aligner;
+
+  @Before public void setUp() throws IOException, HopException {
+    directory = Files.createTempDirectory("result-aligner");
+    spill = new SpillManager(directory.toString(), 0, null);
+  }
+
+  @After public void tearDown() throws IOException {
+    if (aligner != null) {
+      aligner.delete();
+    }
+    spill.delete();
+    Files.deleteIfExists(directory);
+  }
+
+  @Test public void testRowsAreWrittenInFrameOrder() throws HopException {
+    aligner = aligner(1024 * 1024);
+    put(3, "d");
+    put(0, "a");
+    put(2, "c");
+    put(1, "b");
+
+    assertEquals(Arrays.asList("0:a", "1:b", "2:c", "3:d"), written());
+  }
+
+  @Test public void testDroppedRowsLeaveNoGaps() throws HopException {
+    // the script filtered out the rows 1, 2 and 4
+    aligner = aligner(1024 * 1024);
+    put(5, "f");
+    put(3, "d");
+    put(0, "a");
+
+    assertEquals(Arrays.asList("0:a", "3:d", "5:f"), written());
+  }
+
+  @Test public void testDuplicatedIndexesKeepTheirOrder() throws HopException {
+    // the script exploded row 1 into several rows
+    aligner = aligner(1024 * 1024);
+    put(1, "b1");
+    put(0, "a");
+    put(1, "b2");
+    put(2, "c");
+    put(1, "b3");
+
+    assertEquals(Arrays.asList("0:a", "1:b1", "1:b2", "1:b3", "2:c"), written());
+  }
+
+  @Test public void testSparseIndexes() throws HopException {
+    // an index far beyond the number of rows must not size anything by the index
+    aligner = aligner(1024 * 1024);
+    put(Integer.MAX_VALUE - 1, "z");
+    put(7, "h");
+    put(Integer.MAX_VALUE - 1, "y");
+    put(0, "a");
+
+    assertEquals(Arrays.asList("0:a", "7:h", (Integer.MAX_VALUE - 1) + ":z", (Integer.MAX_VALUE - 1) + ":y"),
+        written());
+  }
+
+  @Test public void testSpilledRows() throws HopException {
+    aligner = aligner(256);
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      expected.add(i + ":row " + i);
+    }
+    for (int i = 499; i >= 0; i--) {
+      put(i, "row " + i);
+    }
+
+    assertEquals(expected, written());
+  }
+
+  @Test public void testNegativeIndexIsRejected() throws HopException {
+    assertRejected(-1L);
+  }
+
+  @Test public void testIndexBeyondIntegerRangeIsRejected() throws HopException {
+    assertRejected((long) Integer.MAX_VALUE);
+  }
+
+  @Test public void testMissingIndexIsRejected() throws HopException {
+    assertRejected(null);
+  }
+
+  private void assertRejected(Long index) throws HopException {
+    aligner = aligner(1024 * 1024);
+    put(0, "a");
+    try {
+      aligner.putRow(new Object[] { "b", index });
+      fail("The index " + index + " was accepted");
+    } catch (HopException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("frame row index [" + index + "]"));
+    }
+    assertEquals(Arrays.asList("0:a"), written());
+  }
+
+  private ResultAligner aligner(long memoryLimit) {
+    IRowMeta rowMeta = new RowMeta();
+    rowMeta.addValueMeta(new ValueMetaString("value"));
+    rowMeta.addValueMeta(new ValueMetaInteger(RowStore.INDEX_COLUMN));
+    return new ResultAligner(rowMeta, 1, memoryLimit, spill);
+  }
+
+  private void put(long index, String value) throws HopException {
+    aligner.putRow(new Object[] { value, index });
+  }
+
+  private List<String> written() throws HopException {
+    List<String> rows = new ArrayList<>();
+    aligner.writeTo(row -> rows.add(row[1] + ":" + row[0]));
+    return rows;
+  }
+}
@@ -0,0 +1,216 @@
+/*! ******************************************************************************
+ *
+ * CPython for the Hop orchestration platform
+ *
+ * http://www.project-hop.org
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.vutiendung.hop.pipeline.transforms.cpython;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.hop.core.exception.HopException;
+import org.apache.hop.core.row.IRowMeta;
+import org.apache.hop.core.row.RowMeta;
+import org.apache.hop.core.row.value.ValueMetaInteger;
+import org.apache.hop.core.row.value.ValueMetaString;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ResultCacheTest {
+
+  private Path directory;
+  private IRowMeta rowMeta;
+
+  @Before public void setUp() throws IOException {
+    directory = Files.createTempDirectory("result-cache");
+    rowMeta = new RowMeta();
+    rowMeta.addValueMeta(new ValueMetaString("name"));
+    rowMeta.addValueMeta(new ValueMetaInteger("count"));
+  }
+
+  @After public void tearDown() throws IOException {
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  @Test public void testKeyIsTheDigestOfLengthPrefixedValues() throws HopException {
+    MessageDigest digest = ResultCache.newDigest();
+    digest.update(new byte[] { 0, 0, 0, 2, 'a', 'b' });
+    digest.update(new byte[] { 0, 0, 1, 0 });
+    digest.update(new byte[256]);
+    StringBuilder expected = new StringBuilder();
+    for (byte b : digest.digest()) {
+      expected.append(String.format("%02x", b));
+    }
+
+    String key = new ResultCache.KeyBuilder().add("ab").add(new byte[256]).build();
+    assertEquals(expected.toString(), key);
+    assertEquals(key, new ResultCache.KeyBuilder().add("ab").add(new byte[256]).build());
+  }
+
+  @Test public void testValuesDoNotRunTogether() throws HopException {
+    assertDifferent(new ResultCache.KeyBuilder().add("ab").add("c").build(),
+        new ResultCache.KeyBuilder().add("a").add("bc").build());
+    assertDifferent(new ResultCache.KeyBuilder().add("abc").build(),
+        new ResultCache.KeyBuilder().add("abc").add("").build());
+    assertDifferent(new ResultCache.KeyBuilder().add("\u00e9").build(),
+        new ResultCache.KeyBuilder().add(new byte[] { (byte) 0xe9 }).build());
+  }
+
+  @Test public void testKeyDependsOnTheFields() throws HopException {
+    String key = new ResultCache.KeyBuilder().add(rowMeta).build();
+    assertEquals(key, new ResultCache.KeyBuilder().add(rowMeta.clone()).build());
+
+    IRowMeta otherType = new RowMeta();
+    otherType.addValueMeta(new ValueMetaString("name"));
+    otherType.addValueMeta(new ValueMetaString("count"));
+    assertDifferent(key, new ResultCache.KeyBuilder().add(otherType).build());
+
+    IRowMeta otherLength = rowMeta.clone();
+    otherLength.getValueMeta(0).setLength(10);
+    assertDifferent(key, new ResultCache.KeyBuilder().add(otherLength).build());
+
+    IRowMeta otherMask = rowMeta.clone();
+    otherMask.getValueMeta(1).setConversionMask("#,##0");
+    assertDifferent(key, new ResultCache.KeyBuilder().add(otherMask).build());
+
+    IRowMeta fewerFields = new RowMeta();
+    fewerFields.addValueMeta(new ValueMetaString("name"));
+    assertDifferent(key, new ResultCache.KeyBuilder().add(fewerFields).build());
+  }
+
+  @Test public void testCommittedResultIsReplayed() throws HopException {
+    ResultCache cache = new ResultCache(directory.toString(), 1024 * 1024);
+    List<Object[]> passedOn = new ArrayList<>();
+    ResultCache.Entry entry = cache.create("key", rowMeta, passedOn::add);
+    entry.putRow(new Object[] { "a", 1L });
+    entry.putRow(new Object[] { null, 2L });
+    entry.putRow(new Object[] { "c", null });
+    assertFalse(cache.replay("key", rowMeta, row -> { }));
+    assertTrue(entry.commit());
+    entry.discard();
+
+    List<Object[]> replayed = new ArrayList<>();
+    assertTrue(cache.replay("key", rowMeta, replayed::add));
+    assertEquals(3, passedOn.size());
+    assertEquals(passedOn.size(), replayed.size());
+    for (int i = 0; i < passedOn.size(); i++) {
+      assertEquals(Arrays.asList(passedOn.get(i)), Arrays.asList(replayed.get(i)));
+    }
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+    assertEquals(Arrays.asList("key.result"), fileNames());
+  }
+
+  @Test public void testEmptyResultIsReplayed() throws HopException {
+    ResultCache cache = new ResultCache(directory.toString(), 1024 * 1024);
+    assertTrue(cache.create("key", rowMeta, row -> { }).commit());
+
+    List<Object[]> replayed = new ArrayList<>();
+    assertTrue(cache.replay("key", rowMeta, replayed::add));
+    assertTrue(replayed.isEmpty());
+  }
+
+  @Test public void testDiscardedResultIsNotCached() throws HopException {
+    ResultCache cache = new ResultCache(directory.toString(), 1024 * 1024);
+    ResultCache.Entry entry = cache.create("key", rowMeta, row -> { });
+    entry.putRow(new Object[] { "a", 1L });
+    entry.discard();
+
+    assertFalse(entry.commit());
+    assertFalse(cache.replay("key", rowMeta, row -> { }));
+    assertTrue(fileNames().isEmpty());
+  }
+
+  @Test public void testLeastRecentlyUsedResultIsEvicted() throws Exception {
+    long size = resultSize();
+    ResultCache cache = new ResultCache(directory.toString(), size * 2 + size / 2);
+    commit(cache, "first");
+    commit(cache, "second");
+    setLastUsed("first", 20);
+    setLastUsed("second", 10);
+
+    // replaying the first result makes the second one the least recently used
+    assertTrue(cache.replay("first", rowMeta, row -> { }));
+    commit(cache, "third");
+
+    assertEquals(Arrays.asList("first.result", "third.result"), fileNames());
+    assertFalse(cache.replay("second", rowMeta, row -> { }));
+  }
+
+  @Test public void testResultLargerThanTheCacheIsNotKept() throws Exception {
+    ResultCache cache = new ResultCache(directory.toString(), resultSize() - 1);
+    commit(cache, "key");
+
+    assertTrue(fileNames().isEmpty());
+  }
+
+  private void commit(ResultCache cache, String key) throws HopException {
+    ResultCache.Entry entry = cache.create(key, rowMeta, row -> { });
+    entry.putRow(new Object[] { "value", 42L });
+    assertTrue(entry.commit());
+  }
+
+  /**
+   * @return the number of bytes of a result written by {@link #commit}
+   */
+  private long resultSize() throws Exception {
+    commit(new ResultCache(directory.toString(), Long.MAX_VALUE), "size");
+    Path file = directory.resolve("size.result");
+    long size = Files.size(file);
+    Files.delete(file);
+    return size;
+  }
+
+  private void setLastUsed(String key, long secondsAgo) throws IOException {
+    Files.setLastModifiedTime(directory.resolve(key + ".result"),
+        FileTime.fromMillis(System.currentTimeMillis() - secondsAgo * 1000));
+  }
+
+  private List<String> fileNames() {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.map(file -> file.getFileName().toString()).sorted().collect(Collectors.toList());
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void assertDifferent(String key, String other) {
+    assertFalse("Both keys are " + key, key.equals(other));
+  }
+}
@@ -0,0 +1,180 @@
+/*! ******************************************************************************
+ *
+ * CPython for the Hop orchestration platform
+ *
+ * http://www.project-hop.org
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+
+package org.vutiendung.hop.pipeline.transforms.cpython;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.hop.core.exception.HopException;
+import org.apache.hop.core.row.IRowMeta;
+import org.apache.hop.core.row.RowMeta;
+import org.apache.hop.core.row.value.ValueMetaBigNumber;
+import org.apache.hop.core.row.value.ValueMetaBinary;
+import org.apache.hop.core.row.value.ValueMetaBoolean;
+import org.apache.hop.core.row.value.ValueMetaDate;
+import org.apache.hop.core.row.value.ValueMetaInteger;
+import org.apache.hop.core.row.value.ValueMetaNumber;
+import org.apache.hop.core.row.value.ValueMetaString;
+import org.apache.hop.core.row.value.ValueMetaTimestamp;
+import org.junit.Test;
+
+public class RowCodecTest {
+
+  private static IRowMeta allTypes() {
+    IRowMeta rowMeta = new RowMeta();
+    rowMeta.addValueMeta(new ValueMetaInteger("integer"));
+    rowMeta.addValueMeta(new ValueMetaNumber("number"));
+    rowMeta.addValueMeta(new ValueMetaBoolean("boolean"));
+    rowMeta.addValueMeta(new ValueMetaString("string"));
+    rowMeta.addValueMeta(new ValueMetaDate("date"));
+    rowMeta.addValueMeta(new ValueMetaTimestamp("timestamp"));
+    rowMeta.addValueMeta(new ValueMetaBigNumber("bignumber"));
+    rowMeta.addValueMeta(new ValueMetaBinary("binary"));
+    return rowMeta;
+  }
+
+  @Test public void testRoundTripOfAllTypes() throws HopException {
+    IRowMeta rowMeta = allTypes();
+    Timestamp timestamp = Timestamp.valueOf("2021-06-15 12:30:15.123456");
+    Object[] row = { Long.MIN_VALUE, -0.5d, Boolean.TRUE, "naïve € 😀", new Date(1234567890123L), timestamp,
+        new BigDecimal("-12345678901234567890.123456789012345678901"), new byte[] { 0, 1, (byte) 0xFF } };
+
+    Object[] decoded = roundTrip(rowMeta, row);
+    assertEquals(row[0], decoded[0]);
+    assertEquals(row[1], decoded[1]);
+    assertEquals(row[2], decoded[2]);
+    assertEquals(row[3], decoded[3]);
+    assertEquals(new Date(1234567890123L), decoded[4]);
+    assertEquals(Date.class, decoded[4].getClass());
+    assertEquals(timestamp, decoded[5]);
+    assertEquals(row[6], decoded[6]);
+    assertArrayEquals((byte[]) row[7], (byte[]) decoded[7]);
+  }
+
+  @Test public void testNulls() throws HopException {
+    IRowMeta rowMeta = allTypes();
+    Object[] row = new Object[rowMeta.size()];
+
+    RowCodec codec = new RowCodec(rowMeta, rowMeta);
+    assertEquals(rowMeta.size(), codec.encode(row));
+    for (int i = 0; i < rowMeta.size(); i++) {
+      assertEquals(RowCodec.TAG_NULL, codec.getBuffer()[i]);
+    }
+    Object[] decoded = roundTrip(rowMeta, row);
+    for (int i = 0; i < rowMeta.size(); i++) {
+      assertNull(rowMeta.getValueMeta(i).getName(), decoded[i]);
+    }
+  }
+
+  @Test public void testTimestampKeepsMicrosecondsOnly() throws HopException {
+    IRowMeta rowMeta = new RowMeta();
+    rowMeta.addValueMeta(new ValueMetaTimestamp("timestamp"));
+    Timestamp timestamp = Timestamp.valueOf("1969-12-31 23:59:59.999999999");
+
+    Timestamp decoded = (Timestamp) roundTrip(rowMeta, new Object[] { timestamp })[0];
+    assertEquals(Timestamp.valueOf("1969-12-31 23:59:59.999999"), decoded);
+  }
+
+  @Test public void testTimestampIsLocalMicroseconds() throws HopException {
+    IRowMeta rowMeta = new RowMeta();
+    rowMeta.addValueMeta(new ValueMetaTimestamp("timestamp"));
+    RowCodec codec = new RowCodec(rowMeta, rowMeta);
+
+    // pandas sees a naive datetime, so the wall clock time is sent whatever the time zone
+    assertEquals(9, codec.encode(new Object[] { Timestamp.valueOf("1970-01-01 00:00:01.000002") }));
+    byte[] buffer = codec.getBuffer();
+    assertEquals(RowCodec.TAG_TIMESTAMP, buffer[0]);
+    long micros = 0;
+    for (int i = 1; i < 9; i++) {
+      micros = (micros << 8) | (buffer[i] & 0xFF);
+    }
+    assertEquals(1000002L, micros);
+  }
+
+  @Test public void testResultValuesAreConvertedToTheOutputFields() throws HopException, IOException {
+    IRowMeta output = new RowMeta();
+    output.addValueMeta(new ValueMetaNumber("number"));
+    output.addValueMeta(new ValueMetaString("string"));
+    output.addValueMeta(new ValueMetaBigNumber("bignumber"));
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream data = new DataOutputStream(bytes);
+    data.writeInt(2);
+    for (int r = 0; r < 2; r++) {
+      data.writeByte(RowCodec.TAG_INTEGER);
+      data.writeLong(42 + r);
+      data.writeByte(RowCodec.TAG_INTEGER);
+      data.writeLong(7);
+      data.writeByte(RowCodec.TAG_STRING);
+      byte[] text = "1.25".getBytes(StandardCharsets.UTF_8);
+      data.writeInt(text.length);
+      data.write(text);
+    }
+
+    List<Object[]> rows = new RowCodec(new RowMeta(), output).decode(new ByteArrayInputStream(bytes.toByteArray()));
+    assertEquals(2, rows.size());
+    assertEquals(42d, rows.get(0)[0]);
+    assertEquals(43d, rows.get(1)[0]);
+    assertEquals("7", rows.get(0)[1]);
+    assertEquals(0, new BigDecimal("1.25").compareTo((BigDecimal) rows.get(0)[2]));
+  }
+
+  @Test(expected = HopException.class)
+  public void testTruncatedResultFails() throws HopException {
+    IRowMeta rowMeta = allTypes();
+    RowCodec codec = new RowCodec(rowMeta, rowMeta);
+    int length = codec.encode(new Object[] { 1L, 2d, true, "text", null, null, null, null });
+
+    byte[] result = new byte[4 + length - 2];
+    result[3] = 1;
+    System.arraycopy(codec.getBuffer(), 0, result, 4, length - 2);
+    codec.decode(new ByteArrayInputStream(result));
+  }
+
+  /**
+   * Encode a row and decode it as the only row of a result, the way the worker sends the values back
+   */
+  private static Object[] roundTrip(IRowMeta rowMeta, Object[] row) throws HopException {
+    RowCodec codec = new RowCodec(rowMeta, rowMeta);
+    int length = codec.encode(row);
+    byte[] result = new byte[4 + length];
+    result[3] = 1;
+    System.arraycopy(codec.getBuffer(), 0, result, 4, length);
+
+    List<Object[]> rows = codec.decode(new ByteArrayInputStream(result));
+    assertEquals(1, rows.size());
+    return rows.get(0);
+  }
+}
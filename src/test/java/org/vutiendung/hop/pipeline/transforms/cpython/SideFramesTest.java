@@ -0,0 +1,106 @@
+/*! ******************************************************************************
+ *
+ * CPython for the Hop orchestration platform
+ *
+ * http://www.project-hop.org
+ *
+ *******************************************************************************
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ ******************************************************************************/
+
+package org.vutiendung.hop.pipeline.transforms.cpython;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hop.core.exception.HopException;
+import org.junit.Test;
+
+public class SideFramesTest {
+
+  private final List<List<Object[]>> buffers = new ArrayList<>();
+  private int reads;
+
+  private SideFrames sideFrames(final Object... lookupRows) {
+    buffers.add(new ArrayList<Object[]>());
+    buffers.add(new ArrayList<Object[]>());
+    return new SideFrames(buffers, (frameIndex, rows) -> {
+      assertEquals(1, frameIndex);
+      reads++;
+      for (Object value : lookupRows) {
+        rows.add(new Object[] { value });
+      }
+    });
+  }
+
+  /**
+   * Collects the rows written to a frame
+   */
+  private static class ListWriter implements IFrameWriter {
+    private final List<Object> values = new ArrayList<>();
+
+    @Override public void writeRow(Object[] row) {
+      values.add(row[0]);
+    }
+
+    @Override public void close() {
+    }
+
+    @Override public String getPandasReadCommand(String frameName, String source) {
+      return "";
+    }
+  }
+
+  @Test public void testEveryBatchOfOneRowGetsTheCompleteSideFrame() throws HopException {
+    // two frames and batch size 1: the first batch opens before the side frame was read
+    SideFrames sideFrames = sideFrames("x", "y");
+    List<List<Object>> batches = new ArrayList<>();
+    for (int batch = 0; batch < 3; batch++) {
+      ListWriter lookup = new ListWriter();
+      sideFrames.writeTo(1, lookup);
+      batches.add(lookup.values);
+    }
+
+    for (List<Object> batch : batches) {
+      assertEquals(Arrays.<Object>asList("x", "y"), batch);
+    }
+    assertEquals(1, reads);
+    assertTrue(sideFrames.isRead());
+  }
+
+  @Test public void testRowsBufferedBeforeReadingComeFirst() throws HopException {
+    // the first row of the input came from the side frame
+    SideFrames sideFrames = sideFrames("y", "z");
+    buffers.get(1).add(new Object[] { "x" });
+
+    ListWriter lookup = new ListWriter();
+    sideFrames.writeTo(1, lookup);
+
+    assertEquals(Arrays.<Object>asList("x", "y", "z"), lookup.values);
+  }
+
+  @Test public void testReadOnlyOnce() throws HopException {
+    SideFrames sideFrames = sideFrames("x");
+    sideFrames.read();
+    sideFrames.read();
+
+    assertEquals(1, reads);
+    assertEquals(1, sideFrames.getRows(1).size());
+  }
+}